@@ -0,0 +1,254 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spoofer.signalseeker.spatial.GeoHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds and rebuilds the calculated table of small cell databases on a device, checking a rebuild fills the
+ * shadow table and swaps it in whole while readers carry on reading the old one, replaces a shadow left by an
+ * interrupted rebuild, and reads a downloaded cell_zone table naming its columns its own way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CalculatedTableTest {
+
+    private static final int CELLS = 20000;
+    private static final String CREATE_OTHER_CELLS_TABLE = "CREATE TABLE " + CellDatabase.TABLE_CELLS +
+            "(_id INTEGER PRIMARY KEY, mcc INTEGER, net INTEGER, area INTEGER, cell INTEGER," +
+            " lat NUMERIC, lon NUMERIC, updated INTEGER)";
+    private static final String INSERT_OTHER_CELL = "INSERT INTO " + CellDatabase.TABLE_CELLS +
+            "(_id, mcc, net, area, cell, lat, lon, updated) VALUES (?,?,?,?,?,?,?,?)";
+
+    private File dir;
+    private File file;
+    private SchemaMigrator.CalculatedTable table;
+
+    @Before
+    public void setUp() throws IOException {
+        File cache = InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        dir = Files.createTempDirectory(cache.toPath(), "calc").toFile();
+        file = new File(dir, "DE.db");
+        table = new SchemaMigrator.CalculatedTable(file.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void rebuild_buildsMissingTable() throws IOException {
+        create(CellDatabase.CREATE_CELLS_TABLE, CellDatabase.INSERT_CELL, 0, CELLS);
+        assertEquals(SchemaMigrator.MISSING, table.state());
+
+        table.rebuild();
+        assertEquals(SchemaMigrator.CURRENT, table.state());
+        SharedDatabase shared = SharedDatabase.open(file.getPath());
+        try {
+            SQLiteDatabase db = shared.acquireReader();
+            try {
+                assertEquals(CELLS, DatabaseUtils.queryNumEntries(db, CellDatabase.TABLE_CALC));
+                assertFalse(hasTable(db, CellDatabase.TABLE_CALC_SHADOW));
+                // each row is derived from its cell
+                long key = DatabaseUtils.longForQuery(db, "SELECT geohash FROM " + CellDatabase.TABLE_CALC +
+                        " WHERE cell_id = 1234", null);
+                assertEquals(GeoHash.encode(latitude(1234), longitude(1234)), key);
+            } finally {
+                shared.releaseReader(db);
+            }
+        } finally {
+            shared.release();
+        }
+    }
+
+    @Test
+    public void rebuild_swapsWhileReadersRead() throws Exception {
+        create(CellDatabase.CREATE_CELLS_TABLE, CellDatabase.INSERT_CELL, 0, CELLS);
+        table.rebuild();
+
+        // more cells make the table stale
+        final SharedDatabase shared = SharedDatabase.open(file.getPath());
+        try {
+            SQLiteDatabase writer = shared.acquireWriter();
+            try {
+                insert(writer, CellDatabase.INSERT_CELL, CELLS, CELLS / 2);
+            } finally {
+                shared.releaseWriter(writer);
+            }
+            assertEquals(SchemaMigrator.STALE, table.state());
+
+            // a reader counts the calculated table throughout the rebuild
+            final AtomicBoolean done = new AtomicBoolean();
+            final AtomicInteger reads = new AtomicInteger();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final AtomicReference<Long> unexpected = new AtomicReference<>();
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            SQLiteDatabase db = shared.acquireReader();
+                            try {
+                                long rows = DatabaseUtils.queryNumEntries(db, CellDatabase.TABLE_CALC);
+                                if (rows != CELLS && rows != CELLS + CELLS / 2)
+                                    unexpected.set(rows);
+                                reads.incrementAndGet();
+                            } finally {
+                                shared.releaseReader(db);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            reader.start();
+            try {
+                table.rebuild();
+            } finally {
+                done.set(true);
+                reader.join();
+            }
+            assertNull(failure.get());
+            assertNull("read a table of " + unexpected.get() + " rows", unexpected.get());
+            assertTrue(reads.get() > 0);
+            assertEquals(SchemaMigrator.CURRENT, table.state());
+
+            SQLiteDatabase db = shared.acquireReader();
+            try {
+                assertEquals(CELLS + CELLS / 2, DatabaseUtils.queryNumEntries(db, CellDatabase.TABLE_CALC));
+                assertFalse(hasTable(db, CellDatabase.TABLE_CALC_SHADOW));
+            } finally {
+                shared.releaseReader(db);
+            }
+        } finally {
+            shared.release();
+        }
+    }
+
+    @Test
+    public void rebuild_replacesLeftoverShadow() throws IOException {
+        create(CellDatabase.CREATE_CELLS_TABLE, CellDatabase.INSERT_CELL, 0, CELLS);
+        table.rebuild();
+        // a rebuild interrupted part way through its shadow
+        SharedDatabase shared = SharedDatabase.open(file.getPath());
+        try {
+            SQLiteDatabase writer = shared.acquireWriter();
+            try {
+                writer.execSQL(CellDatabase.createCalcTable(CellDatabase.TABLE_CALC_SHADOW));
+                writer.execSQL("INSERT INTO " + CellDatabase.TABLE_CALC_SHADOW + "(cell_id, geohash) VALUES (1, 0)");
+                insert(writer, CellDatabase.INSERT_CELL, CELLS, 10);
+            } finally {
+                shared.releaseWriter(writer);
+            }
+            assertEquals(SchemaMigrator.STALE, table.state());
+
+            table.rebuild();
+            SQLiteDatabase db = shared.acquireReader();
+            try {
+                assertEquals(CELLS + 10, DatabaseUtils.queryNumEntries(db, CellDatabase.TABLE_CALC));
+                assertFalse(hasTable(db, CellDatabase.TABLE_CALC_SHADOW));
+            } finally {
+                shared.releaseReader(db);
+            }
+        } finally {
+            shared.release();
+        }
+    }
+
+    @Test
+    public void rebuild_readsOtherColumnNames() throws IOException {
+        create(CREATE_OTHER_CELLS_TABLE, INSERT_OTHER_CELL, 0, CELLS);
+        assertEquals(SchemaMigrator.MISSING, table.state());
+        table.rebuild();
+        assertEquals(SchemaMigrator.CURRENT, table.state());
+
+        CellDatabase cells = new CellDatabase(file.getPath());
+        try {
+            List<Cell> found = cells.findLocalCells(latitude(500), longitude(500), 3);
+            assertNotNull(found);
+            assertEquals(3, found.size());
+            Cell nearest = found.get(0);
+            assertEquals("500", nearest.getCellID());
+            assertEquals(Integer.toString(lac(500)), nearest.getLocationAreaCode());
+            assertEquals(latitude(500), nearest.getLatitude(), 1e-6);
+            assertNotNull(nearest.getLastUpdate());
+        } finally {
+            cells.close();
+        }
+    }
+
+    // create writes a database of the cells with ids from first, in WAL mode as an import leaves it.
+    private void create(String createTable, String insertCell, int first, int count) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL(createTable);
+            insert(db, insertCell, first, count);
+            db.enableWriteAheadLogging();
+        } finally {
+            db.close();
+        }
+    }
+
+    // insert adds cells along a line north east, in the column order of both insert statements.
+    private static void insert(SQLiteDatabase db, String insertCell, int first, int count) {
+        SQLiteStatement insert = db.compileStatement(insertCell);
+        db.beginTransaction();
+        try {
+            for (int i = first; i < first + count; i++) {
+                insert.bindLong(1, i);
+                insert.bindLong(2, 262);
+                insert.bindLong(3, 1);
+                insert.bindLong(4, lac(i));
+                insert.bindLong(5, i);
+                insert.bindDouble(6, latitude(i));
+                insert.bindDouble(7, longitude(i));
+                insert.bindLong(8, 1500000000000L + i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static int lac(int i) {
+        return i / 100;
+    }
+
+    private static double latitude(int i) {
+        return 50 + i * 0.0001;
+    }
+
+    private static double longitude(int i) {
+        return 8 + i * 0.0001;
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{name}) > 0;
+    }
+}
@@ -1,7 +1,5 @@
 package org.spoofer.signalseeker;
 
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -17,13 +15,15 @@ import androidx.fragment.app.Fragment;
 import androidx.navigation.fragment.NavHostFragment;
 
 import org.spoofer.signalseeker.celldb.Cell;
+import org.spoofer.signalseeker.compass.HeadingEngine;
+import org.spoofer.signalseeker.geocode.AsyncGeocoder;
 import org.spoofer.signalseeker.location.CellLocationService;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-public class DirectionFragment extends Fragment implements CellLocationService.CellLocationListener {
+public class DirectionFragment extends Fragment implements CellLocationService.CellLocationListener,
+        AsyncGeocoder.Callback {
 
     private TextView txtLocation;
     private TextView txtCoords;
@@ -31,6 +31,9 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
     private ImageButton btnPrevCell;
     private ImageButton btnNextCell;
     private ImageView imgArrow;
+    private HeadingEngine headingEngine;
+    private AsyncGeocoder geocoder;
+    private long addressKey;
 
     private final List<Cell> localCells = new ArrayList<>();
     private Cell selectedCell = null;
@@ -47,9 +50,29 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
         btnPrevCell = view.findViewById(R.id.img_button_prev);
         btnNextCell = view.findViewById(R.id.img_button_next);
         imgArrow = view.findViewById(R.id.image_view_arrow);
+        headingEngine = new HeadingEngine(requireContext(), imgArrow);
+        geocoder = new AsyncGeocoder(requireContext());
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        geocoder.close();
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        headingEngine.start();
+    }
+
+    @Override
+    public void onPause() {
+        headingEngine.stop();
+        super.onPause();
+    }
+
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
@@ -67,11 +90,7 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
             txtLocation.setText("waiting for location...");
             return;
         }
-        Address addr = getAddressFromLocation(lastLocation);
-        if (addr == null) {
-            return;
-        }
-        txtLocation.setText(getAddressText(addr));
+        addressKey = geocoder.lookup(lastLocation.getLatitude(), lastLocation.getLongitude(), this);
     }
 
     private void updateCellDisplay() {
@@ -87,14 +106,20 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
                     selectedCell.getCellID(), selectedCell.getMobileNetworkCode(), selectedCell.getDistance()));
         }
 
-        float degree = 0;
-        if (selectedCell != null && lastLocation != null) {
-            Location cellLocation = new Location("");
-            cellLocation.setLatitude(selectedCell.getLatitude());
-            cellLocation.setLongitude(selectedCell.getLongitude());
-            degree = lastLocation.bearingTo(cellLocation);
+        updateTargetBearing();
+    }
+
+    // Bearing to the selected cell only changes with a new location or selection,
+    // the heading engine combines it with the device heading on each frame.
+    private void updateTargetBearing() {
+        if (selectedCell == null || lastLocation == null) {
+            headingEngine.clearTarget();
+            return;
         }
-        imgArrow.setRotation(degree);
+        Location cellLocation = new Location("");
+        cellLocation.setLatitude(selectedCell.getLatitude());
+        cellLocation.setLongitude(selectedCell.getLongitude());
+        headingEngine.setTargetBearing(lastLocation.bearingTo(cellLocation));
     }
 
     private int getSelectedCellIndex() {
@@ -109,42 +134,6 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
         return -1;
     }
 
-    private Address getAddressFromLocation(Location location) {
-        Address addr;
-        try {
-            Geocoder geocoder = new Geocoder(getContext());
-            List<Address> addrs = geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), 1);
-            if (addrs.size() == 0) {
-                return null;
-            }
-            addr = addrs.get(0);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(getContext(), "Failed to geocode location", Toast.LENGTH_LONG).show();
-            return null;
-        }
-        return addr;
-    }
-
-    private String getAddressText(Address addr) {
-        StringBuilder s = new StringBuilder();
-
-        int count = addr.getMaxAddressLineIndex();
-        for (int i = 0; i <= count; i++) {
-            if (addr.getAddressLine(i) != null) {
-                s.append(addr.getAddressLine(i));
-                s.append('\n');
-            }
-        }
-        if (addr.getPostalCode() != null) {
-            s.append(addr.getPostalCode());
-            s.append('\n');
-        }
-        return s.toString();
-    }
-
-
     /* ============ CellLocationListener interface ================= */
 
 
@@ -152,6 +141,7 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
     public void LocationUpdate(Location location) {
         lastLocation = location;
         updateLocationDisplay();
+        updateTargetBearing();
     }
 
     @Override
@@ -166,4 +156,25 @@ public class DirectionFragment extends Fragment implements CellLocationService.C
         updateCellDisplay();
     }
 
+
+    /* ============ AsyncGeocoder.Callback interface ================= */
+
+
+    @Override
+    public void onAddress(long key, String address) {
+        // ignore addresses of locations already moved away from
+        if (key != addressKey || address.isEmpty()) {
+            return;
+        }
+        txtLocation.setText(address);
+    }
+
+    @Override
+    public void onAddressFailed(long key) {
+        if (key != addressKey || getContext() == null) {
+            return;
+        }
+        Toast.makeText(getContext(), "Failed to geocode location", Toast.LENGTH_LONG).show();
+    }
+
 }
\ No newline at end of file
@@ -1,128 +1,118 @@
 package org.spoofer.signalseeker;
 
-import android.app.DownloadManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.ProgressBar;
+import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import org.spoofer.signalseeker.celldb.CellDatabaseLoader;
+import org.spoofer.signalseeker.celldb.ImportPipeline;
+import org.spoofer.signalseeker.download.DownloadEngine;
+import org.spoofer.signalseeker.location.CellLocationService;
 
-public class DownloadActivity extends AppCompatActivity {
+import java.io.File;
+import java.net.MalformedURLException;
+
+// DownloadActivity downloads the cell database of the country given in the "countryCode" extra,
+// showing progress as the download engine reports it.
+// With the "archive" extra set, the database is built from the country's compressed export as it downloads.
+// A "sha256" extra gives the checksum the file must match; without one it is not verified.
+// Once the database is in place the CellLocationService is started with the country to open it.
+public class DownloadActivity extends AppCompatActivity implements DownloadEngine.Listener {
     private final Handler guiHandler = new Handler(Looper.getMainLooper());
 
-    private DownloadManager mgr = null;
-    private long id;
+    private final DownloadEngine engine = new DownloadEngine();
+    private DownloadEngine.Download download;
+    private ImportPipeline pipeline;
+    private String countryCode;
 
     private ProgressBar progressBar;
-    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private int lastProgress = -1;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_download);
 
-        mgr = (DownloadManager) getSystemService(DOWNLOAD_SERVICE);
-
         progressBar = findViewById(R.id.progress_bar);
         progressBar.setMax(100);
         progressBar.setProgress(0, false);
 
-        DownloadManager.Request request = new DownloadManager.Request(Uri.parse(getIntent().getStringExtra("URL")));
-
-        request
-                .setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, "UPDATE")
-                .setAllowedNetworkTypes(DownloadManager.Request.NETWORK_WIFI | DownloadManager.Request.NETWORK_MOBILE)
-                .setAllowedOverRoaming(false)
-                .setTitle("APP update")
-                .setDescription("New version " + getIntent().getDoubleExtra("OV", 0.0))
-                .setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-
-        id = mgr.enqueue(request);
-
-        registerReceiver(receiver, new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
-
+        countryCode = getIntent().getStringExtra("countryCode");
+        if (countryCode == null) {
+            finish();
+            return;
+        }
+        try {
+            CellDatabaseLoader loader = new CellDatabaseLoader(getApplicationContext());
+            String sha256 = getIntent().getStringExtra("sha256");
+            if (getIntent().getBooleanExtra("archive", false))
+                pipeline = loader.importDatabase(countryCode, sha256, this);
+            else
+                download = loader.downloadDatabase(engine, countryCode, sha256, this);
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            finish();
+        }
     }
 
     @Override
-    protected void onStart() {
-        super.onStart();
-        if (!isRunning.getAndSet(true)) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int lastProgress = 0;
-
-                    while (isRunning.get()) {
-                        final int progress = getProgress();
-                        if (progress < 0) {
-                            break;
-                        }
-                        if (progress > lastProgress) {
-                            lastProgress = progress;
-                            guiHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    progressBar.setProgress(progress, true);
-                                }
-                            });
-                        }
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    isRunning.set(false);
-                }
-            }).start();
-        }
+    protected void onDestroy() {
+        // an unfinished download is kept in its part file and resumes next time
+        if (download != null)
+            download.cancel();
+        if (pipeline != null)
+            pipeline.cancel();
+        engine.shutdown();
+        super.onDestroy();
     }
 
+    /* ============ DownloadEngine.Listener interface, called on the download thread ================= */
+
     @Override
-    protected void onStop() {
-        super.onStop();
-        isRunning.set(false);
+    public void onProgress(long downloaded, long total) {
+        if (total <= 0)
+            return;
+        final int progress = (int) (downloaded * 100 / total);
+        if (progress == lastProgress)
+            return;
+        lastProgress = progress;
+        guiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                progressBar.setProgress(progress, true);
+            }
+        });
     }
 
-    BroadcastReceiver receiver = new BroadcastReceiver() {
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (action.equals(mgr.ACTION_DOWNLOAD_COMPLETE)) {
-                unregisterReceiver(receiver);
-                isRunning.set(false);
-                finishActivity(99);
+    @Override
+    public void onComplete(File file, String sha256) {
+        guiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Intent intent = new Intent(getApplicationContext(), CellLocationService.class);
+                intent.putExtra("countryCode", countryCode);
+                startService(intent);
+                setResult(RESULT_OK);
+                finish();
             }
-        }
-    };
-
-
-    private int getProgress() {
-        DownloadManager.Query q = new DownloadManager.Query();
-        q.setFilterById(id); //filter by id which you have receieved when reqesting download from download manager
-        Cursor cursor = mgr.query(q);
-        if (!cursor.moveToFirst()) {
-            return -1;
-        }
-
-        int bytes_total = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-        if (bytes_total <= 0) {
-            return -1;
-        }
-        int bytes_downloaded = cursor.getInt(cursor
-                .getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-        cursor.close();
-        return (int)((double)bytes_downloaded / bytes_total) * 100;
+        });
     }
 
+    @Override
+    public void onFailed(final Exception e) {
+        guiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), "Download failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                setResult(RESULT_CANCELED);
+                finish();
+            }
+        });
+    }
 }
@@ -20,9 +20,13 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
+import androidx.navigation.Navigation;
 
 import org.spoofer.signalseeker.location.CellLocationService;
 
+import java.io.File;
+import java.io.IOException;
+
 public class MainActivity extends AppCompatActivity {
     private final Object lock = new Object();
     private CellLocationService locationSvc;
@@ -71,6 +75,14 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_metrics) {
+            Navigation.findNavController(this, R.id.nav_host_fragment).navigate(R.id.MetricsFragment);
+            return true;
+        }
+        if (id == R.id.action_record_track) {
+            toggleRecording(item);
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -95,6 +107,30 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    private void toggleRecording(MenuItem item) {
+        CellLocationService svc;
+        synchronized (lock) {
+            svc = locationSvc;
+        }
+        if (svc == null)
+            return;
+
+        if (svc.isRecording()) {
+            svc.stopRecording();
+            item.setTitle(R.string.action_record_track);
+            return;
+        }
+        File track = new File(getExternalFilesDir(null), "track-" + System.currentTimeMillis() + ".trk");
+        try {
+            svc.startRecording(track);
+            item.setTitle(R.string.action_stop_recording);
+            Toast.makeText(getApplicationContext(), "Recording to " + track.getName(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Toast.makeText(getApplicationContext(), "Failed to start recording: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
     private void bindToLocationService() {
         Intent intent = new Intent(getApplicationContext(), CellLocationService.class);
         if (bindService(intent, connection, Context.BIND_AUTO_CREATE)) {
@@ -0,0 +1,105 @@
+package org.spoofer.signalseeker;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import org.spoofer.signalseeker.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+
+// MetricsFragment is a debug screen showing the current metrics, refreshed every second,
+// with buttons to dump them to a file or reset them between runs.
+public class MetricsFragment extends Fragment {
+    private static final long REFRESH_INTERVAL = 1000; // milliseconds
+    private static final String DUMP_FILE = "metrics.txt";
+
+    private final Handler guiHandler = new Handler(Looper.getMainLooper());
+    private TextView txtMetrics;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+        txtMetrics = view.findViewById(R.id.textview_metrics);
+        return view;
+    }
+
+    public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        view.findViewById(R.id.button_dump_metrics).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                dumpMetrics();
+            }
+        });
+        view.findViewById(R.id.button_reset_metrics).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Metrics.reset();
+                refresh.run();
+            }
+        });
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        refresh.run();
+    }
+
+    @Override
+    public void onPause() {
+        guiHandler.removeCallbacks(refresh);
+        super.onPause();
+    }
+
+    // dumpMetrics writes the metrics to the app's external files directory on a thread of its own.
+    private void dumpMetrics() {
+        final Context context = requireContext().getApplicationContext();
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            Toast.makeText(context, "No storage to write metrics to", Toast.LENGTH_LONG).show();
+            return;
+        }
+        final File file = new File(dir, DUMP_FILE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    Metrics.dump(file);
+                    message = "Metrics written to " + file.getAbsolutePath();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    message = "Failed to write metrics";
+                }
+                final String text = message;
+                guiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "metrics-dump").start();
+    }
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            txtMetrics.setText(Metrics.report());
+            guiHandler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+}
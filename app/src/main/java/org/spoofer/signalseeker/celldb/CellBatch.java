@@ -0,0 +1,102 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.util.Date;
+
+// CellBatch holds the local cells found for a batch of points in columns, up to limit cells per point in
+// point order, so a large batch is a few arrays rather than a Cell object per result.
+public class CellBatch {
+    private final int limit;
+    private final int[] counts;
+    final int[] mcc;
+    final int[] mnc;
+    final int[] lac;
+    final int[] cid;
+    final float[] latitudes;
+    final float[] longitudes;
+    final float[] distances; // metres
+    final long[] updated;
+
+    CellBatch(int points, int limit) {
+        this.limit = limit;
+        counts = new int[points];
+        int slots = points * limit;
+        mcc = new int[slots];
+        mnc = new int[slots];
+        lac = new int[slots];
+        cid = new int[slots];
+        latitudes = new float[slots];
+        longitudes = new float[slots];
+        distances = new float[slots];
+        updated = new long[slots];
+    }
+
+    // set fills the i'th slot of the point from the cell at the index position.
+    void set(int point, int i, CellIndex idx, int position, double distance) {
+        int s = point * limit + i;
+        mcc[s] = idx.mcc(position);
+        mnc[s] = idx.mnc(position);
+        lac[s] = idx.lac(position);
+        cid[s] = idx.cid(position);
+        latitudes[s] = (float) idx.latitude(position);
+        longitudes[s] = (float) idx.longitude(position);
+        distances[s] = (float) distance;
+        updated[s] = idx.updated(position);
+        if (i >= counts[point])
+            counts[point] = i + 1;
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    // count returns the number of cells found for the point.
+    public int count(int point) {
+        return counts[point];
+    }
+
+    public int mcc(int point, int i) {
+        return mcc[point * limit + i];
+    }
+
+    public int mnc(int point, int i) {
+        return mnc[point * limit + i];
+    }
+
+    public int lac(int point, int i) {
+        return lac[point * limit + i];
+    }
+
+    public int cid(int point, int i) {
+        return cid[point * limit + i];
+    }
+
+    public double latitude(int point, int i) {
+        return latitudes[point * limit + i];
+    }
+
+    public double longitude(int point, int i) {
+        return longitudes[point * limit + i];
+    }
+
+    // distance returns the distance in metres from the point to its i'th nearest cell.
+    public double distance(int point, int i) {
+        return distances[point * limit + i];
+    }
+
+    // updated returns when the cell was last seen, in milliseconds since the epoch, or 0 when unknown.
+    public long updated(int point, int i) {
+        return updated[point * limit + i];
+    }
+
+    // cell returns the point's i'th nearest cell as a Cell, with its distance in kilometres.
+    public Cell cell(int point, int i) {
+        int s = point * limit + i;
+        return new Cell(Integer.toString(cid[s]), Integer.toString(mcc[s]), Integer.toString(mnc[s]),
+                Integer.toString(lac[s]), latitudes[s], longitudes[s], Math.round(distances[s] / 1000),
+                updated[s] > 0 ? new Date(updated[s]) : null);
+    }
+}
@@ -0,0 +1,71 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.spoofer.signalseeker.spatial.GeoHash;
+
+// CellBlock holds a run of cell_zone rows in columns, along with the values derived from them for the calculated table.
+// Blocks are filled and derived independently, so each can be handled by its own import task.
+class CellBlock {
+    int size;
+    final long[] ids;
+    final double[] latitudes;
+    final double[] longitudes;
+    final int[] mcc;
+    final int[] mnc;
+    final int[] lac;
+    final int[] cid;
+    final long[] updated;
+
+    // derived values, filled by derive()
+    final double[] latitudeSin;
+    final double[] latitudeCos;
+    final double[] longitudeSin;
+    final double[] longitudeCos;
+    final long[] geohashes;
+
+    CellBlock(int capacity) {
+        ids = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        mcc = new int[capacity];
+        mnc = new int[capacity];
+        lac = new int[capacity];
+        cid = new int[capacity];
+        updated = new long[capacity];
+        latitudeSin = new double[capacity];
+        latitudeCos = new double[capacity];
+        longitudeSin = new double[capacity];
+        longitudeCos = new double[capacity];
+        geohashes = new long[capacity];
+    }
+
+    boolean isFull() {
+        return size == ids.length;
+    }
+
+    // add appends a cell, updated is its last update in milliseconds since the epoch.
+    void add(long id, double latitude, double longitude, int mcc, int mnc, int lac, int cid, long updated) {
+        int i = size++;
+        this.ids[i] = id;
+        this.latitudes[i] = latitude;
+        this.longitudes[i] = longitude;
+        this.mcc[i] = mcc;
+        this.mnc[i] = mnc;
+        this.lac[i] = lac;
+        this.cid[i] = cid;
+        this.updated[i] = updated;
+    }
+
+    // derive calculates the sine and cosine of each coordinate, the components of the cell's unit vector
+    // on the sphere, and its geohash key.
+    void derive() {
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(latitudes[i]);
+            double lon = Math.toRadians(longitudes[i]);
+            latitudeSin[i] = Math.sin(lat);
+            latitudeCos[i] = Math.cos(lat);
+            longitudeSin[i] = Math.sin(lon);
+            longitudeCos[i] = Math.cos(lon);
+            geohashes[i] = GeoHash.encode(latitudes[i], longitudes[i]);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// CellColumns maps the columns of a database's cell_zone table to the fields read from it. Databases written by
+// the import and the generator use the field names themselves, but downloaded ones name some columns their own
+// way, radiocells calling the location area "area", so each field is read from the first of its known names the
+// table has. The id and coordinates must be there. Any other field the table lacks is read as 0, so its cells are
+// still found by position, only not by identity, rather than failing the whole read.
+final class CellColumns {
+    private static final String TAG = CellColumns.class.getSimpleName();
+
+    // the fields, in the order select returns them
+    static final int ID = 0;
+    static final int LATITUDE = 1;
+    static final int LONGITUDE = 2;
+    static final int MCC = 3;
+    static final int MNC = 4;
+    static final int LAC = 5;
+    static final int CID = 6;
+    static final int LAST_UPDATE = 7; // milliseconds since the epoch
+
+    static final String[] FIELDS = {"_id", "latitude", "longitude", "mcc", "mnc", "lac", "cid", "last_update"};
+    private static final String[][] NAMES = {
+            {"_id"},
+            {"latitude", "lat"},
+            {"longitude", "lon", "lng"},
+            {"mcc"},
+            {"mnc", "net"},
+            {"lac", "area", "tac"},
+            {"cid", "cell_id", "cellid", "cell"},
+            {"last_update", "last_updated", "updated"},
+    };
+    private static final int REQUIRED = 3; // the id and coordinates
+    private static final String MISSING = "0";
+
+    private final String[] columns = new String[FIELDS.length];
+
+    private CellColumns(Collection<String> names) {
+        List<String> missing = new ArrayList<>();
+        for (int f = 0; f < FIELDS.length; f++) {
+            columns[f] = find(names, NAMES[f]);
+            if (columns[f] != null)
+                continue;
+            if (f < REQUIRED)
+                throw new IllegalStateException(CellDatabase.TABLE_CELLS + " has no " + FIELDS[f] + " column");
+            columns[f] = MISSING;
+            missing.add(FIELDS[f]);
+        }
+        if (!missing.isEmpty())
+            Log.w(TAG, CellDatabase.TABLE_CELLS + " has no column for " + missing + ", reading them as 0");
+    }
+
+    // of reads the columns of the cell_zone table of the database.
+    static CellColumns of(SQLiteDatabase db) throws IllegalStateException {
+        Cursor cur = db.rawQuery("PRAGMA table_info(" + CellDatabase.TABLE_CELLS + ")", null);
+        if (cur == null)
+            throw new IllegalStateException("Failed to query cells database");
+        List<String> names = new ArrayList<>();
+        try {
+            int name = cur.getColumnIndex("name");
+            while (cur.moveToNext()) {
+                names.add(cur.getString(name));
+            }
+        } finally {
+            cur.close();
+        }
+        return resolve(names);
+    }
+
+    // resolve maps the fields to the given column names of a cell_zone table.
+    static CellColumns resolve(Collection<String> names) throws IllegalStateException {
+        return new CellColumns(names);
+    }
+
+    // column returns the column a field is read from, or 0 when the table lacks it.
+    String column(int field) {
+        return columns[field];
+    }
+
+    boolean has(int field) {
+        return !MISSING.equals(columns[field]);
+    }
+
+    // select returns the columns to query for the fields, in field order, each named as its field.
+    String[] select() {
+        return select(null);
+    }
+
+    // select returns the columns to query for the fields of the table with the given alias.
+    String[] select(String alias) {
+        String[] select = new String[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            String column = !has(f) || alias == null ? columns[f] : alias + "." + columns[f];
+            select[f] = columns[f].equals(FIELDS[f]) && has(f) ? column : column + " AS " + FIELDS[f];
+        }
+        return select;
+    }
+
+    private static String find(Collection<String> names, String[] candidates) {
+        for (String candidate : candidates) {
+            for (String name : names) {
+                if (name.equalsIgnoreCase(candidate))
+                    return name;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,190 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// CellCsvReader parses cell export CSV straight from bytes into CellBlocks.
+// The expected columns are those of the OpenCellID style exports:
+// radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal
+// Fields are parsed in place from a reused line buffer, so reading allocates nothing per row.
+// A header line, or any row that does not parse, is skipped.
+class CellCsvReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FIELDS = 16;
+
+    private static final int FIELD_MCC = 1;
+    private static final int FIELD_MNC = 2;
+    private static final int FIELD_LAC = 3;
+    private static final int FIELD_CID = 4;
+    private static final int FIELD_LONGITUDE = 6;
+    private static final int FIELD_LATITUDE = 7;
+    private static final int FIELD_UPDATED = 12; // seconds since the epoch
+
+    private static final double[] POWERS_OF_TEN = new double[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fields;
+
+    private long nextId;
+    private long skipped;
+
+    CellCsvReader(InputStream in, long firstId) {
+        this.in = in;
+        this.nextId = firstId;
+    }
+
+    // read fills the block with the next rows, returning false once the input is exhausted and nothing was read.
+    boolean read(CellBlock block) throws IOException {
+        block.size = 0;
+        while (!block.isFull() && readLine()) {
+            if (!splitFields() || !addRow(block))
+                skipped++;
+        }
+        return block.size > 0;
+    }
+
+    // skipped returns the number of lines that were not cells, the header included.
+    long skipped() {
+        return skipped;
+    }
+
+    private boolean addRow(CellBlock block) {
+        if (fields <= FIELD_UPDATED)
+            return false;
+        long mcc = parseLong(FIELD_MCC);
+        long mnc = parseLong(FIELD_MNC);
+        long lac = parseLong(FIELD_LAC);
+        long cid = parseLong(FIELD_CID);
+        long updated = parseLong(FIELD_UPDATED);
+        double lat = parseDouble(FIELD_LATITUDE);
+        double lon = parseDouble(FIELD_LONGITUDE);
+        if (mcc < 0 || mnc < 0 || lac < 0 || cid < 0 || Double.isNaN(lat) || Double.isNaN(lon))
+            return false;
+        if (mcc > Integer.MAX_VALUE || mnc > Integer.MAX_VALUE || lac > Integer.MAX_VALUE || cid > Integer.MAX_VALUE)
+            return false;
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180)
+            return false;
+        block.add(nextId++, lat, lon, (int) mcc, (int) mnc, (int) lac, (int) cid,
+                updated < 0 ? 0 : updated * 1000);
+        return true;
+    }
+
+    // readLine copies the next line, without its line ending, into the line buffer.
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean any = false;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return any;
+                }
+            }
+            any = true;
+            byte b = buffer[position++];
+            if (b == '\n')
+                return true;
+            if (b == '\r')
+                continue;
+            if (lineLength == line.length) {
+                byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            line[lineLength++] = b;
+        }
+    }
+
+    private boolean splitFields() {
+        if (lineLength == 0)
+            return false;
+        fields = 0;
+        int start = 0;
+        for (int i = 0; i <= lineLength; i++) {
+            if (i == lineLength || line[i] == ',') {
+                if (fields == MAX_FIELDS)
+                    return true;
+                fieldStart[fields] = start;
+                fieldEnd[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    // parseLong returns the field as a non negative whole number, or -1 when it is not one.
+    private long parseLong(int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        if (i == end || end - i > 18)
+            return -1;
+        long v = 0;
+        for (; i < end; i++) {
+            int d = line[i] - '0';
+            if (d < 0 || d > 9)
+                return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    // parseDouble returns the field as a decimal number, or NaN when it is not one.
+    private double parseDouble(int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        if (i == end)
+            return Double.NaN;
+        boolean negative = line[i] == '-';
+        if (negative || line[i] == '+')
+            i++;
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = line[i];
+            if (b == '.' && !point) {
+                point = true;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9 || digits == 18)
+                // exponents and very long values are rare, leave them to the library
+                return parseDoubleSlow(field);
+            mantissa = mantissa * 10 + d;
+            digits++;
+            if (point)
+                scale++;
+        }
+        if (digits == 0)
+            return Double.NaN;
+        double v = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -v : v;
+    }
+
+    private double parseDoubleSlow(int field) {
+        try {
+            return Double.parseDouble(new String(line, fieldStart[field], fieldEnd[field] - fieldStart[field], "US-ASCII"));
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// CellCsvWriter writes blocks of cells as CSV in the OpenCellID style read by CellCsvReader.
+// Rows are formatted straight into a byte buffer, without building strings, so writing keeps up with generation.
+// Columns the cells do not hold are written as fixed values: every cell is LTE with a 1km range and one sample.
+class CellCsvWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ROW = 256;
+    private static final int COORDINATE_DECIMALS = 7;
+
+    static final String HEADER =
+            "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n";
+    private static final byte[] RADIO = "LTE,".getBytes();
+    private static final byte[] FIXED = "1000,1,1,".getBytes();
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private int position;
+
+    CellCsvWriter(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(HEADER.getBytes());
+    }
+
+    void write(CellBlock block) throws IOException {
+        for (int i = 0; i < block.size; i++) {
+            if (buffer.length - position < MAX_ROW)
+                flush();
+            long updated = block.updated[i] / 1000;
+            put(RADIO);
+            putLong(block.mcc[i]);
+            putLong(block.mnc[i]);
+            putLong(block.lac[i]);
+            putLong(block.cid[i]);
+            buffer[position++] = '0';
+            buffer[position++] = ',';
+            putCoordinate(block.longitudes[i]);
+            putCoordinate(block.latitudes[i]);
+            put(FIXED);
+            putLong(updated);
+            putLong(updated);
+            buffer[position++] = '0';
+            buffer[position++] = '\n';
+        }
+    }
+
+    void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // putLong writes the value and a comma.
+    private void putLong(long value) {
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            buffer[position++] = digits[--n];
+        }
+        buffer[position++] = ',';
+    }
+
+    // putCoordinate writes the value to COORDINATE_DECIMALS places and a comma.
+    private void putCoordinate(double value) {
+        long fixed = Math.round(Math.abs(value) * 1e7);
+        if (value < 0 && fixed != 0)
+            buffer[position++] = '-';
+        long whole = fixed / 10000000;
+        long fraction = fixed % 10000000;
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole != 0);
+        while (n > 0) {
+            buffer[position++] = digits[--n];
+        }
+        buffer[position++] = '.';
+        for (int d = COORDINATE_DECIMALS - 1; d >= 0; d--) {
+            buffer[position + d] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        position += COORDINATE_DECIMALS;
+        buffer[position++] = ',';
+    }
+}
@@ -1,20 +1,35 @@
 package org.spoofer.signalseeker.celldb;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.BatchNearest;
+import org.spoofer.signalseeker.spatial.Corridor;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 // CellDatabase pre calculates the sine and cosign of the cell geo-coords and stores them in a seperate table.
 // sqlite doesn't support trig functions so values are pre-calculated and looked up to calculate distance.
-public class CellDatabase {
+// Once openIndex has mapped the cell index snapshot, local cells are found from it instead, and cells can be
+// found by their identity through the id table beside it. The calculated table, snapshot and id table are kept up
+// to date by a SchemaMigrator, which rebuilds them in the background while the old ones carry on answering.
+public class CellDatabase implements CellLookup {
 
-    private static final String TABLE_CELLS = "cell_zone";
-    private static final String TABLE_CALC = "calculated";
+    static final String TABLE_CELLS = "cell_zone";
+    static final String TABLE_CALC = "calculated";
+    static final String TABLE_CALC_SHADOW = "calculated_shadow"; // the calculated table while it is rebuilt
 
     // Columns in the calculated table to hold results
     private static final String COL_ID = "_id";
@@ -23,46 +38,226 @@ public class CellDatabase {
     private static final String COL_LATITUDE_COS = "latitude_rad_cos";
     private static final String COL_LONGITUDE_SIN = "longitude_rad_sin";
     private static final String COL_LONGITUDE_COS = "longitude_rad_cos";
+    private static final String COL_GEOHASH = "geohash";
     private static final String COL_DISTANCE = "distance";
 
-    // Columns in the cell_zone table to read from
-    private static final String[] CELL_COLS = new String[]{
-            "_id", "latitude", "longitude"
-    };
-
-    private static final String DROP_CALC_TABLE = "DROP TABLE IF EXISTS " + TABLE_CALC;
-    private static final String CREATE_CALC_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_CALC +
+    static final String CREATE_CELLS_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_CELLS +
             "(" +
-            COL_ID + " INTEGER PRIMARY KEY," + // Define a primary key
-            COL_CELL_ID + " INTEGER UNIQUE," +
-            COL_LATITUDE_SIN + " NUMERIC," +
-            COL_LATITUDE_COS + " NUMERIC," +
-            COL_LONGITUDE_SIN + " NUMERIC," +
-            COL_LONGITUDE_COS + " NUMERIC" +
+            "_id INTEGER PRIMARY KEY," +
+            "mcc INTEGER," +
+            "mnc INTEGER," +
+            "lac INTEGER," +
+            "cid INTEGER," +
+            "latitude NUMERIC," +
+            "longitude NUMERIC," +
+            "last_update INTEGER" + // milliseconds since the epoch
             ")";
-    private static final String CREATE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS i1 ON " + TABLE_CALC + "(" + COL_ID + ", " + COL_CELL_ID + ");";
+    static final String INSERT_CELL = "INSERT INTO " + TABLE_CELLS +
+            "(_id, mcc, mnc, lac, cid, latitude, longitude, last_update) VALUES (?,?,?,?,?,?,?,?)";
+
+    static final String DROP_CALC_TABLE = "DROP TABLE IF EXISTS " + TABLE_CALC;
+    static final String CREATE_CALC_TABLE = createCalcTable(TABLE_CALC);
+    static final String CREATE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS i1 ON " + TABLE_CALC + "(" + COL_ID + ", " + COL_CELL_ID + ");";
+    static final String CREATE_GEOHASH_INDEX = "CREATE INDEX IF NOT EXISTS i2 ON " + TABLE_CALC + "(" + COL_GEOHASH + ");";
+
+    static final String SELECT_ID_RANGE = "SELECT MIN(_id), MAX(_id) FROM " + TABLE_CELLS;
+    static final String INSERT_CALC = insertCalc(TABLE_CALC);
+
+    // selectCells returns the query of the cells nearest a point, reading the cell_zone table's own columns.
+    // params sin_lat_rad, cos_lat_rad, sin_lon_rad, cos_lon_rad, limit, formatted in Locale.ROOT so the SQL has ASCII
+    // digits and a decimal point whatever the phone's language
+    static String selectCells(CellColumns columns) {
+        String[] select = columns.select("z");
+        StringBuilder cells = new StringBuilder();
+        for (int f = CellColumns.LATITUDE; f < select.length; f++) {
+            cells.append(select[f]).append(',');
+        }
+        return "SELECT c." + COL_ID + ",c." + COL_CELL_ID + "," + cells +
+                "(" + COL_LATITUDE_SIN + " * %f + " + COL_LATITUDE_COS + " * %f * " +
+                "(" + COL_LONGITUDE_SIN + " * %f + " + COL_LONGITUDE_COS + " * %f)) AS " + COL_DISTANCE +
+                " FROM " + TABLE_CALC + " c JOIN " + TABLE_CELLS + " z ON z._id = c." + COL_CELL_ID +
+                " ORDER BY " + COL_DISTANCE + " DESC" +
+                " LIMIT %d";
+    }
+
+    // selectByKey returns the query of the next cells in geohash order, driven by the calculated table's geohash
+    // index, after the cell with the given geohash and calculated row.
+    // params geohash, geohash, _id, limit, formatted in Locale.ROOT
+    static String selectByKey(CellColumns columns) {
+        String[] select = columns.select("z");
+        StringBuilder cells = new StringBuilder();
+        for (int f = CellColumns.LATITUDE; f < select.length; f++) {
+            cells.append(',').append(select[f]);
+        }
+        return "SELECT c." + COL_GEOHASH + ",c." + COL_ID + ",z._id" + cells +
+                " FROM " + TABLE_CALC + " c CROSS JOIN " + TABLE_CELLS + " z ON z._id = c." + COL_CELL_ID +
+                " WHERE c." + COL_GEOHASH + " >= %d AND (c." + COL_GEOHASH + " > %d OR c." + COL_ID + " > %d)" +
+                " ORDER BY c." + COL_GEOHASH + ",c." + COL_ID +
+                " LIMIT %d";
+    }
 
-    // params sin_lat_rad, cos_lat_rad, sin_lon_rad, cos_lon_rad
-    private static String SELECT_CELLS = "SELECT " + COL_ID + "," + COL_CELL_ID + "," +
-            "(" + COL_LATITUDE_SIN + " * %f + " + COL_LATITUDE_COS + " * %f * " +
-            "(" + COL_LONGITUDE_SIN + " * %f + " + COL_LONGITUDE_COS + " * %f)) AS " + COL_DISTANCE +
-            " FROM " + TABLE_CALC +
-            " ORDER BY " + COL_DISTANCE + " DESC" +
-            " LIMIT 25";
+    static final String COUNT_BY_KEY = "SELECT COUNT(*) FROM " + TABLE_CALC + " c CROSS JOIN " + TABLE_CELLS +
+            " z ON z._id = c." + COL_CELL_ID;
 
+    // createCalcTable returns the statement creating a calculated table of the given name, the table itself or
+    // its shadow.
+    static String createCalcTable(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table +
+                "(" +
+                COL_ID + " INTEGER PRIMARY KEY," + // Define a primary key
+                COL_CELL_ID + " INTEGER UNIQUE," +
+                COL_LATITUDE_SIN + " NUMERIC," +
+                COL_LATITUDE_COS + " NUMERIC," +
+                COL_LONGITUDE_SIN + " NUMERIC," +
+                COL_LONGITUDE_COS + " NUMERIC," +
+                COL_GEOHASH + " INTEGER" +
+                ")";
+    }
+
+    // indexCalcTable indexes the calculated table, letting SQLite sort the rows of each index on a worker thread
+    // per core.
+    static void indexCalcTable(SQLiteDatabase db) {
+        DatabaseUtils.longForQuery(db, "PRAGMA threads = " + Runtime.getRuntime().availableProcessors(), null);
+        db.execSQL(CREATE_INDEX);
+        db.execSQL(CREATE_GEOHASH_INDEX);
+    }
+
+    static String insertCalc(String table) {
+        return "INSERT INTO " + table + "(" +
+                COL_CELL_ID + "," + COL_LATITUDE_SIN + "," + COL_LATITUDE_COS + "," +
+                COL_LONGITUDE_SIN + "," + COL_LONGITUDE_COS + "," + COL_GEOHASH +
+                ") VALUES (?,?,?,?,?,?)";
+    }
+
+    private static final int LOCAL_CELLS = 25;
+    private static final double MAX_LOCAL_DISTANCE = 50000; // metres searched for local cells
 
     private final String dbpath;
+    private final SchemaMigrator migrator;
+
+    private final Object lock = new Object();
+    private SharedDatabase shared; // this instance's use of the database, held from the first query until close
+    private volatile String selectCells; // set by openShared
+    private boolean calcChecked;
+    private int closes; // counts the closes, so an openIndex outlived by one does not map the closed database
+    private volatile Mapped mapped;
 
-    private static final Object lock = new Object();
-    private SQLiteDatabase db;
+    // Mapped is the cell index snapshot with its id table, swapped as one so a cell found by its identity is always
+    // read from the snapshot its table was built from. ids is null while the table does not match the snapshot.
+    private static class Mapped {
+        final CellIndex index;
+        final CellIdTable ids;
+
+        Mapped(CellIndex index, CellIdTable ids) {
+            this.index = index;
+            this.ids = ids;
+        }
+    }
 
     public CellDatabase(String celldbpath) {
-        super();
+        this(celldbpath, SchemaMigrator.structures(celldbpath), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command, "cell-migration").start();
+            }
+        });
+    }
+
+    // CellDatabase keeps the given structures up to date, rebuilding stale ones on the background executor.
+    CellDatabase(String celldbpath, List<SchemaMigrator.Structure> structures, Executor background) {
         this.dbpath = celldbpath;
+        this.migrator = new SchemaMigrator(structures, background, new SchemaMigrator.Listener() {
+            @Override
+            public void onMigrated() {
+                remap();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                // the old structures carry on answering until the next open tries again
+            }
+        });
+    }
+
+    // openIndex maps the snapshot of the cell index beside the database, and the id table beside it. After the
+    // first start both are current and are only mapped. Otherwise the migrator first builds whichever is missing,
+    // which reads every cell and can take seconds, so call this off the main thread. Stale ones are mapped as they
+    // are, answering queries while the migrator rebuilds them, and are swapped for the new ones once it is done.
+    // A snapshot or table that cannot be mapped, of an older version, truncated or not one at all, is missing.
+    // The WAL is only checkpointed when the writer is free, as a rebuild can hold it for seconds. Changes it leaves
+    // in the WAL are written by that rebuild, whose migration goes on to rebuild the snapshot after it.
+    // The migrator runs outside the lock, so close and remap are not held up by a rebuild.
+    public void openIndex() throws IOException {
+        if (mapped != null)
+            return;
+        SharedDatabase.trySettle(dbpath);
+        File snapshot = new File(dbpath + CellIndex.EXTENSION);
+        CellIndex idx = null;
+        CellIdTable table = null;
+        try {
+            idx = CellIndex.open(snapshot, new File(dbpath));
+            if (idx != null)
+                table = CellIdTable.open(new File(dbpath + CellIdTable.EXTENSION), snapshot);
+        } catch (IOException e) {
+            Log.i(CellDatabase.class.getSimpleName(), "Cell index is unreadable, rebuilding: " + e.getMessage());
+        }
+        int generation;
+        synchronized (lock) {
+            if (mapped != null)
+                return;
+            if (table != null) {
+                mapped = new Mapped(idx, table);
+                return;
+            }
+            generation = closes;
+        }
+        migrator.migrate();
+        synchronized (lock) {
+            if (mapped == null && closes == generation)
+                mapped = map();
+        }
+    }
 
+    // map maps the snapshot and id table as they are, current or stale. The table is only used when it was built
+    // from the snapshot mapped, so the snapshot is mapped again should the migrator swap it in the meantime.
+    private Mapped map() throws IOException {
+        File snapshot = new File(dbpath + CellIndex.EXTENSION);
+        File ids = new File(dbpath + CellIdTable.EXTENSION);
+        while (true) {
+            long size = snapshot.length();
+            long modified = snapshot.lastModified();
+            CellIndex idx = CellIndex.map(snapshot);
+            CellIdTable table = ids.exists() ? CellIdTable.map(ids) : null;
+            if (snapshot.length() != size || snapshot.lastModified() != modified)
+                continue;
+            if (table != null && !table.matches(size, modified))
+                table = null;
+            return new Mapped(idx, table);
+        }
+    }
+
+    // remap swaps in the structures the migrator has rebuilt, unless the database has been closed.
+    private void remap() {
+        synchronized (lock) {
+            if (mapped == null)
+                return;
+            try {
+                mapped = map();
+            } catch (IOException e) {
+                Log.e(CellDatabase.class.getSimpleName(), "Failed to map rebuilt cell index", e);
+            }
+        }
     }
 
     public List<Cell> findLocalCells(double latitude, double longitude) {
+        return findLocalCells(latitude, longitude, LOCAL_CELLS);
+    }
+
+    @Override
+    public List<Cell> findLocalCells(double latitude, double longitude, int limit) {
+        Mapped m = mapped;
+        if (m != null)
+            return findIndexedCells(m.index, latitude, longitude, limit);
         /*
         https://github.com/sozialhelden/wheelmap-android/wiki/Sqlite,-Distance-calculations
         SELECT "location",
@@ -73,88 +268,193 @@ public class CellDatabase {
         LIMIT 10;
         */
         // params sin_lat_rad, cos_lat_rad, sin_lon_rad, cos_lon_rad
-        double sinLatRad = Math.toRadians(Math.sin(latitude));
-        double cosLatRad = Math.toRadians(Math.cos(latitude));
-        double sinLonRad = Math.toRadians(Math.sin(longitude));
-        double cosLonRad = Math.toRadians(Math.cos(longitude));
-
-        String sql = String.format(SELECT_CELLS, sinLatRad, cosLatRad, sinLonRad, cosLonRad);
-        Cursor cur = getReadableDatabase().rawQuery(sql, null);
-        if (cur == null)
-            return null;
+        double sinLatRad = Math.sin(Math.toRadians(latitude));
+        double cosLatRad = Math.cos(Math.toRadians(latitude));
+        double sinLonRad = Math.sin(Math.toRadians(longitude));
+        double cosLonRad = Math.cos(Math.toRadians(longitude));
 
+        long start = System.nanoTime();
         List<Cell> cells = new ArrayList<>();
-        while (cur.moveToNext()) {
-            cells.add(readCursorCell(cur));
+        try {
+            openShared();
+            String sql = String.format(Locale.ROOT, selectCells, sinLatRad, cosLatRad, sinLonRad, cosLonRad, limit);
+            // a use of its own, so a close during the query leaves the connection open until it is done
+            SharedDatabase db = SharedDatabase.open(dbpath);
+            try {
+                SQLiteDatabase reader = db.acquireReader();
+                try {
+                    Cursor cur = reader.rawQuery(sql, null);
+                    if (cur == null)
+                        return null;
+                    try {
+                        while (cur.moveToNext()) {
+                            cells.add(readCursorCell(cur));
+                        }
+                        Metrics.QUERY_ROWS_SCANNED.add(cells.size());
+                    } finally {
+                        cur.close();
+                    }
+                } finally {
+                    db.releaseReader(reader);
+                }
+            } finally {
+                db.release();
+            }
+        } catch (IOException e) {
+            Log.e(CellDatabase.class.getSimpleName(), "Failed to query cells", e);
+            return null;
         }
+        Metrics.QUERY_LATENCY.recordSince(start);
         return cells;
     }
 
-    public void close() {
-        synchronized (lock) {
-            if (db != null) {
-                db.close();
-                db = null;
+    // findCell looks up a cell by the identity the phone reports for it, once openIndex has opened the id table.
+    @Override
+    public Cell findCell(int mcc, int mnc, int lac, int cid) {
+        Mapped m = mapped;
+        if (m == null || m.ids == null)
+            return null;
+        Metrics.CELL_ID_LOOKUPS.inc();
+        int position = m.ids.find(CellIdTable.key(mcc, mnc, lac, cid));
+        if (position < 0)
+            return null;
+        Metrics.CELL_ID_MATCHES.inc();
+        return readIndexCell(m.index, position, 0);
+    }
+
+    // findLocalCells finds the local cells of every point in one pass over the cell index, using every core,
+    // returning up to limit cells per point. The cell index is opened first if it is not already.
+    public CellBatch findLocalCells(double[] latitudes, double[] longitudes, int limit) throws IOException {
+        openIndex();
+        Mapped m = mapped;
+        if (m == null)
+            throw new IOException("Cell database is closed");
+        CellIndex idx = m.index;
+
+        long start = System.nanoTime();
+        BatchNearest.Result found = BatchNearest.search(idx, latitudes, longitudes, limit, MAX_LOCAL_DISTANCE,
+                null, ForkJoinPool.commonPool());
+        CellBatch batch = new CellBatch(found.size(), limit);
+        for (int p = 0; p < found.size(); p++) {
+            for (int i = 0; i < found.count(p); i++) {
+                batch.set(p, i, idx, found.position(p, i), found.distance(p, i));
             }
         }
+        long elapsed = System.nanoTime() - start;
+        Metrics.BATCH_LATENCY.record(elapsed);
+        Metrics.BATCH_POINTS.add(found.size());
+        Metrics.BATCH_POINTS_PER_SECOND.set(Math.round(found.size() * 1e9 / Math.max(1, elapsed)));
+        return batch;
     }
 
-    private SQLiteDatabase getReadableDatabase() {
+    // findCorridorCells returns, for each segment of the route, up to limit cells of the operator within
+    // maxDistance metres of it, nearest first. The cell index is opened first if it is not already.
+    public List<CorridorSegment> findCorridorCells(double[] latitudes, double[] longitudes,
+                                                   final int mcc, final int mnc, int limit, double maxDistance)
+            throws IOException {
+        openIndex();
+        Mapped m = mapped;
+        if (m == null)
+            throw new IOException("Cell database is closed");
+        final CellIndex idx = m.index;
+
+        long start = System.nanoTime();
+        GeoIndex.Nearest[] found = Corridor.search(idx, latitudes, longitudes, maxDistance, limit,
+                new GeoIndex.Filter() {
+                    @Override
+                    public boolean accept(int position) {
+                        return idx.mnc(position) == mnc && idx.mcc(position) == mcc;
+                    }
+                });
+        List<CorridorSegment> segments = new ArrayList<>(found.length);
+        for (int s = 0; s < found.length; s++) {
+            List<Cell> cells = new ArrayList<>(found[s].size());
+            for (int i = 0; i < found[s].size(); i++) {
+                cells.add(readIndexCell(idx, found[s].position(i), found[s].distance(i)));
+            }
+            segments.add(new CorridorSegment(s, cells));
+        }
+        Metrics.CORRIDOR_LATENCY.recordSince(start);
+        return segments;
+    }
+
+    private List<Cell> findIndexedCells(CellIndex idx, double latitude, double longitude, int limit) {
+        long start = System.nanoTime();
+        GeoIndex.Nearest nearest = idx.nearest(latitude, longitude, limit, MAX_LOCAL_DISTANCE);
+        List<Cell> cells = new ArrayList<>(nearest.size());
+        for (int i = 0; i < nearest.size(); i++) {
+            cells.add(readIndexCell(idx, nearest.position(i), nearest.distance(i)));
+        }
+        Metrics.QUERY_ROWS_SCANNED.add(nearest.examined());
+        Metrics.QUERY_LATENCY.recordSince(start);
+        return cells;
+    }
+
+    public void close() {
         synchronized (lock) {
-            if (db != null)
-                return db;
+            closes++;
+            mapped = null;
+            if (shared != null) {
+                shared.release();
+                shared = null;
+            }
         }
+    }
 
-        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbpath, null, SQLiteDatabase.OPEN_READWRITE);
-        db.execSQL(CREATE_CALC_TABLE);
-        if (DatabaseUtils.queryNumEntries(db, TABLE_CALC) == 0) {
+    // openShared takes this instance's use of the shared database, first having the migrator check its calculated
+    // table, which is built at once when missing, or rebuilt in the background when stale while queries read the
+    // old one.
+    private void openShared() throws IOException {
+        synchronized (lock) {
+            if (shared != null)
+                return;
+            if (!calcChecked) {
+                calcChecked = true;
+                try {
+                    migrator.migrate(SchemaMigrator.CalculatedTable.NAME);
+                } catch (IOException e) {
+                    Log.e(CellDatabase.class.getSimpleName(), "Failed to migrate calc table", e);
+                }
+            }
+            SharedDatabase db = SharedDatabase.open(dbpath);
             try {
-                populateCalcTable(db);
-            } catch (Exception e) {
-                e.printStackTrace();
-                Log.e(CellDatabase.class.getSimpleName(), "Failed to populate calc table", e);
+                SQLiteDatabase reader = db.acquireReader();
+                try {
+                    selectCells = selectCells(CellColumns.of(reader));
+                } finally {
+                    db.releaseReader(reader);
+                }
+            } catch (IllegalStateException e) {
+                db.release();
+                throw new IOException(e.getMessage(), e);
+            } catch (IOException | RuntimeException e) {
+                db.release();
+                throw e;
             }
+            shared = db;
         }
-        return db;
     }
 
-
     private Cell readCursorCell(Cursor cur) {
-        String cellId = cur.getString(cur.getColumnIndex(COL_CELL_ID));
-        long distance = cur.getLong(cur.getColumnIndex(COL_DISTANCE));
-        return new Cell(cellId, "", "", "",
-                0, 0, distance, null);
+        String cellId = cur.getString(cur.getColumnIndex("cid"));
+        long updated = cur.getLong(cur.getColumnIndex("last_update"));
+        // the distance column is the cosine of the angle between the cell and the query point
+        double cosDistance = cur.getDouble(cur.getColumnIndex(COL_DISTANCE));
+        long distance = Math.round(GeoMath.EARTH_RADIUS * Math.acos(Math.max(-1, Math.min(1, cosDistance))) / 1000);
+        return new Cell(cellId,
+                cur.getString(cur.getColumnIndex("mcc")), cur.getString(cur.getColumnIndex("mnc")),
+                cur.getString(cur.getColumnIndex("lac")),
+                cur.getDouble(cur.getColumnIndex("latitude")), cur.getDouble(cur.getColumnIndex("longitude")),
+                distance, updated > 0 ? new Date(updated) : null);
     }
 
-    public void populateCalcTable(SQLiteDatabase db) throws IllegalStateException {
-        db.execSQL(CREATE_INDEX);
-
-        Cursor cur = db.query(TABLE_CELLS, CELL_COLS,
-                null, null,
-                null, null,
-                "_id", null);
-        if (cur == null)
-            throw new IllegalStateException("Failed to query cells database");
-
-        db.beginTransaction();
-        try {
-            while (cur.moveToNext()) {
-                long id = cur.getLong(0);
-                double latitude = cur.getDouble(1);
-                double longitude = cur.getDouble(2);
-
-                ContentValues values = new ContentValues();
-                values.put(COL_CELL_ID, id);
-                values.put(COL_LATITUDE_SIN, Math.toRadians(Math.sin(latitude)));
-                values.put(COL_LATITUDE_COS, Math.toRadians(Math.cos(latitude)));
-                values.put(COL_LONGITUDE_SIN, Math.toRadians(Math.sin(longitude)));
-                values.put(COL_LONGITUDE_COS, Math.toRadians(Math.cos(longitude)));
-                db.insert(TABLE_CALC, null, values);
-            }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            cur.close();
-        }
+    // readIndexCell returns the cell at the index position, with its distance in kilometres.
+    static Cell readIndexCell(CellIndex idx, int position, double distance) {
+        long updated = idx.updated(position);
+        return new Cell(Integer.toString(idx.cid(position)),
+                Integer.toString(idx.mcc(position)), Integer.toString(idx.mnc(position)),
+                Integer.toString(idx.lac(position)),
+                idx.latitude(position), idx.longitude(position),
+                Math.round(distance / 1000), updated > 0 ? new Date(updated) : null);
     }
 }
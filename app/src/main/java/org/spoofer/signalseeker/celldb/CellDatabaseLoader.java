@@ -1,21 +1,25 @@
 package org.spoofer.signalseeker.celldb;
 
-import android.app.DownloadManager;
 import android.content.Context;
-import android.net.Uri;
 import android.os.Environment;
 import android.text.TextUtils;
+import android.util.Log;
+
+import org.spoofer.signalseeker.download.DownloadEngine;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.ForkJoinPool;
 
 public class CellDatabaseLoader {
+    private static final String TAG = CellDatabaseLoader.class.getSimpleName();
 
     private final Context context;
 
     private static final String DB_FILE_EXTENSION = "sqlite";
+    private static final String ARCHIVE_FILE_EXTENSION = "csv.gz";
     private static final String WEB_ROOT_URL = "https://cdn.radiocells.org";
 
     public CellDatabaseLoader(Context context) {
@@ -36,16 +40,36 @@ public class CellDatabaseLoader {
         return new CellDatabase(dbfile.getAbsolutePath());
     }
 
-    public long downloadDatabase(String name) {
-        String target = getDBFilename(name);
-        Uri src = Uri.parse(TextUtils.join("/", new String[]{WEB_ROOT_URL, target}));
-        DownloadManager.Request req = new DownloadManager.Request(src);
-        req.setTitle("Cell database for " + name);
-        req.setDescription("Full country database for " + name);
-        req.setDestinationInExternalPublicDir("", "celldatabases/" + target);
+    // downloadDatabase starts downloading the named database straight into place, resuming any earlier attempt.
+    // The file must match sha256 when given. radiocells publishes no checksums, so without one the download is only
+    // checked to be complete.
+    public DownloadEngine.Download downloadDatabase(DownloadEngine engine, String name, String sha256,
+                                                    DownloadEngine.Listener listener) throws MalformedURLException {
+        URL src = new URL(TextUtils.join("/", new String[]{WEB_ROOT_URL, getDBFilename(name)}));
+        warnUnverified(src, sha256);
+        return engine.start(src, getDBFile(name), sha256, listener);
+    }
+
+    // importDatabase starts building the named database from its compressed CSV export,
+    // indexing the cells as the archive downloads rather than after. The archive must match sha256 when given.
+    public ImportPipeline importDatabase(String name, String sha256, DownloadEngine.Listener listener)
+            throws MalformedURLException {
+        String filename = TextUtils.join(".", new Object[]{name.toLowerCase(), ARCHIVE_FILE_EXTENSION});
+        URL src = new URL(TextUtils.join("/", new String[]{WEB_ROOT_URL, filename}));
+        warnUnverified(src, sha256);
+        ImportPipeline pipeline = new ImportPipeline(src, getDBFile(name), sha256, listener);
+        pipeline.start();
+        return pipeline;
+    }
+
+    // generateDatabase writes a synthetic database under the given name, for load testing without a download.
+    public void generateDatabase(String name, CellGenerator generator) throws IOException, InterruptedException {
+        generator.writeDatabase(getDBFile(name), ForkJoinPool.commonPool());
+    }
 
-        DownloadManager dm = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
-        return dm.enqueue(req);
+    private static void warnUnverified(URL src, String sha256) {
+        if (sha256 == null)
+            Log.w(TAG, "No checksum for " + src + ", it will not be verified");
     }
 
     private File getRootStorage() {
@@ -0,0 +1,369 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.spoofer.signalseeker.spatial.GeoHash;
+import org.spoofer.signalseeker.spatial.GeoMath;
+import org.spoofer.signalseeker.spatial.KeySort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+// CellGenerator makes a synthetic country of cells, for benchmarks and load tests without a real export.
+// Cells are spread over the country's bounds by a density model: TOWNS towns with Zipf sized populations, each a
+// Gaussian cluster whose width grows with its size, over a thin rural background. Each cell belongs to one of a
+// few operators by market share, takes its LAC from the operator's area around it, and was last updated at an
+// exponentially distributed age, so most cells are recent and a long tail are years old.
+//
+// Generation streams: the country is cut into ~600m tiles, the model decides how many cells each tile gets, and
+// runs of tiles are generated as blocks on every core. Cells are made directly in geohash order, random keys
+// sorted within their tile, so the blocks come out sorted and are written as they arrive, in order, without
+// holding the country in memory. The same seed always makes the same cells.
+public class CellGenerator {
+    private static final String TAG = CellGenerator.class.getSimpleName();
+
+    private static final int TILE_BITS = 30;            // ~600m tiles
+    private static final int LAC_BITS = 20;             // ~20km location areas
+    private static final int BLOCK_SIZE = 16384;        // cells generated per task
+    private static final int TOWNS = 200;
+    private static final double TOWN_EXPONENT = 1.0;    // Zipf exponent of town populations
+    private static final double SMALLEST_TOWN = 1500;   // metres, the spread of the smallest town
+    private static final double TOWN_GROWTH = 0.4;      // spread grows as population to this power
+    private static final double RURAL_SHARE = 0.15;
+    private static final double MEAN_AGE_DAYS = 400;
+    private static final double MAX_AGE_DAYS = 6 * 365;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final int[] OPERATORS = {1, 2, 3, 7};           // MNCs
+    private static final double[] SHARES = {0.34, 0.30, 0.24, 0.12};
+
+    private final int count;
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private final int mcc;
+    private final long seed;
+    private final long now;
+
+    // receives the generated blocks, in key order
+    interface Sink {
+        void write(CellBlock block) throws IOException;
+    }
+
+    // count cells are placed inside the bounds, all with the given country code.
+    public CellGenerator(int count, double south, double west, double north, double east, int mcc, long seed) {
+        if (count <= 0 || south >= north || west >= east)
+            throw new IllegalArgumentException("no cells or empty bounds");
+        this.count = count;
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+        this.mcc = mcc;
+        this.seed = seed;
+        // ages count back from the start of today, so a seed makes the same cells all day
+        this.now = System.currentTimeMillis() / DAY * DAY;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // writeDatabase writes a cell database at the target, as an import of the cells would, along with its index
+    // snapshot so it opens without a build. Like an import, only a complete database is moved into place.
+    public void writeDatabase(File target, ForkJoinPool pool) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        File temp = new File(target.getPath() + ".generate");
+        ImportPipeline.deleteDatabase(temp);
+        File snapshot = new File(target.getPath() + CellIndex.EXTENSION);
+        snapshot.delete();
+
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(temp, null);
+        try (final CellIndex.Writer index = new CellIndex.Writer(snapshot, count)) {
+            try {
+                ImportPipeline.createTables(db);
+                final SQLiteStatement insertCell = db.compileStatement(CellDatabase.INSERT_CELL);
+                final SQLiteStatement insertCalc = db.compileStatement(CellDatabase.INSERT_CALC);
+                try {
+                    generate(pool, true, new Sink() {
+                        @Override
+                        public void write(CellBlock block) throws IOException {
+                            ImportPipeline.writeBlock(db, block, insertCell, insertCalc);
+                            for (int i = 0; i < block.size; i++) {
+                                index.add(block, i);
+                            }
+                        }
+                    });
+                } finally {
+                    insertCell.close();
+                    insertCalc.close();
+                }
+                ImportPipeline.createIndexes(db);
+            } finally {
+                db.close();
+            }
+            ImportPipeline.replaceDatabase(temp, target);
+            index.finish(target.length(), target.lastModified(), CellIndex.fingerprint(target));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            ImportPipeline.deleteDatabase(temp);
+            throw e;
+        }
+        Log.i(TAG, String.format("Generated %d cells into %s in %d ms",
+                count, target.getName(), (System.nanoTime() - start) / 1000000));
+    }
+
+    // writeIndex writes the cells as an index snapshot alone. It belongs to no database, so is read with
+    // CellIndex.map rather than opened.
+    public void writeIndex(File target, ForkJoinPool pool) throws IOException, InterruptedException {
+        try (final CellIndex.Writer index = new CellIndex.Writer(target, count)) {
+            generate(pool, false, new Sink() {
+                @Override
+                public void write(CellBlock block) throws IOException {
+                    for (int i = 0; i < block.size; i++) {
+                        index.add(block, i);
+                    }
+                }
+            });
+            index.finish(0, 0, null);
+        }
+    }
+
+    // writeCsv writes the cells as a gzipped CSV export, in the layout ImportPipeline imports.
+    public void writeCsv(OutputStream out, ForkJoinPool pool) throws IOException, InterruptedException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+        final CellCsvWriter writer = new CellCsvWriter(gzip);
+        generate(pool, false, new Sink() {
+            @Override
+            public void write(CellBlock block) throws IOException {
+                writer.write(block);
+            }
+        });
+        writer.flush();
+        gzip.finish();
+    }
+
+    // generate makes every cell and hands them to the sink in blocks, in key order.
+    // derived blocks also have their trig values, which only the database needs.
+    void generate(ForkJoinPool pool, final boolean derived, Sink sink) throws IOException, InterruptedException {
+        final long[] tiles = tiles(pool);
+        final int[] counts = tileCounts(tiles, pool);
+
+        // the runs of tiles making up each block, and the id of each block's first cell
+        int blocks = 0;
+        int[] tileStarts = new int[16];
+        long[] firstIds = new long[16];
+        int cells = BLOCK_SIZE;
+        long id = 1;
+        for (int t = 0; t < tiles.length; t++) {
+            if (cells >= BLOCK_SIZE && counts[t] > 0) {
+                if (blocks == tileStarts.length) {
+                    tileStarts = Arrays.copyOf(tileStarts, blocks * 2);
+                    firstIds = Arrays.copyOf(firstIds, blocks * 2);
+                }
+                tileStarts[blocks] = t;
+                firstIds[blocks] = id;
+                blocks++;
+                cells = 0;
+            }
+            cells += counts[t];
+            id += counts[t];
+        }
+
+        // generate ahead on every core, writing the blocks as they complete in order
+        int window = pool.getParallelism() * 2;
+        ArrayDeque<Future<CellBlock>> pending = new ArrayDeque<>();
+        try {
+            int next = 0;
+            while (next < blocks || !pending.isEmpty()) {
+                while (next < blocks && pending.size() < window) {
+                    final int b = next++;
+                    final int from = tileStarts[b];
+                    final int to = b + 1 < blocks ? tileStarts[b + 1] : tiles.length;
+                    final long firstId = firstIds[b];
+                    pending.add(pool.submit(new Callable<CellBlock>() {
+                        @Override
+                        public CellBlock call() {
+                            return generateBlock(b, tiles, counts, from, to, firstId, derived);
+                        }
+                    }));
+                }
+                sink.write(pending.remove().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to generate cells", e.getCause());
+        } finally {
+            for (Future<CellBlock> f : pending) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    // tiles returns every tile of the bounds, sorted.
+    private long[] tiles(ForkJoinPool pool) {
+        double height = GeoHash.tileHeight(TILE_BITS);
+        double width = GeoHash.tileWidth(TILE_BITS);
+        long first = GeoHash.encode(south, west, TILE_BITS);
+        double firstLatitude = GeoHash.latitude(first, TILE_BITS);
+        double firstLongitude = GeoHash.longitude(first, TILE_BITS);
+        int rows = (int) Math.ceil((north - firstLatitude) / height + 0.5);
+        int columns = (int) Math.ceil((east - firstLongitude) / width + 0.5);
+
+        long[] tiles = new long[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                tiles[r * columns + c] = GeoHash.encode(firstLatitude + r * height, firstLongitude + c * width,
+                        TILE_BITS);
+            }
+        }
+        KeySort.sort(tiles, pool);
+        return tiles;
+    }
+
+    // tileCounts shares the cells out over the tiles by the density model, the counts adding up to exactly count.
+    private int[] tileCounts(final long[] tiles, ForkJoinPool pool) throws IOException, InterruptedException {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        final double[][] towns = new double[TOWNS][];
+        double population = 0;
+        for (int k = 0; k < TOWNS; k++) {
+            population += Math.pow(k + 1, -TOWN_EXPONENT);
+        }
+        double smallest = Math.pow(TOWNS, -TOWN_EXPONENT);
+        for (int k = 0; k < TOWNS; k++) {
+            double share = Math.pow(k + 1, -TOWN_EXPONENT);
+            double spread = SMALLEST_TOWN * Math.pow(share / smallest, TOWN_GROWTH) / GeoMath.METRES_PER_DEGREE;
+            towns[k] = new double[]{
+                    south + rnd.nextDouble() * (north - south),
+                    west + rnd.nextDouble() * (east - west),
+                    spread,
+                    (1 - RURAL_SHARE) * share / population / (2 * Math.PI * spread * spread)};
+        }
+
+        // the density at each tile's centre, in parallel runs of tiles
+        final double[] weights = new double[tiles.length];
+        final double area = GeoHash.tileHeight(TILE_BITS) * GeoHash.tileWidth(TILE_BITS);
+        final double rural = RURAL_SHARE / tiles.length;
+        int run = 8192;
+        Future<?>[] tasks = new Future<?>[(tiles.length + run - 1) / run];
+        for (int i = 0; i < tasks.length; i++) {
+            final int from = i * run;
+            final int to = Math.min(tiles.length, from + run);
+            tasks[i] = pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int t = from; t < to; t++) {
+                        double lat = GeoHash.latitude(tiles[t], TILE_BITS);
+                        double lon = GeoHash.longitude(tiles[t], TILE_BITS);
+                        double scale = Math.cos(Math.toRadians(lat));
+                        double density = 0;
+                        for (double[] town : towns) {
+                            double dy = lat - town[0];
+                            if (Math.abs(dy) > town[2] * 4)
+                                continue;
+                            double dx = (lon - town[1]) * scale;
+                            density += town[3] * Math.exp(-(dx * dx + dy * dy) / (2 * town[2] * town[2]));
+                        }
+                        weights[t] = rural + density * area * scale;
+                    }
+                }
+            });
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to generate cells", e.getCause());
+        }
+
+        // round the running total rather than each tile, so no cells are lost to rounding
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        int[] counts = new int[tiles.length];
+        double cumulative = 0;
+        long placed = 0;
+        for (int t = 0; t < tiles.length; t++) {
+            cumulative += weights[t];
+            long upTo = t == tiles.length - 1 ? count : Math.min(count, (long) Math.floor(cumulative / total * count));
+            counts[t] = (int) (upTo - placed);
+            placed = upTo;
+        }
+        return counts;
+    }
+
+    // generateBlock makes the cells of a run of tiles. Each block has its own random sequence, so the cells do not
+    // depend on which thread makes them or when.
+    private CellBlock generateBlock(int b, long[] tiles, int[] counts, int from, int to, long firstId,
+                                    boolean derived) {
+        SplittableRandom rnd = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + b);
+        int size = 0;
+        for (int t = from; t < to; t++) {
+            size += counts[t];
+        }
+        CellBlock block = new CellBlock(size);
+        long suffixMask = (1L << (GeoHash.MAX_BITS - TILE_BITS)) - 1;
+        long[] keys = new long[0];
+        long id = firstId;
+        for (int t = from; t < to; t++) {
+            int n = counts[t];
+            if (n == 0)
+                continue;
+            if (keys.length < n)
+                keys = new long[Math.max(n, keys.length * 2)];
+            long first = GeoHash.first(tiles[t], TILE_BITS);
+            for (int i = 0; i < n; i++) {
+                keys[i] = first | (rnd.nextLong() & suffixMask);
+            }
+            Arrays.sort(keys, 0, n);
+            for (int i = 0; i < n; i++) {
+                long key = keys[i];
+                int mnc = operator(rnd.nextDouble());
+                block.add(id, GeoHash.latitude(key, GeoHash.MAX_BITS), GeoHash.longitude(key, GeoHash.MAX_BITS),
+                        mcc, mnc, lac(key, mnc), cid(id), updated(rnd));
+                block.geohashes[block.size - 1] = key;
+                id++;
+            }
+        }
+        if (derived)
+            block.derive();
+        return block;
+    }
+
+    private static int operator(double r) {
+        for (int i = 0; i < SHARES.length - 1; i++) {
+            r -= SHARES[i];
+            if (r < 0)
+                return OPERATORS[i];
+        }
+        return OPERATORS[OPERATORS.length - 1];
+    }
+
+    // lac numbers each operator's ~20km areas, so neighbouring cells of an operator mostly share an area code.
+    private static int lac(long key, int mnc) {
+        long h = (GeoHash.prefix(key, LAC_BITS) * 31 + mnc) * 0x9E3779B97F4A7C15L;
+        return 1 + (int) ((h >>> 40) % 65533);
+    }
+
+    // cid scrambles the cell's id into a unique 28 bit cell id, the size of an LTE cell identity.
+    private static int cid(long id) {
+        return (int) ((id * 0x9E3779B1L) & 0x0fffffff);
+    }
+
+    private long updated(SplittableRandom rnd) {
+        double days = Math.min(MAX_AGE_DAYS, -MEAN_AGE_DAYS * Math.log(1 - rnd.nextDouble()));
+        return now - (long) (days * DAY);
+    }
+}
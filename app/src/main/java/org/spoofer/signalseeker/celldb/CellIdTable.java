@@ -0,0 +1,176 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// CellIdTable finds a cell's position in the cell index from its identity, the (MCC, MNC, LAC, CID) the phone
+// reports for the cells it hears. The identity is packed into a long and looked up in an open addressing hash
+// table of long keys and int positions, probed linearly, kept at most half full so a lookup is one or two probes.
+// The table is a memory mapped file beside the cell index, so it costs no heap and opens at once after the first
+// build. It records the size and modification time of the index it was built from and is only opened while they
+// still match.
+//
+// File layout, little endian:
+//   header   int magic, int version, int capacity, int count, long indexSize, long indexModified
+//   slots    long key[capacity], then int position[capacity], a zero key marking an empty slot
+class CellIdTable {
+    private static final String TAG = CellIdTable.class.getSimpleName();
+
+    static final String EXTENSION = ".ids";
+
+    private static final int MAGIC = 0x4b4c4543; // "CELK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int MIN_CAPACITY = 16;
+
+    // the bits of each part of a packed identity, 64 in all
+    private static final int MCC_BITS = 10;
+    private static final int MNC_BITS = 10;
+    private static final int LAC_BITS = 16;
+    private static final int CID_BITS = 28;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int count;
+
+    private CellIdTable(MappedByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("not a cell id table");
+        this.buffer = buffer;
+        this.capacity = buffer.getInt(8);
+        this.count = buffer.getInt(12);
+        if (Integer.bitCount(capacity) != 1 || fileSize(capacity) != buffer.limit())
+            throw new IOException("cell id table is truncated");
+        this.mask = capacity - 1;
+    }
+
+    // key packs a cell identity into a long, or returns 0 when a part is out of range, such as the unknown
+    // values Android reports for a neighbour cell heard only by its physical id.
+    // MCCs start at 200, so no valid identity packs to 0.
+    static long key(int mcc, int mnc, int lac, int cid) {
+        if (mcc <= 0 || mcc >= 1 << MCC_BITS || mnc < 0 || mnc >= 1 << MNC_BITS
+                || lac < 0 || lac >= 1 << LAC_BITS || cid < 0 || cid >= 1 << CID_BITS)
+            return 0;
+        return (long) mcc << (MNC_BITS + LAC_BITS + CID_BITS)
+                | (long) mnc << (LAC_BITS + CID_BITS)
+                | (long) lac << CID_BITS
+                | cid;
+    }
+
+    // open maps the table built from the given cell index, returning null when there is none or it is out of date.
+    static CellIdTable open(File file, File index) throws IOException {
+        if (!file.exists())
+            return null;
+        CellIdTable table = map(file);
+        if (!table.matches(index.length(), index.lastModified())) {
+            Log.i(TAG, "Table " + file.getName() + " is out of date");
+            return null;
+        }
+        return table;
+    }
+
+    // matches checks the table was built from an index file of the given size and modification time.
+    boolean matches(long indexSize, long indexModified) {
+        return buffer.getLong(16) == indexSize && buffer.getLong(24) == indexModified;
+    }
+
+    static CellIdTable map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            return new CellIdTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // find returns the cell index position of the cell with the packed identity, or -1 if it is not known.
+    int find(long key) {
+        if (key == 0)
+            return -1;
+        int slot = slot(key, mask);
+        while (true) {
+            long k = buffer.getLong(HEADER_SIZE + slot * 8);
+            if (k == key)
+                return buffer.getInt(valueOffset(capacity) + slot * 4);
+            if (k == 0)
+                return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // build writes the table of every cell of the index. Where the index holds the same identity twice the most
+    // recently updated cell is kept. The index file is recorded as the table's source.
+    static int build(CellIndex index, File indexFile, File target) throws IOException {
+        long start = System.nanoTime();
+        int capacity = MIN_CAPACITY;
+        while (capacity < index.size() * 2L) {
+            capacity <<= 1;
+        }
+        int mask = capacity - 1;
+        int valueOffset = valueOffset(capacity);
+
+        // a name of its own, so builds in two processes never write the same file
+        File tmp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+        int count = 0;
+        // insert straight into the mapped file, which starts zeroed, so the table is never held on the heap
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            for (int p = 0; p < index.size(); p++) {
+                long key = key(index.mcc(p), index.mnc(p), index.lac(p), index.cid(p));
+                if (key == 0)
+                    continue;
+                int slot = slot(key, mask);
+                while (true) {
+                    long k = out.getLong(HEADER_SIZE + slot * 8);
+                    if (k == 0) {
+                        out.putLong(HEADER_SIZE + slot * 8, key);
+                        out.putInt(valueOffset + slot * 4, p);
+                        count++;
+                        break;
+                    }
+                    if (k == key) {
+                        int at = valueOffset + slot * 4;
+                        if (index.updated(p) > index.updated(out.getInt(at)))
+                            out.putInt(at, p);
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            }
+            out.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, count)
+                    .putLong(16, indexFile.length()).putLong(24, indexFile.lastModified());
+            out.force();
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + target);
+        }
+        Log.i(TAG, String.format("Built table of %d cell ids in %d ms", count, (System.nanoTime() - start) / 1000000));
+        return count;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int valueOffset(int capacity) {
+        return HEADER_SIZE + capacity * 8;
+    }
+
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + capacity * 12L;
+    }
+}
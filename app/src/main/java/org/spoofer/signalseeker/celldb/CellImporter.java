@@ -0,0 +1,202 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.KeySort;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// CellImporter fills the calculated table, or its shadow, from the cell_zone table.
+// The cells are streamed in blocks of ids, read on the calling thread and derived on a fork join pool. Derived
+// blocks are gathered into runs of RUN_SIZE cells, each put into geohash order with a parallel partition and sort,
+// and the single writer inserts every run in that order. Only a run and a few blocks are held at once however
+// many cells the country has. Rows are in key order within each run, so the cells of a tile sit together in a few
+// places of the table, and the geohash index over them all is sorted by SQLite on worker threads.
+class CellImporter {
+    private static final String TAG = CellImporter.class.getSimpleName();
+
+    private static final int RANGE_SIZE = 16384;        // cell_zone ids read per block
+    static final int RUN_SIZE = 8 * RANGE_SIZE;         // cells sorted and written together
+
+    // Rows reads the cells to import.
+    interface Rows {
+        // idRange returns the lowest and highest ids, an empty range when there are no cells.
+        long[] idRange();
+
+        // read reads the cells with ids from start up to, not including, end.
+        CellBlock read(long start, long end);
+    }
+
+    // Writer writes the derived row i of a block.
+    interface Writer {
+        void write(CellBlock block, int i);
+    }
+
+    private final SQLiteDatabase db;
+    private final ForkJoinPool pool;
+    private final String[] columns;
+
+    CellImporter(SQLiteDatabase db, ForkJoinPool pool) throws IllegalStateException {
+        this.db = db;
+        this.pool = pool;
+        this.columns = CellColumns.of(db).select();
+    }
+
+    // run imports every cell into the given table, returning the number imported. The table is left unindexed,
+    // for the caller to index once it is in place.
+    int run(String table) throws IllegalStateException {
+        long start = SystemClock.elapsedRealtime();
+        final SQLiteStatement insert = db.compileStatement(CellDatabase.insertCalc(table));
+        int count;
+        db.beginTransaction();
+        try {
+            count = copy(new Rows() {
+                @Override
+                public long[] idRange() {
+                    return CellImporter.this.idRange();
+                }
+
+                @Override
+                public CellBlock read(long start, long end) {
+                    return readBlock(start, end);
+                }
+            }, new Writer() {
+                @Override
+                public void write(CellBlock block, int i) {
+                    insert.bindLong(1, block.ids[i]);
+                    insert.bindDouble(2, block.latitudeSin[i]);
+                    insert.bindDouble(3, block.latitudeCos[i]);
+                    insert.bindDouble(4, block.longitudeSin[i]);
+                    insert.bindDouble(5, block.longitudeCos[i]);
+                    insert.bindLong(6, block.geohashes[i]);
+                    insert.executeInsert();
+                }
+            }, pool);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        long end = SystemClock.elapsedRealtime();
+
+        long cellsPerSecond = count * 1000L / Math.max(1, end - start);
+        Metrics.IMPORT_TIME.record((end - start) * 1000000);
+        Metrics.IMPORT_CELLS.add(count);
+        Metrics.IMPORT_CELLS_PER_SECOND.set(cellsPerSecond);
+        Log.i(TAG, String.format("Imported %d cells in %d ms, %d cells/s on %d cores",
+                count, end - start, cellsPerSecond, pool.getParallelism()));
+        return count;
+    }
+
+    // copy reads every row, derives it on the pool and writes it, a run at a time in key order, returning the
+    // number of rows written.
+    static int copy(Rows rows, Writer writer, ForkJoinPool pool) {
+        long[] range = rows.idRange();
+        // one block being derived per core, and one more ready for the run
+        int window = pool.getParallelism() + 1;
+        ArrayDeque<ForkJoinTask<CellBlock>> derived = new ArrayDeque<>();
+        Run run = new Run(writer, pool);
+
+        for (long from = range[0]; from <= range[1]; from += RANGE_SIZE) {
+            final CellBlock block = rows.read(from, Math.min(range[1] + 1, from + RANGE_SIZE));
+            derived.add(pool.submit(new RecursiveTask<CellBlock>() {
+                @Override
+                protected CellBlock compute() {
+                    block.derive();
+                    return block;
+                }
+            }));
+            if (derived.size() >= window)
+                run.add(derived.remove().join());
+        }
+        while (!derived.isEmpty()) {
+            run.add(derived.remove().join());
+        }
+        run.flush();
+        return run.written;
+    }
+
+    // idRange returns the lowest and highest cell_zone ids, an empty range when there are no cells.
+    private long[] idRange() {
+        Cursor cur = db.rawQuery(CellDatabase.SELECT_ID_RANGE, null);
+        if (cur == null)
+            throw new IllegalStateException("Failed to query cells database");
+        try {
+            if (!cur.moveToFirst() || cur.isNull(0))
+                return new long[]{0, -1};
+            return new long[]{cur.getLong(0), cur.getLong(1)};
+        } finally {
+            cur.close();
+        }
+    }
+
+    // readBlock reads the cell_zone rows with ids from start up to, not including, end.
+    private CellBlock readBlock(long start, long end) {
+        Cursor cur = db.query(CellDatabase.TABLE_CELLS, columns,
+                "_id >= ? AND _id < ?", new String[]{Long.toString(start), Long.toString(end)},
+                null, null,
+                "_id", null);
+        if (cur == null)
+            throw new IllegalStateException("Failed to query cells database");
+        try {
+            CellBlock block = new CellBlock(cur.getCount());
+            while (!block.isFull() && cur.moveToNext()) {
+                block.add(cur.getLong(0), cur.getDouble(1), cur.getDouble(2),
+                        cur.getInt(3), cur.getInt(4), cur.getInt(5), cur.getInt(6), cur.getLong(7));
+            }
+            return block;
+        } finally {
+            cur.close();
+        }
+    }
+
+    // Run gathers derived blocks until it holds RUN_SIZE cells, then writes them in key order.
+    private static class Run {
+        private final Writer writer;
+        private final ForkJoinPool pool;
+        private final List<CellBlock> blocks = new ArrayList<>();
+        private final long[] keys = new long[RUN_SIZE];
+        private final int[] block = new int[RUN_SIZE]; // the block and row of each key
+        private final int[] row = new int[RUN_SIZE];
+        private int size;
+        int written;
+
+        Run(Writer writer, ForkJoinPool pool) {
+            this.writer = writer;
+            this.pool = pool;
+        }
+
+        void add(CellBlock b) {
+            if (size + b.size > RUN_SIZE)
+                flush();
+            for (int i = 0; i < b.size; i++, size++) {
+                keys[size] = b.geohashes[i];
+                block[size] = blocks.size();
+                row[size] = i;
+            }
+            blocks.add(b);
+        }
+
+        void flush() {
+            long[] sorted = Arrays.copyOf(keys, size);
+            int[] order = KeySort.sort(sorted, pool);
+            for (int i = 0; i < order.length; i++) {
+                writer.write(blocks.get(block[order[i]]), row[order[i]]);
+            }
+            written += size;
+            blocks.clear();
+            size = 0;
+        }
+    }
+}
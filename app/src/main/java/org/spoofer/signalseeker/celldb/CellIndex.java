@@ -0,0 +1,350 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.spoofer.signalseeker.download.DownloadEngine;
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+
+// CellIndex is a snapshot of a country's cells in geohash order, memory mapped from a file beside the database.
+// It is opened only while the database's size, modification time and sampled hash match those it was built from.
+// Layout, little endian: the header, then each column in turn, see COLUMN_WIDTHS.
+public class CellIndex extends GeoIndex {
+    private static final String TAG = CellIndex.class.getSimpleName();
+
+    static final String EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x494c4543; // "CELI"
+    private static final int VERSION = 2; // 1 was mapped whole, so held at most 44M cells
+    private static final int HEADER_SIZE = 64;
+    private static final int HASH_SIZE = 32;
+    private static final int HASH_SAMPLE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // columns, in file order
+    private static final int COL_KEY = 0;
+    private static final int COL_ID = 1;
+    private static final int COL_UPDATED = 2;
+    private static final int COL_LATITUDE = 3;
+    private static final int COL_LONGITUDE = 4;
+    private static final int COL_MCC = 5;
+    private static final int COL_MNC = 6;
+    private static final int COL_LAC = 7;
+    private static final int COL_CID = 8;
+    private static final int[] COLUMN_WIDTHS = {8, 8, 8, 4, 4, 4, 4, 4, 4};
+    static final int MAX_COUNT = Integer.MAX_VALUE / 8; // cells of the widest column in one mapping
+
+    private static final int PAGE_SIZE = 16384; // cells read per query while building
+
+    private final MappedByteBuffer header;
+    private final int count;
+    private final ByteBuffer[] columns = new ByteBuffer[COLUMN_WIDTHS.length];
+
+    private CellIndex(FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size < HEADER_SIZE)
+            throw new IOException("not a cell index");
+        header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            throw new IOException("not a cell index");
+        count = header.getInt(8);
+        if (count < 0 || count > MAX_COUNT || fileSize(count) != size)
+            throw new IOException("cell index is truncated");
+        long[] offsets = columnOffsets(count);
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = ch.map(FileChannel.MapMode.READ_ONLY, offsets[c], (long) COLUMN_WIDTHS[c] * count)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // open maps the snapshot of the given database, returning null when there is none or it is out of date.
+    public static CellIndex open(File snapshot, File source) throws IOException {
+        if (!snapshot.exists())
+            return null;
+        long start = System.nanoTime();
+        CellIndex index = map(snapshot);
+        if (!index.matches(source)) {
+            Log.i(TAG, "Snapshot " + snapshot.getName() + " is out of date");
+            return null;
+        }
+        Metrics.INDEX_OPEN_TIME.recordSince(start);
+        return index;
+    }
+
+    // map maps a snapshot without checking it against a database, for snapshots written without one.
+    static CellIndex map(File snapshot) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+             FileChannel ch = raf.getChannel()) {
+            return new CellIndex(ch);
+        }
+    }
+
+    // matches checks the snapshot was built from the source database as it is now.
+    boolean matches(File source) throws IOException {
+        if (header.getLong(16) != source.length() || header.getLong(24) != source.lastModified())
+            return false;
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            hash[i] = header.get(32 + i);
+        }
+        return Arrays.equals(hash, fingerprint(source));
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public long keyAt(int position) {
+        return columns[COL_KEY].getLong(position * 8);
+    }
+
+    @Override
+    public double latitude(int position) {
+        return columns[COL_LATITUDE].getFloat(position * 4);
+    }
+
+    @Override
+    public double longitude(int position) {
+        return columns[COL_LONGITUDE].getFloat(position * 4);
+    }
+
+    // id returns the cell's _id in the cell_zone table.
+    public long id(int position) {
+        return columns[COL_ID].getLong(position * 8);
+    }
+
+    // updated returns when the cell was last seen, in milliseconds since the epoch, or 0 when unknown.
+    public long updated(int position) {
+        return columns[COL_UPDATED].getLong(position * 8);
+    }
+
+    public int mcc(int position) {
+        return columns[COL_MCC].getInt(position * 4);
+    }
+
+    public int mnc(int position) {
+        return columns[COL_MNC].getInt(position * 4);
+    }
+
+    public int lac(int position) {
+        return columns[COL_LAC].getInt(position * 4);
+    }
+
+    public int cid(int position) {
+        return columns[COL_CID].getInt(position * 4);
+    }
+
+    // build reads every cell of the database and writes its snapshot, returning the number of cells.
+    // The source is the database file, fingerprinted as it is when build is called.
+    // The cells are read in pages in geohash order, through the geohash index of the calculated table, so they
+    // stream straight into the writer and the build holds one page whatever the size of the country. The calculated
+    // table is migrated before the snapshot, so its keys are those of the cells. Cells changed while the build reads
+    // them leave it with more or fewer cells than it counted, failing it, and the snapshot is built again later.
+    static int build(SQLiteDatabase db, File source, File target) throws IOException, IllegalStateException {
+        long start = SystemClock.elapsedRealtime();
+        byte[] hash = fingerprint(source);
+        long sourceSize = source.length();
+        long sourceModified = source.lastModified();
+
+        String select = CellDatabase.selectByKey(CellColumns.of(db));
+        long count = DatabaseUtils.longForQuery(db, CellDatabase.COUNT_BY_KEY, null);
+        if (count > MAX_COUNT)
+            throw new IOException("Too many cells for a snapshot: " + count);
+        CellBlock page = new CellBlock(PAGE_SIZE);
+        try (Writer writer = new Writer(target, (int) count)) {
+            long key = -1;
+            long row = -1;
+            do {
+                Cursor cur = db.rawQuery(String.format(Locale.ROOT, select, key, key, row, PAGE_SIZE), null);
+                if (cur == null)
+                    throw new IllegalStateException("Failed to query cells database");
+                page.size = 0;
+                try {
+                    while (cur.moveToNext()) {
+                        key = cur.getLong(0);
+                        row = cur.getLong(1);
+                        page.geohashes[page.size] = key;
+                        page.add(cur.getLong(2), cur.getDouble(3), cur.getDouble(4),
+                                cur.getInt(5), cur.getInt(6), cur.getInt(7), cur.getInt(8), cur.getLong(9));
+                    }
+                } finally {
+                    cur.close();
+                }
+                for (int i = 0; i < page.size; i++) {
+                    writer.add(page, i);
+                }
+            } while (page.isFull());
+            writer.finish(sourceSize, sourceModified, hash);
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Metrics.INDEX_BUILD_TIME.record(elapsed * 1000000);
+        Log.i(TAG, String.format("Built snapshot of %d cells in %d ms", count, elapsed));
+        return (int) count;
+    }
+
+    // Writer writes a snapshot from cells given in key order. Each column is buffered separately and written at
+    // its own offset in the file, so the cells are streamed through once whatever their number.
+    // The snapshot is written beside the target and renamed over it by finish, so a reader never maps a half
+    // written index. Closing a writer that was not finished deletes what it wrote.
+    static class Writer implements Closeable {
+        private final File target;
+        private final File tmp;
+        private final RandomAccessFile raf;
+        private final FileChannel ch;
+        private final int count;
+        private final long[] positions;
+        private final ByteBuffer[] buffers = new ByteBuffer[COLUMN_WIDTHS.length];
+        private int added;
+        private boolean finished;
+
+        Writer(File target, int count) throws IOException {
+            if (count > MAX_COUNT)
+                throw new IOException("Too many cells for a snapshot: " + count);
+            this.target = target;
+            // a name of its own, so builds in two processes never write the same file
+            this.tmp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+            this.count = count;
+            this.raf = new RandomAccessFile(tmp, "rw");
+            this.ch = raf.getChannel();
+            ch.truncate(0);
+            positions = columnOffsets(count);
+            for (int c = 0; c < positions.length; c++) {
+                buffers[c] = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        // add appends the cell at index i of the block, which must be derived.
+        void add(CellBlock block, int i) throws IOException {
+            if (added == count)
+                throw new IOException("More cells added than the " + count + " expected");
+            added++;
+            column(COL_KEY).putLong(block.geohashes[i]);
+            column(COL_ID).putLong(block.ids[i]);
+            column(COL_UPDATED).putLong(block.updated[i]);
+            column(COL_LATITUDE).putFloat((float) block.latitudes[i]);
+            column(COL_LONGITUDE).putFloat((float) block.longitudes[i]);
+            column(COL_MCC).putInt(block.mcc[i]);
+            column(COL_MNC).putInt(block.mnc[i]);
+            column(COL_LAC).putInt(block.lac[i]);
+            column(COL_CID).putInt(block.cid[i]);
+        }
+
+        // finish writes the header, recording the database the cells came from, and moves the snapshot into place.
+        // A snapshot of no database has a zero size, time and hash, and can only be mapped.
+        void finish(long sourceSize, long sourceModified, byte[] sourceHash) throws IOException {
+            if (added != count)
+                throw new IOException("Only " + added + " of " + count + " cells added");
+            for (int c = 0; c < buffers.length; c++) {
+                flush(c);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0)
+                    .putLong(sourceSize).putLong(sourceModified)
+                    .put(sourceHash != null ? sourceHash : new byte[HASH_SIZE]);
+            header.flip();
+            write(header, 0);
+            ch.force(true);
+            ch.close();
+            raf.close();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Failed to replace " + target);
+            }
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished)
+                return;
+            ch.close();
+            raf.close();
+            tmp.delete();
+        }
+
+        private ByteBuffer column(int c) throws IOException {
+            if (buffers[c].remaining() < 8)
+                flush(c);
+            return buffers[c];
+        }
+
+        private void flush(int c) throws IOException {
+            ByteBuffer out = buffers[c];
+            out.flip();
+            positions[c] += write(out, positions[c]);
+            out.clear();
+        }
+
+        private int write(ByteBuffer out, long position) throws IOException {
+            int written = 0;
+            while (out.hasRemaining()) {
+                written += ch.write(out, position + written);
+            }
+            return written;
+        }
+    }
+
+    // fingerprint hashes the first and last HASH_SAMPLE bytes of the file.
+    static byte[] fingerprint(File file) throws IOException {
+        MessageDigest digest = DownloadEngine.newDigest();
+        ByteBuffer buf = ByteBuffer.allocate(HASH_SAMPLE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            long size = ch.size();
+            hashRange(ch, 0, Math.min(size, HASH_SAMPLE), buf, digest);
+            if (size > HASH_SAMPLE)
+                hashRange(ch, Math.max(HASH_SAMPLE, size - HASH_SAMPLE), size, buf, digest);
+        }
+        return digest.digest();
+    }
+
+    private static void hashRange(FileChannel ch, long from, long to, ByteBuffer buf, MessageDigest digest)
+            throws IOException {
+        buf.clear();
+        buf.limit((int) (to - from));
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, from + buf.position()) < 0)
+                throw new IOException("File changed while being read");
+        }
+        buf.flip();
+        digest.update(buf);
+    }
+
+    private static long[] columnOffsets(int count) {
+        long[] offsets = new long[COLUMN_WIDTHS.length];
+        long offset = HEADER_SIZE;
+        for (int c = 0; c < COLUMN_WIDTHS.length; c++) {
+            offsets[c] = offset;
+            offset += (long) COLUMN_WIDTHS[c] * count;
+        }
+        return offsets;
+    }
+
+    private static long fileSize(int count) {
+        long size = HEADER_SIZE;
+        for (int width : COLUMN_WIDTHS) {
+            size += (long) width * count;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,13 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.util.List;
+
+// CellLookup finds the cells nearest a position, and cells by the identity the phone reports for them.
+// CellDatabase is the lookup used by the app, the replay tests supply their own.
+public interface CellLookup {
+    // findLocalCells returns up to limit cells nearest the given coordinates, nearest first, or null on failure.
+    List<Cell> findLocalCells(double latitude, double longitude, int limit);
+
+    // findCell returns the cell with the given identity, or null when it is not known or cannot be looked up yet.
+    Cell findCell(int mcc, int mnc, int lac, int cid);
+}
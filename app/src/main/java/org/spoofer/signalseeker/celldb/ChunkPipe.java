@@ -0,0 +1,114 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// ChunkPipe hands bytes from a producer thread to a consumer thread, which reads them as an InputStream.
+// A fixed set of chunks circulates between the two: the producer fills free chunks and sends them, the consumer
+// reads them and hands them back. When every chunk is waiting to be read the producer blocks, so a slow reader
+// holds back the producer and memory never grows past the chunks allocated up front.
+class ChunkPipe extends InputStream {
+
+    static final class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final Chunk END = new Chunk(0);
+
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> full;
+
+    private Chunk current;
+    private int position;
+    private long producerWait; // nanoseconds the producer spent blocked on the consumer
+
+    ChunkPipe(int chunks, int chunkSize) {
+        free = new ArrayBlockingQueue<>(chunks);
+        full = new ArrayBlockingQueue<>(chunks + 1);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new Chunk(chunkSize));
+        }
+    }
+
+    /* ============ producer side ================= */
+
+    // obtain returns an empty chunk to fill, waiting for the consumer to hand one back if none are free.
+    Chunk obtain() throws InterruptedException {
+        Chunk c = free.poll();
+        if (c == null) {
+            long start = System.nanoTime();
+            c = free.take();
+            producerWait += System.nanoTime() - start;
+        }
+        c.length = 0;
+        return c;
+    }
+
+    void send(Chunk chunk) throws InterruptedException {
+        if (chunk.length == 0)
+            free.put(chunk);
+        else
+            full.put(chunk);
+    }
+
+    // finish marks the end of the stream, after the last chunk has been sent.
+    void finish() throws InterruptedException {
+        full.put(END);
+    }
+
+    // producerWait is read by the producer, or after it has finished.
+    long producerWait() {
+        return producerWait;
+    }
+
+    /* ============ consumer side ================= */
+
+    @Override
+    public int read() throws InterruptedIOException {
+        if (!fill())
+            return -1;
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws InterruptedIOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END ? 0 : current.length - position;
+    }
+
+    // fill makes sure the current chunk has bytes left to read, returning false at the end of the stream.
+    private boolean fill() throws InterruptedIOException {
+        if (current == END)
+            return false;
+        if (current != null && position < current.length)
+            return true;
+        try {
+            if (current != null)
+                free.put(current);
+            current = full.take();
+        } catch (InterruptedException e) {
+            current = null;
+            throw new InterruptedIOException("Pipe reader interrupted");
+        }
+        position = 0;
+        return current != END;
+    }
+}
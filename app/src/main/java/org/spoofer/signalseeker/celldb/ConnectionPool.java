@@ -0,0 +1,130 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.spoofer.signalseeker.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ConnectionPool lends out the connections to one database file: one writer and up to a fixed number of readers,
+// each held by one thread at a time. The writer opens with the pool, putting the file in WAL mode before any reader.
+class ConnectionPool<C> {
+    private static final long CLOSE_CHECK = 100; // milliseconds between checks for a close while waiting for a reader
+
+    interface Factory<C> {
+        C open(boolean writer) throws IOException;
+
+        void close(C connection, boolean writer);
+    }
+
+    private final Factory<C> factory;
+    private final int readers;
+    private final LinkedBlockingQueue<C> idle = new LinkedBlockingQueue<>();
+    private final List<C> opened = new ArrayList<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final C writer;
+    private boolean closed;
+
+    ConnectionPool(Factory<C> factory, int readers) throws IOException {
+        this.factory = factory;
+        this.readers = readers;
+        this.writer = factory.open(true);
+    }
+
+    // acquireReader lends out a reader, opening one when none is idle and fewer than the limit are open, or else
+    // waiting for one to be given back. A wait ends with an IOException should the pool be closed meanwhile.
+    C acquireReader() throws IOException {
+        C c = idle.poll();
+        if (c != null)
+            return c;
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Connection pool is closed");
+            if (opened.size() < readers) {
+                c = factory.open(false);
+                opened.add(c);
+                Metrics.POOL_READERS.set(opened.size());
+                return c;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            while ((c = idle.poll(CLOSE_CHECK, TimeUnit.MILLISECONDS)) == null) {
+                synchronized (this) {
+                    if (closed)
+                        throw new IOException("Connection pool is closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a reader");
+        }
+        Metrics.POOL_WAIT.recordSince(start);
+        return c;
+    }
+
+    void releaseReader(C c) {
+        idle.add(c);
+    }
+
+    // acquireWriter lends out the writer, waiting while another thread holds it.
+    C acquireWriter() throws IOException {
+        writeLock.lock();
+        synchronized (this) {
+            if (closed) {
+                writeLock.unlock();
+                throw new IOException("Connection pool is closed");
+            }
+        }
+        return writer;
+    }
+
+    // tryAcquireWriter lends out the writer if no other thread holds it, returning null rather than waiting.
+    C tryAcquireWriter() throws IOException {
+        if (!writeLock.tryLock())
+            return null;
+        synchronized (this) {
+            if (closed) {
+                writeLock.unlock();
+                throw new IOException("Connection pool is closed");
+            }
+        }
+        return writer;
+    }
+
+    void releaseWriter(C c) {
+        writeLock.unlock();
+    }
+
+    // readers returns the number of readers opened.
+    synchronized int readers() {
+        return opened.size();
+    }
+
+    // close closes every connection. Nothing may be lent out.
+    void close() {
+        List<C> readers;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            readers = new ArrayList<>(opened);
+            opened.clear();
+            idle.clear();
+        }
+        for (C c : readers) {
+            factory.close(c, false);
+        }
+        writeLock.lock();
+        try {
+            factory.close(writer, true);
+        } finally {
+            writeLock.unlock();
+        }
+        Metrics.POOL_READERS.set(0);
+    }
+}
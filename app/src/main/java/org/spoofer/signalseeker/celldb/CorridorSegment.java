@@ -0,0 +1,28 @@
+package org.spoofer.signalseeker.celldb;
+
+import java.util.List;
+
+// CorridorSegment holds the cells found along one segment of a route, nearest first.
+// A segment with no cells within reach is a gap in coverage.
+public class CorridorSegment {
+    final int index;
+    final List<Cell> cells;
+
+    public CorridorSegment(int index, List<Cell> cells) {
+        this.index = index;
+        this.cells = cells;
+    }
+
+    // getIndex returns the segment's position in the route, segment i running from point i to point i + 1.
+    public int getIndex() {
+        return index;
+    }
+
+    public List<Cell> getCells() {
+        return cells;
+    }
+
+    public boolean isCoverageGap() {
+        return cells.isEmpty();
+    }
+}
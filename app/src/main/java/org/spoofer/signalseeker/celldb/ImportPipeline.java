@@ -0,0 +1,392 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.spoofer.signalseeker.download.DownloadEngine;
+import org.spoofer.signalseeker.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+// ImportPipeline builds a cell database from a gzipped CSV export in a single pass, without saving the archive.
+// Four stages run at once on their own threads: fetch reads the archive from the network into pooled chunks,
+// parse inflates and parses them into blocks of cells, derive calculates each block's trig values and geohashes,
+// and write inserts the blocks into both the cell_zone and calculated tables of a new database.
+// The stages are joined by bounded queues of recycled buffers, so the slowest stage sets the pace of the others
+// and memory use stays fixed however large the archive is. The time each stage spends blocked is logged, to show
+// which one limits the import.
+// A failure in any stage cancels the rest. Only a complete database is renamed over the target, so no lookup runs
+// before the transfer ends: a partly written file would be opened, and migrated, as a finished database. What follows
+// the last byte is the index build and the rename, and its time is kept in the cells.import.tail_time metric.
+public class ImportPipeline implements Runnable {
+    private static final String TAG = ImportPipeline.class.getSimpleName();
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS = 16;       // compressed bytes in flight between fetch and parse
+    private static final int BLOCK_SIZE = 4096; // cells per block, and per write transaction
+    private static final int BLOCKS = 8;        // blocks in flight between parse and write
+    private static final long PROGRESS_INTERVAL = 256 * 1024;
+    private static final int CONNECT_TIMEOUT = 15000; // milliseconds
+    private static final int READ_TIMEOUT = 30000;
+    private static final String IMPORT_EXTENSION = ".import";
+
+    private static final int STAGE_FETCH = 0;
+    private static final int STAGE_PARSE = 1;
+    private static final int STAGE_DERIVE = 2;
+    private static final int STAGE_WRITE = 3;
+    private static final String[] STAGE_NAMES = {"fetch", "parse", "derive", "write"};
+
+    // marks the end of the blocks passed between stages
+    private static final CellBlock END = new CellBlock(0);
+
+    private final URL source;
+    private final File target;
+    private final String expectedSha256;
+    private final DownloadEngine.Listener listener;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(STAGE_NAMES.length + 1);
+    private final long[] waits = new long[STAGE_NAMES.length]; // nanoseconds each stage spent blocked
+    private volatile boolean cancelled;
+    private volatile long transferEnd; // elapsed realtime milliseconds the last byte of the archive arrived
+
+    // expectedSha256 is the checksum of the archive, or null to skip verification.
+    public ImportPipeline(URL source, File target, String expectedSha256, DownloadEngine.Listener listener) {
+        this.source = source;
+        this.target = target;
+        this.expectedSha256 = expectedSha256 != null ? expectedSha256.toLowerCase() : null;
+        this.listener = listener;
+    }
+
+    public void start() {
+        executor.execute(this);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        executor.shutdownNow();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void run() {
+        try {
+            String sha256 = runStages();
+            if (!cancelled)
+                listener.onComplete(target, sha256);
+        } catch (Exception e) {
+            if (!cancelled)
+                listener.onFailed(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String runStages() throws IOException, InterruptedException {
+        final File temp = new File(target.getPath() + IMPORT_EXTENSION);
+        deleteDatabase(temp);
+
+        final ChunkPipe pipe = new ChunkPipe(CHUNKS, CHUNK_SIZE);
+        final BlockingQueue<CellBlock> free = new ArrayBlockingQueue<>(BLOCKS);
+        final BlockingQueue<CellBlock> parsed = new ArrayBlockingQueue<>(BLOCKS + 1);
+        final BlockingQueue<CellBlock> derived = new ArrayBlockingQueue<>(BLOCKS + 1);
+        for (int i = 0; i < BLOCKS; i++) {
+            free.add(new CellBlock(BLOCK_SIZE));
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        CompletionService<Object> stages = new ExecutorCompletionService<>(executor);
+        List<Future<Object>> futures = new ArrayList<>();
+        final Future<Object> fetch = stages.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return fetch(pipe);
+            }
+        });
+        futures.add(fetch);
+        futures.add(stages.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                parse(pipe, free, parsed);
+                return null;
+            }
+        }));
+        futures.add(stages.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                derive(parsed, derived);
+                return null;
+            }
+        }));
+        final Future<Object> write = stages.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return write(temp, derived, free);
+            }
+        });
+        futures.add(write);
+
+        try {
+            // wait on the stages in the order they finish, so the first failure is seen at once
+            for (int i = 0; i < futures.size(); i++) {
+                stages.take().get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Object> f : futures) {
+                f.cancel(true);
+            }
+            deleteDatabase(temp);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Import failed", cause);
+        } catch (InterruptedException e) {
+            for (Future<Object> f : futures) {
+                f.cancel(true);
+            }
+            deleteDatabase(temp);
+            throw e;
+        }
+
+        String sha256;
+        int count;
+        try {
+            sha256 = (String) fetch.get();
+            count = (Integer) write.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+        replaceDatabase(temp, target);
+
+        long end = SystemClock.elapsedRealtime();
+        long elapsed = end - start;
+        Metrics.IMPORT_TAIL_TIME.record((end - transferEnd) * 1000000);
+        long cellsPerSecond = count * 1000L / Math.max(1, elapsed);
+        Metrics.IMPORT_TIME.record(elapsed * 1000000);
+        Metrics.IMPORT_CELLS.add(count);
+        Metrics.IMPORT_CELLS_PER_SECOND.set(cellsPerSecond);
+        waits[STAGE_FETCH] += pipe.producerWait();
+        StringBuilder blocked = new StringBuilder();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            blocked.append(i == 0 ? "" : ", ").append(STAGE_NAMES[i]).append(' ').append(waits[i] / 1000000);
+        }
+        Log.i(TAG, String.format("Imported %d cells in %d ms, %d cells/s, ready %d ms after the transfer "
+                + "(ms blocked: %s)", count, elapsed, cellsPerSecond, end - transferEnd, blocked));
+        return sha256;
+    }
+
+    // fetch streams the archive into the pipe, returning its SHA-256.
+    private String fetch(ChunkPipe pipe) throws IOException, InterruptedException {
+        HttpURLConnection conn = (HttpURLConnection) source.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        try {
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Download failed, HTTP status " + status);
+            long total = conn.getContentLengthLong();
+            MessageDigest digest = DownloadEngine.newDigest();
+
+            long downloaded = 0;
+            long nextProgress = 0;
+            try (InputStream in = conn.getInputStream()) {
+                while (!cancelled) {
+                    ChunkPipe.Chunk chunk = pipe.obtain();
+                    int n = in.read(chunk.data, 0, chunk.data.length);
+                    if (n < 0) {
+                        transferEnd = SystemClock.elapsedRealtime();
+                        pipe.send(chunk);
+                        break;
+                    }
+                    chunk.length = n;
+                    digest.update(chunk.data, 0, n);
+                    pipe.send(chunk);
+
+                    downloaded += n;
+                    if (downloaded >= nextProgress) {
+                        listener.onProgress(downloaded, total);
+                        nextProgress = downloaded + PROGRESS_INTERVAL;
+                    }
+                }
+            }
+            if (cancelled)
+                throw new IOException("Import cancelled");
+            if (total >= 0 && downloaded != total)
+                throw new IOException("Download ended early at " + downloaded + " of " + total + " bytes");
+
+            String sha256 = DownloadEngine.hex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equals(sha256))
+                throw new IOException("Checksum mismatch, expected " + expectedSha256 + " got " + sha256);
+            listener.onProgress(downloaded, total);
+            pipe.finish();
+            return sha256;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // parse inflates the archive from the pipe and fills blocks of cells from its rows.
+    private void parse(ChunkPipe pipe, BlockingQueue<CellBlock> free, BlockingQueue<CellBlock> parsed)
+            throws IOException, InterruptedException {
+        CellCsvReader reader = new CellCsvReader(new GZIPInputStream(pipe, CHUNK_SIZE), 1);
+        while (true) {
+            CellBlock block = take(free, STAGE_PARSE);
+            if (!reader.read(block)) {
+                free.put(block);
+                break;
+            }
+            put(parsed, block, STAGE_PARSE);
+        }
+        put(parsed, END, STAGE_PARSE);
+        if (reader.skipped() > 1)
+            Log.w(TAG, "Skipped " + reader.skipped() + " lines that were not cells");
+    }
+
+    private void derive(BlockingQueue<CellBlock> parsed, BlockingQueue<CellBlock> derived)
+            throws InterruptedException {
+        while (true) {
+            CellBlock block = take(parsed, STAGE_DERIVE);
+            if (block != END)
+                block.derive();
+            put(derived, block, STAGE_DERIVE);
+            if (block == END)
+                break;
+        }
+    }
+
+    // write fills a new database at the given path, returning the number of cells written.
+    private int write(File file, BlockingQueue<CellBlock> derived, BlockingQueue<CellBlock> free)
+            throws IOException, InterruptedException {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        int count = 0;
+        try {
+            createTables(db);
+
+            SQLiteStatement insertCell = db.compileStatement(CellDatabase.INSERT_CELL);
+            SQLiteStatement insertCalc = db.compileStatement(CellDatabase.INSERT_CALC);
+            try {
+                while (true) {
+                    CellBlock block = take(derived, STAGE_WRITE);
+                    if (block == END)
+                        break;
+                    writeBlock(db, block, insertCell, insertCalc);
+                    count += block.size;
+                    free.put(block);
+                }
+            } finally {
+                insertCell.close();
+                insertCalc.close();
+            }
+            createIndexes(db);
+        } finally {
+            db.close();
+        }
+        return count;
+    }
+
+    // createTables prepares a new database for writeBlock.
+    static void createTables(SQLiteDatabase db) {
+        // the file is renamed into place only once complete, so it needs no crash safety while being written
+        db.execSQL("PRAGMA synchronous=OFF");
+        db.execSQL(CellDatabase.CREATE_CELLS_TABLE);
+        db.execSQL(CellDatabase.CREATE_CALC_TABLE);
+    }
+
+    // createIndexes indexes the tables once every block is written, which is quicker than indexing as they go,
+    // and records the calculated table as current so the database opens without a migration.
+    static void createIndexes(SQLiteDatabase db) throws IOException {
+        CellDatabase.indexCalcTable(db);
+        SchemaMigrator.CalculatedTable.record(db);
+        // WAL mode is recorded in the file's header, so set while nothing else has it open, rather than changing
+        // the file under its snapshot when it is first shared
+        db.enableWriteAheadLogging();
+    }
+
+    // writeBlock inserts a derived block into both tables in one transaction.
+    static void writeBlock(SQLiteDatabase db, CellBlock block,
+                                   SQLiteStatement insertCell, SQLiteStatement insertCalc) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < block.size; i++) {
+                insertCell.bindLong(1, block.ids[i]);
+                insertCell.bindLong(2, block.mcc[i]);
+                insertCell.bindLong(3, block.mnc[i]);
+                insertCell.bindLong(4, block.lac[i]);
+                insertCell.bindLong(5, block.cid[i]);
+                insertCell.bindDouble(6, block.latitudes[i]);
+                insertCell.bindDouble(7, block.longitudes[i]);
+                insertCell.bindLong(8, block.updated[i]);
+                insertCell.executeInsert();
+
+                insertCalc.bindLong(1, block.ids[i]);
+                insertCalc.bindDouble(2, block.latitudeSin[i]);
+                insertCalc.bindDouble(3, block.latitudeCos[i]);
+                insertCalc.bindDouble(4, block.longitudeSin[i]);
+                insertCalc.bindDouble(5, block.longitudeCos[i]);
+                insertCalc.bindLong(6, block.geohashes[i]);
+                insertCalc.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private CellBlock take(BlockingQueue<CellBlock> queue, int stage) throws InterruptedException {
+        CellBlock block = queue.poll();
+        if (block == null) {
+            long start = System.nanoTime();
+            block = queue.take();
+            waits[stage] += System.nanoTime() - start;
+        }
+        return block;
+    }
+
+    private void put(BlockingQueue<CellBlock> queue, CellBlock block, int stage) throws InterruptedException {
+        if (!queue.offer(block)) {
+            long start = System.nanoTime();
+            queue.put(block);
+            waits[stage] += System.nanoTime() - start;
+        }
+    }
+
+    static void deleteDatabase(File file) {
+        file.delete();
+        new File(file.getPath() + "-journal").delete();
+        new File(file.getPath() + SharedDatabase.WAL_EXTENSION).delete();
+        new File(file.getPath() + SharedDatabase.SHM_EXTENSION).delete();
+    }
+
+    // replaceDatabase moves a complete database over the target. The target's WAL is checkpointed first, as a WAL
+    // left beside the file would otherwise be replayed into the new one.
+    static void replaceDatabase(File temp, File target) throws IOException {
+        SharedDatabase.settle(target.getPath());
+        Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        new File(temp.getPath() + "-journal").delete();
+    }
+}
@@ -0,0 +1,359 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.spoofer.signalseeker.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// SchemaMigrator keeps the structures derived from a cell database up to date: the calculated table inside it, and
+// the cell index snapshot and id table beside it. Each records the version of its layout and the source it was
+// built from, the calculated table in the schema_version table and the files in their headers, and is rebuilt
+// when either no longer matches.
+// A missing or unreadable structure is built at once, as there is nothing to answer from until it is. A stale one
+// is rebuilt on the background executor into a shadow, the calculated_shadow table or a .tmp file, while queries
+// carry on against the old one, and the shadow is swapped in atomically, by a transaction replacing the table or
+// by renaming the file over the old. The structures are checked in order, as each is built from the one before,
+// and rebuilding one makes those after it stale in turn.
+class SchemaMigrator {
+    private static final String TAG = SchemaMigrator.class.getSimpleName();
+
+    static final int CURRENT = 0;
+    static final int STALE = 1;   // out of date, but can answer queries until rebuilt
+    static final int MISSING = 2; // missing or unreadable, so must be built before use
+
+    // Structure is one structure derived from the database.
+    interface Structure {
+        String name();
+
+        // state returns whether the structure is CURRENT, STALE or MISSING.
+        int state() throws IOException;
+
+        // rebuild builds the structure into its shadow and swaps it in.
+        void rebuild() throws IOException;
+    }
+
+    interface Listener {
+        // onMigrated is called on the background executor once the stale structures have been swapped in.
+        void onMigrated();
+
+        void onFailed(IOException e);
+    }
+
+    private final List<Structure> structures;
+    private final Executor background;
+    private final Listener listener;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    SchemaMigrator(List<Structure> structures, Executor background, Listener listener) {
+        this.structures = new ArrayList<>(structures);
+        this.background = background;
+        this.listener = listener;
+    }
+
+    // structures returns the usual structures of the database at the given path, in build order.
+    static List<Structure> structures(String dbpath) {
+        List<Structure> structures = new ArrayList<>();
+        structures.add(new CalculatedTable(dbpath));
+        structures.add(new Snapshot(dbpath));
+        structures.add(new IdTable(dbpath));
+        return structures;
+    }
+
+    // migrate builds the missing structures on the calling thread, then starts rebuilding any stale ones in the
+    // background, returning whether it did so.
+    boolean migrate() throws IOException {
+        return migrate(null);
+    }
+
+    // migrate migrates the structures up to and including the named one, or every one given null. A rebuild
+    // in the background goes on through every structure, as those after a rebuilt one are stale along with it.
+    boolean migrate(String through) throws IOException {
+        boolean stale = false;
+        for (Structure s : structures) {
+            int state = s.state();
+            if (state == MISSING) {
+                synchronized (s) {
+                    if (s.state() == MISSING)
+                        rebuild(s);
+                }
+            } else if (state == STALE) {
+                stale = true;
+            }
+            if (s.name().equals(through))
+                break;
+        }
+        if (!stale || !rebuilding.compareAndSet(false, true))
+            return false;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Structure s : structures) {
+                        synchronized (s) {
+                            if (s.state() != CURRENT)
+                                rebuild(s);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to migrate cell database", e);
+                    listener.onFailed(e);
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to migrate cell database", e);
+                    listener.onFailed(new IOException("Migration failed", e));
+                    return;
+                } finally {
+                    rebuilding.set(false);
+                }
+                listener.onMigrated();
+            }
+        });
+        return true;
+    }
+
+    boolean isRebuilding() {
+        return rebuilding.get();
+    }
+
+    private static void rebuild(Structure s) throws IOException {
+        long start = System.nanoTime();
+        s.rebuild();
+        Metrics.MIGRATION_TIME.recordSince(start);
+        Metrics.MIGRATION_REBUILDS.inc();
+        Log.i(TAG, String.format("Rebuilt %s in %d ms", s.name(), (System.nanoTime() - start) / 1000000));
+    }
+
+    // CalculatedTable is the table of each cell's trig values and geohash. Its version and the count of changes to
+    // cell_zone it was derived from are recorded in the schema_version table. Triggers on cell_zone keep that count
+    // in a row of its own, so checking the table reads two rows rather than every cell.
+    static class CalculatedTable implements Structure {
+        static final String NAME = CellDatabase.TABLE_CALC;
+        static final int VERSION = 2; // 1 was the table before versions were recorded
+
+        private static final String TABLE_VERSIONS = "schema_version";
+        private static final String CREATE_VERSIONS_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_VERSIONS +
+                "(name TEXT PRIMARY KEY, version INTEGER, source TEXT, built INTEGER)";
+        private static final String RECORD_VERSION = "INSERT OR REPLACE INTO " + TABLE_VERSIONS +
+                "(name, version, source, built) VALUES (?,?,?,?)";
+        private static final String SELECT_TABLE =
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?";
+        private static final String SELECT_ANY = "SELECT EXISTS(SELECT 1 FROM " + CellDatabase.TABLE_CALC + ")";
+
+        // the row of the versions table whose version counts the changes to cell_zone
+        private static final String CHANGES = CellDatabase.TABLE_CELLS;
+        private static final String[] CHANGE_EVENTS = {"INSERT", "UPDATE", "DELETE"};
+        private static final String INSERT_CHANGES = "INSERT OR IGNORE INTO " + TABLE_VERSIONS +
+                "(name, version, source, built) VALUES (?,0,NULL,?)";
+        private static final String SELECT_CHANGES = "SELECT version FROM " + TABLE_VERSIONS + " WHERE name = ?";
+        private static final String SELECT_VERSIONS = "SELECT name, version, source FROM " + TABLE_VERSIONS +
+                " WHERE name IN (?,?)";
+
+        private final String dbpath;
+
+        CalculatedTable(String dbpath) {
+            this.dbpath = dbpath;
+        }
+
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        // state only reads the database, so a current database is left untouched and its snapshot stays current.
+        @Override
+        public int state() throws IOException {
+            SharedDatabase shared = SharedDatabase.open(dbpath);
+            try {
+                SQLiteDatabase db = shared.acquireReader();
+                try {
+                    if (!hasTable(db, CellDatabase.TABLE_CALC) || DatabaseUtils.longForQuery(db, SELECT_ANY, null) == 0)
+                        return MISSING;
+                    if (!hasTable(db, TABLE_VERSIONS))
+                        return STALE;
+                    Cursor cur = db.rawQuery(SELECT_VERSIONS, new String[]{NAME, CHANGES});
+                    if (cur == null)
+                        throw new IOException("Failed to query " + TABLE_VERSIONS);
+                    int version = -1;
+                    String source = null;
+                    String changes = null;
+                    try {
+                        while (cur.moveToNext()) {
+                            if (NAME.equals(cur.getString(0))) {
+                                version = cur.getInt(1);
+                                source = cur.getString(2);
+                            } else {
+                                changes = Long.toString(cur.getLong(1));
+                            }
+                        }
+                    } finally {
+                        cur.close();
+                    }
+                    return version == VERSION && changes != null && changes.equals(source) ? CURRENT : STALE;
+                } finally {
+                    shared.releaseReader(db);
+                }
+            } finally {
+                shared.release();
+            }
+        }
+
+        // rebuild fills the shadow table on the writer, then replaces the calculated table with it in one
+        // transaction. The readers read the old table until the transaction commits.
+        @Override
+        public void rebuild() throws IOException {
+            SharedDatabase shared = SharedDatabase.open(dbpath);
+            try {
+                SQLiteDatabase db = shared.acquireWriter();
+                try {
+                    // counted first, so cells changed during the build leave the table stale rather than
+                    // wrongly current
+                    String source = changes(db);
+                    db.execSQL("DROP TABLE IF EXISTS " + CellDatabase.TABLE_CALC_SHADOW);
+                    db.execSQL(CellDatabase.createCalcTable(CellDatabase.TABLE_CALC_SHADOW));
+                    new CellImporter(db, ForkJoinPool.commonPool()).run(CellDatabase.TABLE_CALC_SHADOW);
+
+                    db.beginTransaction();
+                    try {
+                        db.execSQL(CellDatabase.DROP_CALC_TABLE);
+                        db.execSQL("ALTER TABLE " + CellDatabase.TABLE_CALC_SHADOW + " RENAME TO "
+                                + CellDatabase.TABLE_CALC);
+                        CellDatabase.indexCalcTable(db);
+                        record(db, source);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                } catch (IllegalStateException e) {
+                    throw new IOException("Failed to rebuild " + NAME, e);
+                } finally {
+                    shared.releaseWriter(db);
+                }
+            } finally {
+                shared.release();
+            }
+        }
+
+        // record records the calculated table of the database as current, for a database written with it.
+        static void record(SQLiteDatabase db) {
+            record(db, changes(db));
+        }
+
+        private static void record(SQLiteDatabase db, String source) {
+            db.execSQL(RECORD_VERSION, new Object[]{NAME, VERSION, source, System.currentTimeMillis()});
+        }
+
+        // changes returns the count of changes to cell_zone, first adding the row and triggers keeping it if missing.
+        private static String changes(SQLiteDatabase db) {
+            db.execSQL(CREATE_VERSIONS_TABLE);
+            db.execSQL(INSERT_CHANGES, new Object[]{CHANGES, System.currentTimeMillis()});
+            for (String event : CHANGE_EVENTS) {
+                String trigger = CellDatabase.TABLE_CELLS + "_" + event.toLowerCase(Locale.ROOT);
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS " + trigger + " AFTER " + event +
+                        " ON " + CellDatabase.TABLE_CELLS + " BEGIN UPDATE " + TABLE_VERSIONS +
+                        " SET version = version + 1 WHERE name = '" + CHANGES + "'; END");
+            }
+            return Long.toString(DatabaseUtils.longForQuery(db, SELECT_CHANGES, new String[]{CHANGES}));
+        }
+
+        private static boolean hasTable(SQLiteDatabase db, String table) {
+            return DatabaseUtils.longForQuery(db, SELECT_TABLE, new String[]{table}) > 0;
+        }
+    }
+
+    // Snapshot is the cell index snapshot. Its header holds its version and the fingerprint of the database.
+    // A snapshot of an older version cannot be mapped, so is missing rather than stale. The database's WAL is
+    // checkpointed before its fingerprint is taken or compared, so changes still in the WAL make the snapshot stale.
+    static class Snapshot implements Structure {
+        private final File source;
+        private final File file;
+
+        Snapshot(String dbpath) {
+            this.source = new File(dbpath);
+            this.file = new File(dbpath + CellIndex.EXTENSION);
+        }
+
+        @Override
+        public String name() {
+            return file.getName();
+        }
+
+        @Override
+        public int state() throws IOException {
+            if (!file.exists())
+                return MISSING;
+            // with the writer busy the file may lack changes still in the WAL, so the snapshot is taken as stale
+            // and the rebuild, which waits for the writer, settles the database
+            boolean settled = SharedDatabase.trySettle(source.getPath());
+            try {
+                CellIndex index = CellIndex.map(file);
+                return settled && index.matches(source) ? CURRENT : STALE;
+            } catch (IOException e) {
+                Log.i(TAG, "Snapshot " + file.getName() + " is unreadable: " + e.getMessage());
+                return MISSING;
+            }
+        }
+
+        // rebuild reads the cells on a reader, and the snapshot writer renames the snapshot into place.
+        @Override
+        public void rebuild() throws IOException {
+            SharedDatabase.settle(source.getPath());
+            SharedDatabase shared = SharedDatabase.open(source.getPath());
+            try {
+                SQLiteDatabase db = shared.acquireReader();
+                try {
+                    CellIndex.build(db, source, file);
+                } catch (IllegalStateException e) {
+                    throw new IOException("Failed to rebuild " + name(), e);
+                } finally {
+                    shared.releaseReader(db);
+                }
+            } finally {
+                shared.release();
+            }
+        }
+    }
+
+    // IdTable is the id table of the snapshot. Its header holds its version and the size and time of the snapshot.
+    static class IdTable implements Structure {
+        private final File snapshot;
+        private final File file;
+
+        IdTable(String dbpath) {
+            this.snapshot = new File(dbpath + CellIndex.EXTENSION);
+            this.file = new File(dbpath + CellIdTable.EXTENSION);
+        }
+
+        @Override
+        public String name() {
+            return file.getName();
+        }
+
+        @Override
+        public int state() throws IOException {
+            if (!file.exists())
+                return MISSING;
+            try {
+                return CellIdTable.map(file).matches(snapshot.length(), snapshot.lastModified()) ? CURRENT : STALE;
+            } catch (IOException e) {
+                Log.i(TAG, "Table " + file.getName() + " is unreadable: " + e.getMessage());
+                return MISSING;
+            }
+        }
+
+        @Override
+        public void rebuild() throws IOException {
+            CellIdTable.build(CellIndex.map(snapshot), snapshot, file);
+        }
+    }
+}
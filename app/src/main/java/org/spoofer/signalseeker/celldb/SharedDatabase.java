@@ -0,0 +1,159 @@
+package org.spoofer.signalseeker.celldb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// SharedDatabase is the process's one pool of connections to a cell database file, opened by its first user and
+// closed by the last to release it. The file is kept in WAL mode, and settle checkpoints the WAL so the file holds
+// every change before the cell index fingerprints it.
+final class SharedDatabase {
+    private static final String TAG = SharedDatabase.class.getSimpleName();
+
+    static final String WAL_EXTENSION = "-wal";
+    static final String SHM_EXTENSION = "-shm";
+    private static final int READERS = 4;
+    private static final String CHECKPOINT = "PRAGMA wal_checkpoint(TRUNCATE)";
+
+    private static final Map<String, SharedDatabase> open = new HashMap<>();
+
+    private final String path;
+    private final ConnectionPool<SQLiteDatabase> pool;
+    private int users;
+
+    private SharedDatabase(final String path) throws IOException {
+        this.path = path;
+        this.pool = new ConnectionPool<>(new ConnectionPool.Factory<SQLiteDatabase>() {
+            @Override
+            public SQLiteDatabase open(boolean writer) throws IOException {
+                try {
+                    return writer
+                            ? SQLiteDatabase.openDatabase(path, null,
+                            SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING)
+                            : SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+                } catch (RuntimeException e) {
+                    throw new IOException("Failed to open " + path, e);
+                }
+            }
+
+            @Override
+            public void close(SQLiteDatabase connection, boolean writer) {
+                if (writer) {
+                    try {
+                        checkpoint(connection);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to checkpoint " + path, e);
+                    }
+                }
+                connection.close();
+            }
+        }, READERS);
+    }
+
+    // open returns the shared database of the file at the path, opening it if this is its first user. The file is
+    // opened outside the lock, so opening one file does not hold up the users of others. Should two threads open it
+    // at once, the one to publish second closes its connection and uses the other's.
+    static SharedDatabase open(String path) throws IOException {
+        synchronized (open) {
+            SharedDatabase db = open.get(path);
+            if (db != null) {
+                db.users++;
+                return db;
+            }
+        }
+        SharedDatabase opened = new SharedDatabase(path);
+        SharedDatabase db;
+        synchronized (open) {
+            db = open.get(path);
+            if (db == null) {
+                db = opened;
+                open.put(path, db);
+            }
+            db.users++;
+        }
+        if (db != opened)
+            opened.pool.close();
+        return db;
+    }
+
+    // release gives up a use of the database, closing it once it has no users.
+    void release() {
+        synchronized (open) {
+            if (--users > 0)
+                return;
+            open.remove(path);
+        }
+        pool.close();
+    }
+
+    // acquireReader lends out a read only connection, to be given back by releaseReader.
+    SQLiteDatabase acquireReader() throws IOException {
+        return pool.acquireReader();
+    }
+
+    void releaseReader(SQLiteDatabase db) {
+        pool.releaseReader(db);
+    }
+
+    // acquireWriter lends out the writer, to be given back by releaseWriter.
+    SQLiteDatabase acquireWriter() throws IOException {
+        return pool.acquireWriter();
+    }
+
+    void releaseWriter(SQLiteDatabase db) {
+        pool.releaseWriter(db);
+    }
+
+    // settle checkpoints the database at the path when its WAL holds changes, so the file holds every change
+    // before it is fingerprinted. A database with no WAL, or an empty one, is not opened at all.
+    static void settle(String path) throws IOException {
+        if (new File(path + WAL_EXTENSION).length() == 0)
+            return;
+        SharedDatabase db = open(path);
+        try {
+            SQLiteDatabase writer = db.acquireWriter();
+            try {
+                checkpoint(writer);
+            } finally {
+                db.releaseWriter(writer);
+            }
+        } finally {
+            db.release();
+        }
+    }
+
+    // trySettle settles the database unless another thread holds its writer, returning whether the file holds every
+    // change. A busy writer is left alone, for a later settle to checkpoint once it is done, so an open never waits
+    // out a rebuild.
+    static boolean trySettle(String path) throws IOException {
+        if (new File(path + WAL_EXTENSION).length() == 0)
+            return true;
+        SharedDatabase db = open(path);
+        try {
+            SQLiteDatabase writer = db.pool.tryAcquireWriter();
+            if (writer == null)
+                return false;
+            try {
+                checkpoint(writer);
+            } finally {
+                db.releaseWriter(writer);
+            }
+            return true;
+        } finally {
+            db.release();
+        }
+    }
+
+    private static void checkpoint(SQLiteDatabase writer) {
+        Cursor cur = writer.rawQuery(CHECKPOINT, null);
+        if (cur != null) {
+            cur.moveToFirst();
+            cur.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.spoofer.signalseeker.compass;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.view.Choreographer;
+import android.view.View;
+
+// HeadingEngine rotates a view to point at a target bearing, relative to the direction the device is facing.
+// Device heading is taken from the rotation vector sensor and low pass filtered.
+// The view is updated from a Choreographer frame callback, once per frame at most, and only when the
+// filtered angle has moved further than MIN_ROTATION_DELTA, so a still arrow causes no redraws.
+// All buffers are allocated up front, sensor events and frames allocate nothing.
+public class HeadingEngine implements SensorEventListener, Choreographer.FrameCallback {
+
+    private static final float SENSOR_SMOOTHING = 0.2f;   // weight of each new sensor reading
+    private static final float DISPLAY_SMOOTHING = 0.25f; // weight of the target angle per frame
+    private static final float MIN_ROTATION_DELTA = 0.5f; // degrees before the view is rotated again
+
+    private final SensorManager sensorManager;
+    private final Sensor rotationSensor;
+    private final View view;
+    private final Choreographer choreographer;
+
+    // preallocated buffers for the sensor callback
+    private final float[] rotationVector = new float[4];
+    private final float[] rotationVector3 = new float[3];
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientation = new float[3];
+
+    private boolean running;
+    private boolean hasHeading;
+    private float heading;        // filtered device azimuth, degrees from north
+    private boolean hasTarget;
+    private float targetBearing;  // bearing from the device to the target, degrees from north
+    private float displayAngle;   // filtered angle currently being drawn
+    private float appliedAngle;   // angle last given to the view
+
+    // Must be created on the UI thread, the Choreographer is bound to the calling thread's looper.
+    public HeadingEngine(Context context, View view) {
+        this.view = view;
+        this.choreographer = Choreographer.getInstance();
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.rotationSensor = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR) : null;
+        this.displayAngle = view.getRotation();
+        this.appliedAngle = displayAngle;
+    }
+
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        if (rotationSensor != null) {
+            sensorManager.registerListener(this, rotationSensor, SensorManager.SENSOR_DELAY_GAME);
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    public void stop() {
+        if (!running)
+            return;
+        running = false;
+        if (rotationSensor != null) {
+            sensorManager.unregisterListener(this);
+        }
+        choreographer.removeFrameCallback(this);
+        hasHeading = false;
+    }
+
+    // Sets the bearing, in degrees from north, the view should point towards.
+    public void setTargetBearing(float bearing) {
+        targetBearing = bearing;
+        hasTarget = true;
+    }
+
+    // Clears the target, the view returns to pointing straight up.
+    public void clearTarget() {
+        hasTarget = false;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running)
+            return;
+
+        float target = 0;
+        if (hasTarget) {
+            target = hasHeading ? targetBearing - heading : targetBearing;
+        }
+        displayAngle = normalise(displayAngle + normalise(target - displayAngle) * DISPLAY_SMOOTHING);
+
+        if (Math.abs(normalise(displayAngle - appliedAngle)) >= MIN_ROTATION_DELTA) {
+            appliedAngle = displayAngle;
+            view.setRotation(appliedAngle);
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // Some devices report more than four values, which getRotationMatrixFromVector rejects.
+        // Those reporting only three have no scalar component, which is then calculated from the other three.
+        float[] values = event.values.length >= 4 ? rotationVector : rotationVector3;
+        System.arraycopy(event.values, 0, values, 0, values.length);
+        SensorManager.getRotationMatrixFromVector(rotationMatrix, values);
+        SensorManager.getOrientation(rotationMatrix, orientation);
+
+        float azimuth = (float) Math.toDegrees(orientation[0]);
+        if (!hasHeading) {
+            heading = azimuth;
+            hasHeading = true;
+        } else {
+            heading = normalise(heading + normalise(azimuth - heading) * SENSOR_SMOOTHING);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    // normalise wraps an angle into the range -180 to 180 degrees.
+    private static float normalise(float degrees) {
+        degrees %= 360f;
+        if (degrees >= 180f)
+            degrees -= 360f;
+        else if (degrees < -180f)
+            degrees += 360f;
+        return degrees;
+    }
+}
@@ -0,0 +1,298 @@
+package org.spoofer.signalseeker.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// DownloadEngine fetches large files over HTTP into a local file.
+// Bytes are streamed through NIO channels into a ".part" file beside the target and hashed with SHA-256 as they arrive.
+// An interrupted download resumes from the end of the part file with a ranged request, guarded by If-Range so a
+// changed source restarts from the beginning, and a part file the server reports as already whole is finished
+// without fetching again. Only a complete file is moved over the target, in one atomic rename, so
+// readers of the target never see a partial file. When the caller knows the file's checksum it must also match, and
+// otherwise the file is not verified beyond being complete.
+// Progress is pushed to the listener from the download thread.
+public class DownloadEngine {
+
+    public interface Listener {
+        void onProgress(long downloaded, long total);
+
+        void onComplete(File file, String sha256);
+
+        void onFailed(Exception e);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL = 256 * 1024; // bytes between progress events
+    private static final int CONNECT_TIMEOUT = 15000;         // milliseconds
+    private static final int READ_TIMEOUT = 30000;
+    private static final String PART_EXTENSION = ".part";
+    private static final String VALIDATOR_EXTENSION = ".part.etag";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // start queues the download and returns its handle. expectedSha256 may be null to skip verification.
+    public Download start(URL source, File target, String expectedSha256, Listener listener) {
+        Download d = new Download(source, target, expectedSha256, listener);
+        executor.execute(d);
+        return d;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public static class Download implements Runnable {
+        private final URL source;
+        private final File target;
+        private final String expectedSha256;
+        private final Listener listener;
+
+        private volatile boolean cancelled;
+        private volatile HttpURLConnection connection;
+
+        public Download(URL source, File target, String expectedSha256, Listener listener) {
+            this.source = source;
+            this.target = target;
+            this.expectedSha256 = expectedSha256 != null ? expectedSha256.toLowerCase() : null;
+            this.listener = listener;
+        }
+
+        // cancel stops the download, leaving the part file to resume from.
+        public void cancel() {
+            cancelled = true;
+            HttpURLConnection c = connection;
+            if (c != null)
+                c.disconnect();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String sha256 = download();
+                if (!cancelled)
+                    listener.onComplete(target, sha256);
+            } catch (Exception e) {
+                if (!cancelled)
+                    listener.onFailed(e);
+            }
+        }
+
+        private String download() throws IOException {
+            File part = new File(target.getPath() + PART_EXTENSION);
+            File validatorFile = new File(target.getPath() + VALIDATOR_EXTENSION);
+            MessageDigest digest = newDigest();
+
+            long offset = part.exists() ? part.length() : 0;
+            String validator = offset > 0 ? readValidator(validatorFile) : null;
+            if (validator == null)
+                offset = 0;
+
+            HttpURLConnection conn = open(offset, validator);
+            try {
+                int status = conn.getResponseCode();
+                if (status == HTTP_RANGE_NOT_SATISFIABLE && offset > 0 && contentRangeTotal(conn) == offset) {
+                    // the part file was whole when an earlier run stopped before moving it over the target
+                    hashExisting(part, offset, digest);
+                    listener.onProgress(offset, offset);
+                } else {
+                    if (status == HttpURLConnection.HTTP_PARTIAL) {
+                        if (contentRangeStart(conn) != offset)
+                            throw new IOException("Server resumed from an unexpected offset");
+                    } else if (status == HttpURLConnection.HTTP_OK) {
+                        offset = 0;
+                    } else {
+                        throw new IOException("Download failed, HTTP status " + status);
+                    }
+
+                    long total = contentLength(conn, offset);
+                    writeValidator(validatorFile, conn);
+
+                    try (FileChannel out = new FileOutputStream(part, offset > 0).getChannel()) {
+                        if (offset > 0)
+                            hashExisting(part, offset, digest);
+                        copy(conn, out, digest, offset, total);
+                        out.force(true);
+                    }
+                }
+            } finally {
+                conn.disconnect();
+                connection = null;
+            }
+            if (cancelled)
+                throw new IOException("Download cancelled");
+
+            String sha256 = hex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+                part.delete();
+                validatorFile.delete();
+                throw new IOException("Checksum mismatch, expected " + expectedSha256 + " got " + sha256);
+            }
+            Files.move(part.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            validatorFile.delete();
+            return sha256;
+        }
+
+        private HttpURLConnection open(long offset, String validator) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) source.openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (offset > 0) {
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+                conn.setRequestProperty("If-Range", validator);
+            }
+            connection = conn;
+            if (cancelled)
+                conn.disconnect();
+            return conn;
+        }
+
+        private void copy(HttpURLConnection conn, FileChannel out, MessageDigest digest,
+                          long downloaded, long total) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long nextProgress = downloaded;
+            try (InputStream in = conn.getInputStream();
+                 ReadableByteChannel src = Channels.newChannel(in)) {
+                while (!cancelled) {
+                    buffer.clear();
+                    int n = src.read(buffer);
+                    if (n < 0)
+                        break;
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    downloaded += n;
+                    if (downloaded >= nextProgress) {
+                        listener.onProgress(downloaded, total);
+                        nextProgress = downloaded + PROGRESS_INTERVAL;
+                    }
+                }
+            }
+            if (cancelled)
+                return;
+            if (total >= 0 && downloaded != total)
+                throw new IOException("Download ended early at " + downloaded + " of " + total + " bytes");
+            listener.onProgress(downloaded, total);
+        }
+
+        // hashExisting feeds the bytes already downloaded into the digest, so a resumed file is checked in full.
+        private static void hashExisting(File part, long length, MessageDigest digest) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (FileChannel in = new FileInputStream(part).getChannel()) {
+                long remaining = length;
+                while (remaining > 0) {
+                    buffer.clear();
+                    if (remaining < buffer.capacity())
+                        buffer.limit((int) remaining);
+                    int n = in.read(buffer);
+                    if (n < 0)
+                        throw new IOException("Partial download is shorter than expected");
+                    buffer.flip();
+                    digest.update(buffer);
+                    remaining -= n;
+                }
+            }
+        }
+
+        private static long contentRangeStart(HttpURLConnection conn) {
+            // Content-Range: bytes <start>-<end>/<total>
+            String range = conn.getHeaderField("Content-Range");
+            if (range == null || !range.startsWith("bytes "))
+                return -1;
+            try {
+                return Long.parseLong(range.substring(6, range.indexOf('-')));
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+
+        // contentRangeTotal returns the full length given by Content-Range, or -1 when there is none.
+        private static long contentRangeTotal(HttpURLConnection conn) {
+            // Content-Range: bytes <start>-<end>/<total>, or bytes */<total> on a 416
+            String range = conn.getHeaderField("Content-Range");
+            if (range == null || range.lastIndexOf('/') < 0)
+                return -1;
+            try {
+                return Long.parseLong(range.substring(range.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        // contentLength returns the full length of the file, or -1 when the server does not say.
+        private static long contentLength(HttpURLConnection conn, long offset) {
+            long total = contentRangeTotal(conn);
+            if (total >= 0)
+                return total;
+            long length = conn.getContentLengthLong();
+            return length < 0 ? -1 : offset + length;
+        }
+
+        // writeValidator saves the ETag, or failing that the Last-Modified date, that a resume must match.
+        private static void writeValidator(File file, HttpURLConnection conn) throws IOException {
+            String validator = conn.getHeaderField("ETag");
+            if (validator == null)
+                validator = conn.getHeaderField("Last-Modified");
+            if (validator == null) {
+                file.delete();
+                return;
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(validator.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static String readValidator(File file) {
+            if (!file.exists())
+                return null;
+            try {
+                String v = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+                return v.isEmpty() ? null : v;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    // newDigest returns a SHA-256 digest, which every Java runtime provides.
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(byte[] b) {
+        StringBuilder s = new StringBuilder(b.length * 2);
+        for (byte v : b) {
+            s.append(Character.forDigit((v >> 4) & 0xf, 16));
+            s.append(Character.forDigit(v & 0xf, 16));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,356 @@
+package org.spoofer.signalseeker.geocode;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.GeoHash;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// AsyncGeocoder resolves coordinates to address text off the UI thread.
+// Results are cached by geohash tile, so fixes within the same ~150m tile resolve from memory.
+// The memory cache is backed by a small append only file in the cache directory, which survives restarts.
+// Concurrent requests for the same tile share one lookup and lookups are spaced at least
+// MIN_LOOKUP_INTERVAL apart. Callbacks are always made on the main thread.
+// The nearest place from the offline PlaceIndex, built from the bundled gazetteer, is delivered ahead of the
+// slower geocoder result, and stands in for it when the geocoder is missing or fails. The index is loaded by the
+// first task of the worker, so every lookup after it finds the index ready.
+public class AsyncGeocoder {
+
+    public interface Callback {
+        void onAddress(long key, String address);
+
+        void onAddressFailed(long key);
+    }
+
+    private static final String TAG = AsyncGeocoder.class.getSimpleName();
+
+    private static final int TILE_BITS = 35;              // 7 character geohash, ~150m square
+    private static final int MEMORY_CACHE_SIZE = 256;
+    private static final int DISK_CACHE_SIZE = 2048;
+    private static final long MIN_LOOKUP_INTERVAL = 1000; // milliseconds between geocoder calls
+    private static final String CACHE_FILE = "geocode.cache";
+    private static final String GAZETTEER_ASSET = "gazetteer.txt";
+    private static final String PLACES_FILE = "places.idx";
+    private static final double MAX_PLACE_DISTANCE = 50000; // metres
+
+    private final Handler guiHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Context context;
+    private final Geocoder geocoder;
+    private final File cacheFile;
+
+    private final Object lock = new Object();
+    private final Map<Long, String> memoryCache = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > MEMORY_CACHE_SIZE;
+        }
+    };
+    private final Map<Long, List<Request>> pending = new HashMap<>();
+
+    // worker thread only
+    private PlaceIndex places;
+    private Map<Long, String> diskCache;
+    private long lastLookupTime;
+
+    public AsyncGeocoder(Context context) {
+        this.context = context.getApplicationContext();
+        this.geocoder = Geocoder.isPresent() ? new Geocoder(context) : null;
+        this.cacheFile = new File(context.getCacheDir(), CACHE_FILE);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                places = loadPlaces();
+            }
+        });
+    }
+
+    // lookup requests the address of the given coordinates and returns the key the callback will be given.
+    // A cached address is delivered without touching the worker thread.
+    public long lookup(double latitude, double longitude, Callback callback) {
+        final long key = GeoHash.encode(latitude, longitude, TILE_BITS);
+
+        synchronized (lock) {
+            String address = memoryCache.get(key);
+            if (address != null) {
+                Metrics.GEOCODE_CACHE_HITS.inc();
+                deliver(key, address, callback);
+                return key;
+            }
+            Metrics.GEOCODE_CACHE_MISSES.inc();
+            Request request = new Request(callback);
+            List<Request> waiting = pending.get(key);
+            if (waiting != null) {
+                waiting.add(request);
+                return key;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(request);
+            pending.put(key, waiting);
+        }
+
+        // geocode the tile centre, so the cached result is the same whichever fix triggered it.
+        final double lat = GeoHash.latitude(key, TILE_BITS);
+        final double lon = GeoHash.longitude(key, TILE_BITS);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resolve(key, lat, lon);
+            }
+        });
+        return key;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        synchronized (lock) {
+            pending.clear();
+        }
+    }
+
+    private void resolve(long key, double latitude, double longitude) {
+        String address = readDiskCache(key);
+        if (address == null) {
+            String nearby = nearestPlace(latitude, longitude);
+            if (nearby != null)
+                name(key, nearby);
+            try {
+                address = geocode(latitude, longitude);
+                if (address != null) {
+                    writeDiskCache(key, address);
+                } else if (geocoder == null) {
+                    // without a geocoder the place name is the answer, kept in memory only so a
+                    // geocoder installed later is still asked
+                    address = nearby;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        List<Request> waiting;
+        synchronized (lock) {
+            if (address != null) {
+                memoryCache.put(key, address);
+            }
+            waiting = pending.remove(key);
+        }
+        if (waiting == null)
+            return;
+        for (Request r : waiting) {
+            // a failed lookup leaves an offline place name in place, and is only reported to those given none
+            if (r.named != null && (address == null || address.equals(r.named)))
+                continue;
+            deliver(key, address, r.callback);
+        }
+    }
+
+    // name gives the name of the nearest place to those waiting on the tile.
+    private void name(long key, String place) {
+        List<Request> named = new ArrayList<>();
+        synchronized (lock) {
+            List<Request> waiting = pending.get(key);
+            if (waiting == null)
+                return;
+            for (Request r : waiting) {
+                r.named = place;
+                named.add(r);
+            }
+        }
+        for (Request r : named) {
+            deliver(key, place, r.callback);
+        }
+    }
+
+    // geocode calls the platform geocoder, returning an empty string when there is no address
+    // so the tile is not looked up again, or null when the lookup failed.
+    private String geocode(double latitude, double longitude) throws InterruptedException {
+        if (geocoder == null)
+            return null;
+
+        long wait = lastLookupTime + MIN_LOOKUP_INTERVAL - SystemClock.elapsedRealtime();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        lastLookupTime = SystemClock.elapsedRealtime();
+
+        try {
+            List<Address> addrs = geocoder.getFromLocation(latitude, longitude, 1);
+            if (addrs == null || addrs.isEmpty()) {
+                return "";
+            }
+            return getAddressText(addrs.get(0));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to geocode location", e);
+            return null;
+        }
+    }
+
+    // nearestPlace names the nearest place of the index. Worker thread only, as it reads the mapped file.
+    private String nearestPlace(double latitude, double longitude) {
+        PlaceIndex index = places;
+        if (index == null)
+            return null;
+        GeoIndex.Nearest nearest = index.nearest(latitude, longitude, 1, MAX_PLACE_DISTANCE);
+        if (nearest.size() == 0)
+            return null;
+        return String.format(Locale.getDefault(), "Near %s (%.1f km)\n",
+                index.name(nearest.position(0)), nearest.distance(0) / 1000);
+    }
+
+    // loadPlaces opens the place index, building it from the bundled gazetteer when it is missing
+    // or older than the installed app. Returns null when the index cannot be built.
+    private PlaceIndex loadPlaces() {
+        File file = new File(context.getFilesDir(), PLACES_FILE);
+        long version = new File(context.getApplicationInfo().sourceDir).lastModified();
+        try {
+            if (file.exists()) {
+                PlaceIndex index = PlaceIndex.open(file);
+                if (index.sourceVersion() == version)
+                    return index;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Place index unreadable, rebuilding", e);
+        }
+
+        try (InputStream in = context.getAssets().open(GAZETTEER_ASSET)) {
+            int count = PlaceIndex.build(in, version, file);
+            Log.i(TAG, "Built place index of " + count + " places");
+            return PlaceIndex.open(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to build place index", e);
+            return null;
+        }
+    }
+
+    private void deliver(final long key, final String address, final Callback callback) {
+        guiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (address != null) {
+                    callback.onAddress(key, address);
+                } else {
+                    callback.onAddressFailed(key);
+                }
+            }
+        });
+    }
+
+    private String readDiskCache(long key) {
+        if (diskCache == null) {
+            diskCache = loadDiskCache();
+        }
+        return diskCache.get(key);
+    }
+
+    private void writeDiskCache(long key, String address) {
+        diskCache.put(key, address);
+        boolean append = diskCache.size() <= DISK_CACHE_SIZE;
+        if (!append) {
+            // drop the oldest entries and rewrite the file in full
+            trim(diskCache, DISK_CACHE_SIZE / 2);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(cacheFile, append)))) {
+            if (append) {
+                writeEntry(out, key, address);
+            } else {
+                for (Map.Entry<Long, String> e : diskCache.entrySet()) {
+                    writeEntry(out, e.getKey(), e.getValue());
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write geocode cache", e);
+        }
+    }
+
+    private Map<Long, String> loadDiskCache() {
+        Map<Long, String> cache = new LinkedHashMap<>();
+        if (!cacheFile.exists())
+            return cache;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            while (true) {
+                long key = in.readLong();
+                String address = in.readUTF();
+                cache.remove(key);
+                cache.put(key, address);
+            }
+        } catch (EOFException e) {
+            // end of cache
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read geocode cache, discarding", e);
+            cache.clear();
+            cacheFile.delete();
+        }
+        return cache;
+    }
+
+    private static void writeEntry(DataOutputStream out, long key, String address) throws IOException {
+        out.writeLong(key);
+        out.writeUTF(address);
+    }
+
+    private static void trim(Map<Long, String> cache, int size) {
+        int remove = cache.size() - size;
+        Iterator<Long> it = cache.keySet().iterator();
+        while (remove-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // Request is a callback waiting on a lookup, and the name of the nearby place it has been given, if any.
+    private static class Request {
+        final Callback callback;
+        String named; // guarded by lock
+
+        Request(Callback callback) {
+            this.callback = callback;
+        }
+    }
+
+    private static String getAddressText(Address addr) {
+        StringBuilder s = new StringBuilder();
+
+        int count = addr.getMaxAddressLineIndex();
+        for (int i = 0; i <= count; i++) {
+            if (addr.getAddressLine(i) != null) {
+                s.append(addr.getAddressLine(i));
+                s.append('\n');
+            }
+        }
+        if (addr.getPostalCode() != null) {
+            s.append(addr.getPostalCode());
+            s.append('\n');
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package org.spoofer.signalseeker.geocode;
+
+import org.spoofer.signalseeker.spatial.GeoHash;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// PlaceIndex is an offline list of named places, memory mapped from a file and sorted by geohash,
+// used to name the nearest locality when no network geocoder is available.
+// The file is built once from a GeoNames style gazetteer: tab separated lines with the place name in
+// column 2, latitude and longitude in columns 5 and 6 and the country code in column 9.
+//
+// File layout, little endian:
+//   header  int magic, int version, int count, int reserved, long sourceVersion, long namesOffset
+//   records count * (long key, float latitude, float longitude, int nameOffset)
+//   names   big endian short length, UTF-8 bytes
+public class PlaceIndex extends GeoIndex {
+
+    private static final int MAGIC = 0x49434c50; // "PLCI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 20;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long sourceVersion;
+    private final int namesOffset;
+
+    private PlaceIndex(MappedByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("not a place index");
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.sourceVersion = buffer.getLong(16);
+        this.namesOffset = (int) buffer.getLong(24);
+        if (namesOffset != HEADER_SIZE + (long) count * RECORD_SIZE || namesOffset > buffer.limit())
+            throw new IOException("place index is truncated");
+    }
+
+    public static PlaceIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            return new PlaceIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // sourceVersion identifies the gazetteer the index was built from, as given to build.
+    public long sourceVersion() {
+        return sourceVersion;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public long keyAt(int position) {
+        return buffer.getLong(HEADER_SIZE + position * RECORD_SIZE);
+    }
+
+    @Override
+    public double latitude(int position) {
+        return buffer.getFloat(HEADER_SIZE + position * RECORD_SIZE + 8);
+    }
+
+    @Override
+    public double longitude(int position) {
+        return buffer.getFloat(HEADER_SIZE + position * RECORD_SIZE + 12);
+    }
+
+    public String name(int position) {
+        int offset = namesOffset + buffer.getInt(HEADER_SIZE + position * RECORD_SIZE + 16);
+        // name lengths are written big endian by DataOutputStream
+        int length = ((buffer.get(offset) & 0xff) << 8) | (buffer.get(offset + 1) & 0xff);
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // build reads the gazetteer and writes a new index file, returning the number of places indexed.
+    // Lines that do not parse are skipped.
+    public static int build(InputStream gazetteer, long sourceVersion, File target) throws IOException {
+        List<Place> places = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(gazetteer, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            Place p = Place.parse(line);
+            if (p != null)
+                places.add(p);
+        }
+        Collections.sort(places, new Comparator<Place>() {
+            @Override
+            public int compare(Place a, Place b) {
+                return Long.compare(a.key, b.key);
+            }
+        });
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        DataOutputStream nameOut = new DataOutputStream(names);
+        ByteBuffer records = ByteBuffer.allocate(HEADER_SIZE + places.size() * RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        records.putInt(MAGIC).putInt(VERSION).putInt(places.size()).putInt(0)
+                .putLong(sourceVersion).putLong(HEADER_SIZE + (long) places.size() * RECORD_SIZE);
+        for (Place p : places) {
+            records.putLong(p.key).putFloat(p.latitude).putFloat(p.longitude).putInt(nameOut.size());
+            byte[] b = p.name.getBytes(StandardCharsets.UTF_8);
+            nameOut.writeShort(b.length);
+            nameOut.write(b);
+        }
+        records.flip();
+
+        // write beside the target and rename, so a reader never maps a half written index.
+        File tmp = new File(target.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            ch.truncate(0);
+            while (records.hasRemaining()) {
+                ch.write(records);
+            }
+            ByteBuffer nb = ByteBuffer.wrap(names.toByteArray());
+            while (nb.hasRemaining()) {
+                ch.write(nb);
+            }
+            ch.force(true);
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + target);
+        }
+        return places.size();
+    }
+
+    private static class Place {
+        final long key;
+        final float latitude;
+        final float longitude;
+        final String name;
+
+        Place(String name, float latitude, float longitude) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.key = GeoHash.encode(latitude, longitude);
+        }
+
+        static Place parse(String line) {
+            String[] cols = line.split("\t");
+            if (cols.length < 6 || cols[1].isEmpty())
+                return null;
+            try {
+                float lat = Float.parseFloat(cols[4]);
+                float lon = Float.parseFloat(cols[5]);
+                String name = cols.length > 8 && !cols[8].isEmpty() ? cols[1] + ", " + cols[8] : cols[1];
+                if (name.length() > 200)
+                    name = name.substring(0, 200);
+                return new Place(name, lat, lon);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
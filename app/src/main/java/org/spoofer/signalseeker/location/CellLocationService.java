@@ -11,25 +11,39 @@ import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
+import android.util.Log;
 import android.widget.Toast;
 
 import org.spoofer.signalseeker.DownloadActivity;
 import org.spoofer.signalseeker.celldb.Cell;
 import org.spoofer.signalseeker.celldb.CellDatabase;
 import org.spoofer.signalseeker.celldb.CellDatabaseLoader;
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.track.TrackWriter;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class CellLocationService extends Service {
+    private static final String TAG = CellLocationService.class.getSimpleName();
+
     private final Handler guiHandler = new Handler(Looper.getMainLooper());
+    // cell scans and location fixes are handled on this thread, and only their results posted to the UI
+    private HandlerThread workerThread;
+    private Handler workerHandler;
 
     private static final int updateInterval = 10000; // milliseconds of update period
     private static final int updateDistance = 3;    // meters distance before new request.
+    private static final int gpsStale = 30000;      // milliseconds without a GPS fix before cells locate the phone
+    private static final String CELL_PROVIDER = "cell";
 
     private final IBinder binder = new LocalBinder();
 
@@ -39,6 +53,12 @@ public class CellLocationService extends Service {
     private CellDatabase cellDatabase;
     private Location lastLocation;
 
+    private final FixProcessor processor = new FixProcessor();
+    private volatile TrackWriter recorder;
+    private CellScanner cellScanner;
+    private volatile long lastGpsFix = -gpsStale; // elapsed realtime milliseconds, stale until GPS gives a fix
+    private volatile boolean scanning;
+
 
     public interface CellLocationListener {
         void LocationUpdate(Location location);
@@ -54,19 +74,42 @@ public class CellLocationService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        workerThread = new HandlerThread("cell-location", Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+        cellScanner = new CellScanner(this);
         fetchDatabase(getCountryCode());
     }
 
+    // onStartCommand opens the database DownloadActivity has just fetched, named by the "countryCode" extra.
+    // The service stays bound-only, so it stops with its last client as before.
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        int result = super.onStartCommand(intent, flags, startId);
-        if (!intent.hasExtra("countryCode")) {
-            return Service.STOP_FOREGROUND_DETACH;
+        if (intent != null && intent.hasExtra("countryCode")) {
+            boolean open;
+            synchronized (lock) {
+                open = cellDatabase != null;
+            }
+            if (!open)
+                openDatabase(intent.getStringExtra("countryCode"));
         }
+        stopSelf(startId);
+        return Service.START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        workerThread.quit();
+        stopRecording();
+        closeDatabase();
+        processor.shutdown();
+        super.onDestroy();
     }
 
+    // onBind starts the cell scans before GPS, so the first answer comes from the cells rather than waiting on a fix.
     @Override
     public IBinder onBind(Intent intent) {
+        startCellScanning();
         try {
             startLocationListening();
         } catch (SecurityException e) {
@@ -78,6 +121,7 @@ public class CellLocationService extends Service {
     @Override
     public boolean onUnbind(Intent intent) {
         stopLocationListening();
+        stopCellScanning();
         closeDatabase();
         return super.onUnbind(intent);
     }
@@ -99,10 +143,12 @@ public class CellLocationService extends Service {
         }
 
         if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, updateInterval, updateDistance, locationReceiver);
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, updateInterval, updateDistance,
+                    locationReceiver, workerThread.getLooper());
         }
         if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
-            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, updateInterval, updateDistance, locationReceiver);
+            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, updateInterval, updateDistance,
+                    locationReceiver, workerThread.getLooper());
         }
     }
 
@@ -112,24 +158,101 @@ public class CellLocationService extends Service {
         locationManager.removeUpdates(locationReceiver);
     }
 
+    private void startCellScanning() {
+        scanning = true;
+        workerHandler.removeCallbacks(cellScan);
+        workerHandler.post(cellScan);
+    }
+
+    private void stopCellScanning() {
+        scanning = false;
+        workerHandler.removeCallbacks(cellScan);
+    }
+
+    // cellScan reads the cells heard every update interval on the worker thread, recording them to any track.
+    // Until GPS gives a fix, and whenever its last one is stale, the processor's CellPositioner places the phone
+    // from the cells instead, refined with each scan.
+    private final Runnable cellScan = new Runnable() {
+        @Override
+        public void run() {
+            workerHandler.postDelayed(this, updateInterval);
+            List<CellSample> samples;
+            try {
+                samples = cellScanner.scan();
+            } catch (SecurityException e) {
+                Log.e(TAG, "No permission to read cells", e);
+                return;
+            }
+            record(samples);
+
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastGpsFix < gpsStale)
+                return;
+            Fix fix = processor.locate(samples, now);
+            if (fix != null)
+                updateListeners(toLocation(fix));
+        }
+    };
+
+    // fetchDatabase opens the country's database, or when there is none yet has DownloadActivity build it from the
+    // country's export. The activity starts this service again with the country once the database is in place.
     private void fetchDatabase(String countryCode) {
+        if (openDatabase(countryCode))
+            return;
+
+        Intent intent = new Intent(getApplicationContext(), DownloadActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra("countryCode", countryCode);
+        intent.putExtra("archive", true);
+        startActivity(intent);
+    }
+
+    private boolean openDatabase(String countryCode) {
         CellDatabaseLoader dbl = new CellDatabaseLoader(getApplicationContext());
-        if (dbl.hasDatabase(countryCode)) {
-            synchronized (lock) {
-                try {
-                    cellDatabase = dbl.getDatabase(countryCode);
-                    updateListeners(lastLocation);
+        if (!dbl.hasDatabase(countryCode))
+            return false;
+        synchronized (lock) {
+            try {
+                cellDatabase = dbl.getDatabase(countryCode);
+                processor.setLookup(cellDatabase);
+                updateListeners(lastLocation);
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            return;
         }
+        openIndex();
+        return true;
+    }
 
-        Intent intent = new Intent(getApplicationContext(), CellLocationService.class);
-        intent.putExtra("countryCode", countryCode);
-        startService(intent);
+    // openIndex maps the database's cell index in the background, then refreshes the listeners from it.
+    // After the first start this only maps the snapshot file, so the first answer comes quickly.
+    private void openIndex() {
+        final CellDatabase db;
+        synchronized (lock) {
+            db = cellDatabase;
+        }
+        if (db == null)
+            return;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    db.openIndex();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to open cell index", e);
+                    return;
+                }
+                Location location;
+                synchronized (lock) {
+                    location = lastLocation;
+                }
+                updateListeners(location);
+                // scan again now the cells can be found, rather than waiting out the interval
+                if (scanning)
+                    startCellScanning();
+            }
+        }, "cell-index").start();
     }
 
     private void closeDatabase() {
@@ -137,40 +260,105 @@ public class CellLocationService extends Service {
             if (cellDatabase == null) {
                 return;
             }
+            processor.setLookup(null);
             cellDatabase.close();
             cellDatabase = null;
         }
     }
 
 
-    private void updateListeners(Location location) {
-        if (location == null)
+    // startRecording records the fixes received to a track file, until stopRecording is called.
+    public void startRecording(File file) throws IOException {
+        TrackWriter writer = new TrackWriter(file, System.currentTimeMillis());
+        synchronized (lock) {
+            stopRecording();
+            recorder = writer;
+        }
+    }
+
+    public void stopRecording() {
+        TrackWriter writer;
+        synchronized (lock) {
+            writer = recorder;
+            recorder = null;
+        }
+        if (writer == null)
             return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close track", e);
+        }
+    }
 
-        float distanceDelta = lastLocation == null ? 1 : 0; // positive value in case lastLocation is null.
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    private void record(List<CellSample> samples) {
+        TrackWriter writer = recorder;
+        if (writer == null)
+            return;
+        try {
+            for (CellSample sample : samples) {
+                writer.writeCell(sample);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record cells, recording stopped", e);
+            stopRecording();
+        }
+    }
+
+    private void record(Location location) {
+        TrackWriter writer = recorder;
+        if (writer == null)
+            return;
+        try {
+            writer.writeFix(toFix(location));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record fix, recording stopped", e);
+            stopRecording();
+        }
+    }
 
-        List<Cell> cells = null;
+
+    private void updateListeners(Location location) {
+        if (location == null)
+            return;
 
         synchronized (lock) {
-            if (lastLocation != null) {
-                distanceDelta = lastLocation.distanceTo(location);
-            }
             lastLocation = location;
-
-            if (cellDatabase != null) {
-                cells = cellDatabase.findLocalCells(location.getLatitude(), location.getLongitude());
-            }
         }
+        FixProcessor.Update update = processor.process(toFix(location));
 
-        if (distanceDelta > 0) {
+        if (update.moved) {
             sendLocationUpdate(location);
         }
 
-        if (cells != null) {
-            sendCellUpdate(cells);
+        if (update.cells != null) {
+            sendCellUpdate(location, update.cells);
         }
     }
 
+    private static Fix toFix(Location location) {
+        return new Fix(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : 0,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN,
+                !LocationManager.GPS_PROVIDER.equals(location.getProvider()),
+                location.getElapsedRealtimeNanos() / 1000000);
+    }
+
+    private static Location toLocation(Fix fix) {
+        Location location = new Location(CELL_PROVIDER);
+        location.setLatitude(fix.getLatitude());
+        location.setLongitude(fix.getLongitude());
+        location.setAccuracy(fix.getAccuracy());
+        location.setTime(System.currentTimeMillis());
+        location.setElapsedRealtimeNanos(fix.getTime() * 1000000);
+        return location;
+    }
+
     private void sendLocationUpdate(final Location location) {
         guiHandler.post(new Runnable() {
             @Override
@@ -182,13 +370,17 @@ public class CellLocationService extends Service {
         });
     }
 
-    private void sendCellUpdate(final List<Cell> cells) {
+    private void sendCellUpdate(final Location location, final List<Cell> cells) {
+        final long posted = System.nanoTime();
         guiHandler.post(new Runnable() {
             @Override
             public void run() {
+                Metrics.DISPATCH_LATENCY.recordSince(posted);
                 for (CellLocationListener l : cellListeners) {
                     l.LocalCellsUpdate(cells);
                 }
+                Metrics.FIX_TO_UI_LATENCY.record(
+                        SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos());
             }
         });
     }
@@ -202,6 +394,9 @@ public class CellLocationService extends Service {
     private LocationListener locationReceiver = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
+            if (LocationManager.GPS_PROVIDER.equals(location.getProvider()))
+                lastGpsFix = location.getElapsedRealtimeNanos() / 1000000;
+            record(location);
             updateListeners(location);
         }
 
@@ -213,8 +408,14 @@ public class CellLocationService extends Service {
         public void onProviderEnabled(String provider) {
         }
 
+        // GPS turned off hands over to the cells at once, rather than once its last fix is stale
         @Override
         public void onProviderDisabled(String provider) {
+            if (!LocationManager.GPS_PROVIDER.equals(provider))
+                return;
+            lastGpsFix = -gpsStale;
+            if (scanning)
+                startCellScanning();
         }
     };
 
@@ -0,0 +1,113 @@
+package org.spoofer.signalseeker.location;
+
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.util.Arrays;
+
+// CellPositioner estimates the phone's position from the cells it hears, without GPS.
+// Each scan gives a signal weighted centroid of the cells found. A cell's weight is the inverse of the distance
+// its signal suggests under a log distance path loss model, so the strongest cells pull hardest, and the serving
+// cell counts double. The centroids of successive scans are combined by a one dimensional Kalman filter: the
+// estimate's variance grows with the time since the last scan, allowing for movement, and shrinks with each
+// scan combined, so a stationary phone's estimate tightens over time. A scan too far from the estimate to be
+// the same place, such as after a long gap, restarts it.
+public class CellPositioner {
+
+    private static final double PATH_LOSS = 35;          // dB per decade of distance, 10 times the exponent
+    private static final double SERVING_WEIGHT = 2;
+    private static final int MIN_DBM = -150;
+    private static final int MAX_DBM = -20;
+    private static final int UNKNOWN_DBM = -100;         // assumed when a cell's signal is not reported
+    private static final float SINGLE_CELL_ACCURACY = 2000; // metres, a scan finding only one cell
+    private static final float MIN_SCAN_ACCURACY = 300;
+    private static final float MIN_ACCURACY = 100;
+    private static final double DRIFT = 30;              // metres per second the phone may move, about motorway speed
+    private static final double RESTART_DISTANCE = 3;    // standard deviations from the estimate
+
+    private double[] latitudes = new double[8];
+    private double[] longitudes = new double[8];
+    private double[] weights = new double[8];
+    private int count;
+
+    private boolean located;
+    private double latitude;
+    private double longitude;
+    private double variance; // square metres
+    private long time;
+
+    // add adds a cell found in the current scan.
+    public void add(double latitude, double longitude, int dbm, boolean registered) {
+        if (count == latitudes.length) {
+            latitudes = Arrays.copyOf(latitudes, count * 2);
+            longitudes = Arrays.copyOf(longitudes, count * 2);
+            weights = Arrays.copyOf(weights, count * 2);
+        }
+        if (dbm < MIN_DBM || dbm > MAX_DBM)
+            dbm = UNKNOWN_DBM;
+        latitudes[count] = latitude;
+        longitudes[count] = longitude;
+        weights[count] = Math.pow(10, dbm / PATH_LOSS) * (registered ? SERVING_WEIGHT : 1);
+        count++;
+    }
+
+    // update combines the cells added since the last update into the estimate and returns it, timed at the given
+    // milliseconds, or returns null when no cells were added.
+    public Fix update(long time) {
+        if (count == 0)
+            return null;
+
+        // the weighted centroid, on a flat projection about the first cell
+        double scale = Math.cos(Math.toRadians(latitudes[0]));
+        double total = 0;
+        double y = 0;
+        double x = 0;
+        for (int i = 0; i < count; i++) {
+            total += weights[i];
+            y += weights[i] * (latitudes[i] - latitudes[0]);
+            x += weights[i] * (longitudes[i] - longitudes[0]) * scale;
+        }
+        double scanLatitude = latitudes[0] + y / total;
+        double scanLongitude = longitudes[0] + x / total / scale;
+
+        // the scan's accuracy is the weighted spread of its cells about the centroid
+        double accuracy = SINGLE_CELL_ACCURACY;
+        if (count > 1) {
+            double spread = 0;
+            for (int i = 0; i < count; i++) {
+                double d = GeoMath.distance(scanLatitude, scanLongitude, latitudes[i], longitudes[i]);
+                spread += weights[i] * d * d;
+            }
+            accuracy = Math.max(MIN_SCAN_ACCURACY, Math.sqrt(spread / total));
+        }
+        double scanVariance = accuracy * accuracy;
+        count = 0;
+
+        if (located) {
+            double dt = Math.max(0, time - this.time) / 1000.0;
+            variance += DRIFT * DRIFT * dt * dt;
+            double d = GeoMath.distance(latitude, longitude, scanLatitude, scanLongitude);
+            if (d > RESTART_DISTANCE * Math.sqrt(variance + scanVariance))
+                located = false;
+        }
+        if (!located) {
+            latitude = scanLatitude;
+            longitude = scanLongitude;
+            variance = scanVariance;
+            located = true;
+        } else {
+            double gain = variance / (variance + scanVariance);
+            latitude += gain * (scanLatitude - latitude);
+            longitude += gain * (scanLongitude - longitude);
+            variance *= 1 - gain;
+        }
+        this.time = time;
+        return new Fix(latitude, longitude, (float) Math.max(MIN_ACCURACY, Math.sqrt(variance)),
+                Float.NaN, Float.NaN, true, time);
+    }
+
+    // reset forgets the estimate and any cells added.
+    public void reset() {
+        count = 0;
+        located = false;
+    }
+}
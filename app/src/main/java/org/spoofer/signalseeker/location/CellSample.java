@@ -0,0 +1,52 @@
+package org.spoofer.signalseeker.location;
+
+// CellSample is one cell heard by the phone at a moment of a track: its codes, its signal strength and whether
+// the phone was registered to it (the serving cell) or only heard it as a neighbour.
+public class CellSample {
+    final int mcc;
+    final int mnc;
+    final int lac;
+    final int cid;
+    final int dbm;
+    final boolean registered;
+    final long time; // milliseconds, on the same clock as the track's fixes
+
+
+    public CellSample(int mcc, int mnc, int lac, int cid, int dbm, boolean registered, long time) {
+        this.mcc = mcc;
+        this.mnc = mnc;
+        this.lac = lac;
+        this.cid = cid;
+        this.dbm = dbm;
+        this.registered = registered;
+        this.time = time;
+    }
+
+    public int getMcc() {
+        return mcc;
+    }
+
+    public int getMnc() {
+        return mnc;
+    }
+
+    public int getLac() {
+        return lac;
+    }
+
+    public int getCid() {
+        return cid;
+    }
+
+    public int getDbm() {
+        return dbm;
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    public long getTime() {
+        return time;
+    }
+}
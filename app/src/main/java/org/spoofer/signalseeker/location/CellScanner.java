@@ -0,0 +1,118 @@
+package org.spoofer.signalseeker.location;
+
+import android.content.Context;
+import android.os.Build;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.TelephonyManager;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+// CellScanner reads the cells the phone can hear from the TelephonyManager, as CellSamples timed on the elapsed
+// realtime clock like location fixes. The serving cell is marked registered.
+// Neighbour cells are often reported by their physical id alone, without an identity to look up, and are dropped.
+public class CellScanner {
+
+    private static final int UNAVAILABLE = Integer.MAX_VALUE;
+
+    private final TelephonyManager telephony;
+
+    public CellScanner(Context context) {
+        telephony = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+    }
+
+    // scan returns the cells heard with a known identity, serving cells first. Needs the fine location permission.
+    public List<CellSample> scan() throws SecurityException {
+        List<CellSample> samples = new ArrayList<>();
+        List<CellInfo> infos = telephony.getAllCellInfo();
+        if (infos == null)
+            return samples;
+        for (CellInfo info : infos) {
+            CellSample sample = toSample(info);
+            if (sample == null)
+                continue;
+            if (sample.isRegistered())
+                samples.add(0, sample);
+            else
+                samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static CellSample toSample(CellInfo info) {
+        long time = info.getTimeStamp() / 1000000;
+        if (info instanceof CellInfoLte) {
+            CellIdentityLte id = ((CellInfoLte) info).getCellIdentity();
+            String[] codes = codes(id);
+            return sample(codes[0], codes[1], id.getTac(), id.getCi(),
+                    ((CellInfoLte) info).getCellSignalStrength().getDbm(), info.isRegistered(), time);
+        }
+        if (info instanceof CellInfoWcdma) {
+            CellIdentityWcdma id = ((CellInfoWcdma) info).getCellIdentity();
+            String[] codes = codes(id);
+            return sample(codes[0], codes[1], id.getLac(), id.getCid(),
+                    ((CellInfoWcdma) info).getCellSignalStrength().getDbm(), info.isRegistered(), time);
+        }
+        if (info instanceof CellInfoGsm) {
+            CellIdentityGsm id = ((CellInfoGsm) info).getCellIdentity();
+            String[] codes = codes(id);
+            return sample(codes[0], codes[1], id.getLac(), id.getCid(),
+                    ((CellInfoGsm) info).getCellSignalStrength().getDbm(), info.isRegistered(), time);
+        }
+        return null;
+    }
+
+    // codes returns the mcc and mnc of an identity as strings, null when unknown. Before Android P they are only
+    // reported as ints, since deprecated, which are UNAVAILABLE when unknown.
+    @SuppressWarnings("deprecation")
+    private static String[] codes(CellIdentityLte id) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return new String[]{id.getMccString(), id.getMncString()};
+        return new String[]{code(id.getMcc()), code(id.getMnc())};
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String[] codes(CellIdentityWcdma id) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return new String[]{id.getMccString(), id.getMncString()};
+        return new String[]{code(id.getMcc()), code(id.getMnc())};
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String[] codes(CellIdentityGsm id) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return new String[]{id.getMccString(), id.getMncString()};
+        return new String[]{code(id.getMcc()), code(id.getMnc())};
+    }
+
+    private static String code(int code) {
+        return code == UNAVAILABLE ? null : Integer.toString(code);
+    }
+
+    private static CellSample sample(String mccCode, String mncCode, int lac, int cid, int dbm, boolean registered,
+                                     long time) {
+        int mcc = parse(mccCode);
+        int mnc = parse(mncCode);
+        if (mcc == UNAVAILABLE || mnc == UNAVAILABLE || lac == UNAVAILABLE || cid == UNAVAILABLE)
+            return null;
+        return new CellSample(mcc, mnc, lac, cid, dbm, registered, time);
+    }
+
+    // parse reads a code, UNAVAILABLE when it is unknown or not a number.
+    private static int parse(String code) {
+        if (code == null)
+            return UNAVAILABLE;
+        try {
+            return Integer.parseInt(code);
+        } catch (NumberFormatException e) {
+            return UNAVAILABLE;
+        }
+    }
+}
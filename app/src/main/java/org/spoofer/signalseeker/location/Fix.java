@@ -0,0 +1,62 @@
+package org.spoofer.signalseeker.location;
+
+// Fix is a location fix as the cell lookups use it. It holds no Android classes,
+// so fixes can be recorded to a track and replayed on the JVM.
+public class Fix {
+    final double latitude;
+    final double longitude;
+    final float accuracy; // metres, 0 when unknown
+    final float speed;    // metres per second, NaN when unknown
+    final float bearing;  // degrees clockwise from north, NaN when unknown
+    final boolean network;
+    final long time;      // milliseconds on the elapsed realtime clock, or since the start of a replayed track
+
+
+    public Fix(double latitude, double longitude, float accuracy, float speed, float bearing,
+               boolean network, long time) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+        this.network = network;
+        this.time = time;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public boolean hasSpeed() {
+        return !Float.isNaN(speed);
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public boolean hasBearing() {
+        return !Float.isNaN(bearing);
+    }
+
+    public float getBearing() {
+        return bearing;
+    }
+
+    // isNetwork is true for a fix from the network provider rather than GPS.
+    public boolean isNetwork() {
+        return network;
+    }
+
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,103 @@
+package org.spoofer.signalseeker.location;
+
+import org.spoofer.signalseeker.celldb.Cell;
+import org.spoofer.signalseeker.celldb.CellLookup;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// FixProcessor does the work for each location fix: finding its local cells through the cache and prefetching
+// the tiles ahead of GPS fixes. It also resolves the cells the phone hears to their database entries, and places the phone from
+// them through a CellPositioner without a fix at all. It holds no Android classes, so CellLocationService and the track replay run
+// the same code.
+public class FixProcessor {
+
+    // Update is the outcome of one fix.
+    public static class Update {
+        public final Fix fix;
+        public final boolean moved;     // the fix is the first or differs from the last
+        public final List<Cell> cells;  // null when no lookup is set, or it failed
+
+        Update(Fix fix, boolean moved, List<Cell> cells) {
+            this.fix = fix;
+            this.moved = moved;
+            this.cells = cells;
+        }
+    }
+
+    private final LocalCellCache cache = new LocalCellCache();
+    private final Prefetcher prefetcher = new Prefetcher(cache);
+    private final CellPositioner positioner = new CellPositioner();
+
+    private CellLookup lookup;
+    private Fix last;
+
+    // setLookup sets where cells are found, or null to stop. Changing the lookup empties the cache.
+    public synchronized void setLookup(CellLookup lookup) {
+        if (lookup == this.lookup)
+            return;
+        this.lookup = lookup;
+        prefetcher.setLookup(lookup);
+        prefetcher.reset();
+        cache.clear();
+        synchronized (positioner) {
+            positioner.reset();
+        }
+    }
+
+    public Update process(Fix fix) {
+        boolean moved;
+        List<Cell> cells = null;
+        synchronized (this) {
+            moved = last == null || GeoMath.distance(last.latitude, last.longitude, fix.latitude, fix.longitude) > 0;
+            last = fix;
+            if (lookup != null)
+                cells = cache.find(lookup, fix.latitude, fix.longitude);
+        }
+        // network fixes, the cell positioner's own among them, jump about too much to predict travel from
+        if (!fix.network)
+            prefetcher.onFix(fix.latitude, fix.longitude, fix.time);
+        return new Update(fix, moved, cells);
+    }
+
+    // resolve looks up the cells heard, returning those found in the order heard, or null when no lookup is set.
+    public List<Cell> resolve(List<CellSample> samples) {
+        CellLookup lookup;
+        synchronized (this) {
+            lookup = this.lookup;
+        }
+        if (lookup == null)
+            return null;
+        List<Cell> cells = new ArrayList<>(samples.size());
+        for (CellSample s : samples) {
+            Cell cell = lookup.findCell(s.mcc, s.mnc, s.lac, s.cid);
+            if (cell != null)
+                cells.add(cell);
+        }
+        return cells;
+    }
+
+    // locate places the phone from the cells heard in one scan, without GPS, returning the positioner's refined
+    // network fix, or null when no cell is found.
+    public Fix locate(List<CellSample> samples, long time) {
+        CellLookup lookup;
+        synchronized (this) {
+            lookup = this.lookup;
+        }
+        if (lookup == null)
+            return null;
+        synchronized (positioner) {
+            for (CellSample s : samples) {
+                Cell cell = lookup.findCell(s.mcc, s.mnc, s.lac, s.cid);
+                if (cell != null)
+                    positioner.add(cell.getLatitude(), cell.getLongitude(), s.dbm, s.registered);
+            }
+            return positioner.update(time);
+        }
+    }
+
+    public void shutdown() {
+        prefetcher.shutdown();
+    }
+}
@@ -0,0 +1,173 @@
+package org.spoofer.signalseeker.location;
+
+import org.spoofer.signalseeker.celldb.Cell;
+import org.spoofer.signalseeker.celldb.CellLookup;
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.GeoHash;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// LocalCellCache holds the local cells around recent and predicted positions, by geohash tile.
+// Each tile keeps the CANDIDATES cells nearest its centre, so it holds every cell closer to the centre than the
+// farthest of them, its coverage. The cells nearest a fix inside the tile are picked from them with the distances
+// measured from the fix. Those are the true nearest cells when they all lie within the farthest picked cell's
+// distance plus the fix's distance from the centre, as every cell that could be nearer is then inside the coverage.
+// A fix too near the edge of its tile for that, or in a tile of sparse cells, is looked up directly instead.
+// Tiles are either loaded by a lookup that missed or prefetched ahead of travel. Memory is capped at MAX_CELLS
+// cells over all tiles, evicting the least recently used tiles first.
+public class LocalCellCache {
+
+    private static final int TILE_BITS = 30;   // ~600m square
+    private static final int LOCAL_CELLS = 25;
+    private static final int CANDIDATES = LOCAL_CELLS * 4;
+    private static final int MAX_CELLS = 4096; // roughly 1MB of cells
+
+    private static class Tile {
+        final Cell[] cells;
+        final double latitude;  // of the centre the cells were found around
+        final double longitude;
+        final double coverage;  // metres from the centre within which every cell is held
+        final boolean prefetched;
+        boolean used;
+
+        Tile(Cell[] cells, double latitude, double longitude, boolean prefetched) {
+            this.cells = cells;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.prefetched = prefetched;
+            double farthest = 0;
+            for (Cell c : cells) {
+                farthest = Math.max(farthest, GeoMath.distance(latitude, longitude, c.getLatitude(), c.getLongitude()));
+            }
+            this.coverage = farthest;
+        }
+    }
+
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private int cellCount;
+
+    // find returns the local cells nearest the coordinates, loading the tile holding them if it is not cached.
+    // Returns null when the lookup fails.
+    public List<Cell> find(CellLookup lookup, double latitude, double longitude) {
+        long key = GeoHash.encode(latitude, longitude, TILE_BITS);
+        Tile tile;
+        synchronized (this) {
+            tile = tiles.get(key);
+            if (tile != null) {
+                Metrics.CELL_CACHE_HITS.inc();
+                if (tile.prefetched && !tile.used)
+                    Metrics.PREFETCH_HITS.inc();
+                tile.used = true;
+            }
+        }
+        if (tile == null) {
+            Metrics.CELL_CACHE_MISSES.inc();
+            tile = load(lookup, key, false);
+            if (tile == null)
+                return null;
+            tile.used = true;
+            put(key, tile);
+        }
+        updateHitRate();
+        GeoIndex.Nearest nearest = nearest(tile.cells, latitude, longitude);
+        if (!covers(tile, nearest, latitude, longitude)) {
+            Metrics.CELL_CACHE_UNCOVERED.inc();
+            return lookup.findLocalCells(latitude, longitude, LOCAL_CELLS);
+        }
+        return cells(tile.cells, nearest);
+    }
+
+    // prefetch loads the tile holding the coordinates unless it is already cached, returning true if it was loaded.
+    public boolean prefetch(CellLookup lookup, double latitude, double longitude) {
+        long key = GeoHash.encode(latitude, longitude, TILE_BITS);
+        synchronized (this) {
+            if (tiles.containsKey(key))
+                return false;
+        }
+        Tile tile = load(lookup, key, true);
+        if (tile == null)
+            return false;
+        Metrics.PREFETCH_TILES.inc();
+        put(key, tile);
+        return true;
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        cellCount = 0;
+        Metrics.CELL_CACHE_CELLS.set(0);
+    }
+
+    private static Tile load(CellLookup lookup, long key, boolean prefetched) {
+        double latitude = GeoHash.latitude(key, TILE_BITS);
+        double longitude = GeoHash.longitude(key, TILE_BITS);
+        List<Cell> cells = lookup.findLocalCells(latitude, longitude, CANDIDATES);
+        if (cells == null)
+            return null;
+        return new Tile(cells.toArray(new Cell[0]), latitude, longitude, prefetched);
+    }
+
+    // covers checks the cells picked for the fix are its true nearest: any nearer cell is within the farthest
+    // picked one's distance of the fix, so within that plus the fix's distance of the centre. Cells at exactly the
+    // coverage may have been left out for others as far, so that must be strictly inside it.
+    private static boolean covers(Tile tile, GeoIndex.Nearest nearest, double latitude, double longitude) {
+        if (nearest.size() < LOCAL_CELLS)
+            return false;
+        double reach = nearest.distance(nearest.size() - 1)
+                + GeoMath.distance(tile.latitude, tile.longitude, latitude, longitude);
+        return reach < tile.coverage;
+    }
+
+    private synchronized void put(long key, Tile tile) {
+        Tile old = tiles.put(key, tile);
+        if (old != null)
+            cellCount -= old.cells.length;
+        cellCount += tile.cells.length;
+
+        Iterator<Map.Entry<Long, Tile>> it = tiles.entrySet().iterator();
+        while (cellCount > MAX_CELLS && it.hasNext()) {
+            Tile eldest = it.next().getValue();
+            if (eldest == tile)
+                continue;
+            if (eldest.prefetched && !eldest.used)
+                Metrics.PREFETCH_WASTED.inc();
+            cellCount -= eldest.cells.length;
+            it.remove();
+        }
+        Metrics.CELL_CACHE_CELLS.set(cellCount);
+    }
+
+    private static void updateHitRate() {
+        long lookups = Metrics.CELL_CACHE_HITS.get() + Metrics.CELL_CACHE_MISSES.get();
+        if (lookups > 0)
+            Metrics.PREFETCH_HIT_RATE.set(Metrics.PREFETCH_HITS.get() * 100 / lookups);
+    }
+
+    // nearest picks the LOCAL_CELLS candidates nearest the coordinates.
+    private static GeoIndex.Nearest nearest(Cell[] candidates, double latitude, double longitude) {
+        GeoIndex.Nearest nearest = new GeoIndex.Nearest(LOCAL_CELLS);
+        for (int i = 0; i < candidates.length; i++) {
+            nearest.offer(i, GeoMath.distance(latitude, longitude,
+                    candidates[i].getLatitude(), candidates[i].getLongitude()));
+        }
+        return nearest;
+    }
+
+    // cells returns the picked candidates, with their distances from the fix in km.
+    private static List<Cell> cells(Cell[] candidates, GeoIndex.Nearest nearest) {
+        List<Cell> cells = new ArrayList<>(nearest.size());
+        for (int i = 0; i < nearest.size(); i++) {
+            Cell c = candidates[nearest.position(i)];
+            cells.add(new Cell(c.getCellID(), c.getMobileCountryCode(), c.getMobileNetworkCode(),
+                    c.getLocationAreaCode(), c.getLatitude(), c.getLongitude(),
+                    Math.round(nearest.distance(i) / 1000), c.getLastUpdate()));
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,114 @@
+package org.spoofer.signalseeker.location;
+
+import org.spoofer.signalseeker.celldb.CellLookup;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Prefetcher loads the local cells ahead of a moving device into the LocalCellCache before it gets there.
+// The speed and heading are taken from the displacement across the last HISTORY fixes, which is steadier than
+// the speed and bearing reported with any single fix. While moving faster than MIN_SPEED, the tiles at each
+// LOOKAHEAD time ahead are loaded on a minimum priority thread.
+// Only the latest prediction is kept waiting, so a slow lookup never builds a backlog of stale work.
+public class Prefetcher {
+
+    private static final int HISTORY = 5;
+    private static final double MIN_SPEED = 2;       // metres per second, below which nothing is prefetched
+    private static final long MAX_HISTORY_AGE = 60000; // milliseconds spanned by the fixes used
+    private static final long[] LOOKAHEAD = {10000, 20000, 30000}; // milliseconds ahead
+
+    private final LocalCellCache cache;
+    private final ThreadPoolExecutor executor;
+    private volatile CellLookup lookup;
+
+    // fix history, a ring buffer guarded by this
+    private final double[] latitudes = new double[HISTORY];
+    private final double[] longitudes = new double[HISTORY];
+    private final long[] times = new long[HISTORY];
+    private int count;
+    private int next;
+
+    public Prefetcher(LocalCellCache cache) {
+        this.cache = cache;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "cell-prefetch");
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    public void setLookup(CellLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    // onFix records a fix, time in milliseconds, and when moving queues the tiles ahead of it to be loaded.
+    public synchronized void onFix(double latitude, double longitude, long time) {
+        int last = (next + HISTORY - 1) % HISTORY;
+        if (count > 0 && time <= times[last])
+            return;
+        latitudes[next] = latitude;
+        longitudes[next] = longitude;
+        times[next] = time;
+        next = (next + 1) % HISTORY;
+        if (count < HISTORY)
+            count++;
+
+        // the oldest fix within MAX_HISTORY_AGE of this one
+        int oldest = -1;
+        for (int i = count; i > 1; i--) {
+            int p = (next + HISTORY - i) % HISTORY;
+            if (time - times[p] <= MAX_HISTORY_AGE) {
+                oldest = p;
+                break;
+            }
+        }
+        final CellLookup current = lookup;
+        if (oldest < 0 || current == null)
+            return;
+
+        double distance = GeoMath.distance(latitudes[oldest], longitudes[oldest], latitude, longitude);
+        double speed = distance * 1000 / (time - times[oldest]);
+        if (speed < MIN_SPEED)
+            return;
+        double bearing = GeoMath.bearing(latitudes[oldest], longitudes[oldest], latitude, longitude);
+
+        final double[] ahead = new double[LOOKAHEAD.length * 2];
+        double[] point = new double[2];
+        for (int i = 0; i < LOOKAHEAD.length; i++) {
+            GeoMath.destination(latitude, longitude, bearing, speed * LOOKAHEAD[i] / 1000, point);
+            ahead[i * 2] = point[0];
+            ahead[i * 2 + 1] = point[1];
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ahead.length; i += 2) {
+                    if (lookup != current)
+                        return;
+                    cache.prefetch(current, ahead[i], ahead[i + 1]);
+                }
+            }
+        });
+    }
+
+    // reset forgets the fix history, so motion is not inferred across a gap or a jump.
+    public synchronized void reset() {
+        count = 0;
+        next = 0;
+    }
+
+    public void shutdown() {
+        lookup = null;
+        executor.shutdownNow();
+    }
+}
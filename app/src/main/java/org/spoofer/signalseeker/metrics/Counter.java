@@ -0,0 +1,24 @@
+package org.spoofer.signalseeker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counter is a lock free running total.
+public class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    public void add(long n) {
+        value.addAndGet(n);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    void reset() {
+        value.set(0);
+    }
+}
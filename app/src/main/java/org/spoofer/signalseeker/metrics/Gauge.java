@@ -0,0 +1,20 @@
+package org.spoofer.signalseeker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Gauge holds the last value set, such as the throughput of the most recent import.
+public class Gauge {
+    private final AtomicLong value = new AtomicLong();
+
+    public void set(long v) {
+        value.set(v);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    void reset() {
+        value.set(0);
+    }
+}
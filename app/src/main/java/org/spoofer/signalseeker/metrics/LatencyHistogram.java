@@ -0,0 +1,104 @@
+package org.spoofer.signalseeker.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// LatencyHistogram counts durations, in nanoseconds, into a fixed set of log-linear buckets.
+// Each power of two is split into SUB_BUCKETS equal buckets, so any recorded value is reported within ~3%,
+// in the manner of HdrHistogram. Recording is a few atomic adds and never allocates.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    // recordSince records the time elapsed since the given System.nanoTime() value.
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long mean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    // percentile returns the upper bound of the bucket holding the given percentile, 0 to 100.
+    public long percentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    String summary() {
+        return String.format("count=%d mean=%s p50=%s p90=%s p99=%s max=%s",
+                count(), format(mean()), format(percentile(50)), format(percentile(90)),
+                format(percentile(99)), format(max()));
+    }
+
+    private static int index(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((v >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static String format(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(10))
+            return nanos + "ns";
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(10))
+            return (nanos / 1000) + "us";
+        return (nanos / 1000000) + "ms";
+    }
+}
@@ -0,0 +1,135 @@
+package org.spoofer.signalseeker.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Metrics is the registry of the app's counters, gauges and latency histograms.
+// Metrics are created on first use by name and callers keep the returned instance, so recording a value
+// never touches the registry. The registry is only read to show or dump a report.
+public final class Metrics {
+
+    // declared ahead of the metrics below, which register themselves as they are initialised
+    private static final ConcurrentSkipListMap<String, Object> registry = new ConcurrentSkipListMap<>();
+
+    // cell lookups
+    public static final LatencyHistogram QUERY_LATENCY = histogram("cells.query.latency");
+    public static final Counter QUERY_ROWS_SCANNED = counter("cells.query.rows_scanned"); // rows read or index points
+    public static final LatencyHistogram CORRIDOR_LATENCY = histogram("cells.corridor.latency");
+    public static final Counter CELL_ID_LOOKUPS = counter("cells.id.lookups");
+    public static final Counter CELL_ID_MATCHES = counter("cells.id.matches");
+    public static final LatencyHistogram BATCH_LATENCY = histogram("cells.batch.latency");
+    public static final Counter BATCH_POINTS = counter("cells.batch.points");
+    public static final Gauge BATCH_POINTS_PER_SECOND = gauge("cells.batch.points_per_second");
+
+    // import of the derived cell tables
+    public static final LatencyHistogram IMPORT_TIME = histogram("cells.import.time");
+    public static final Counter IMPORT_CELLS = counter("cells.import.cells");
+    public static final Gauge IMPORT_CELLS_PER_SECOND = gauge("cells.import.cells_per_second");
+    public static final LatencyHistogram IMPORT_TAIL_TIME = histogram("cells.import.tail_time"); // last byte to ready
+
+    // snapshot of the cell spatial index
+    public static final LatencyHistogram INDEX_OPEN_TIME = histogram("cells.index.open_time");
+    public static final LatencyHistogram INDEX_BUILD_TIME = histogram("cells.index.build_time");
+
+    // connections to the cell database
+    public static final LatencyHistogram POOL_WAIT = histogram("cells.pool.wait");
+    public static final Gauge POOL_READERS = gauge("cells.pool.readers");
+
+    // rebuilds of the structures derived from the cell database
+    public static final LatencyHistogram MIGRATION_TIME = histogram("cells.migration.time");
+    public static final Counter MIGRATION_REBUILDS = counter("cells.migration.rebuilds");
+
+    // local cells cached by tile, and the tiles prefetched ahead of travel
+    public static final Counter CELL_CACHE_HITS = counter("cells.cache.hits");
+    public static final Counter CELL_CACHE_MISSES = counter("cells.cache.misses");
+    public static final Counter CELL_CACHE_UNCOVERED = counter("cells.cache.uncovered"); // hits looked up again
+    public static final Gauge CELL_CACHE_CELLS = gauge("cells.cache.cells");
+    public static final Counter PREFETCH_TILES = counter("cells.prefetch.tiles");
+    public static final Counter PREFETCH_HITS = counter("cells.prefetch.hits");
+    public static final Counter PREFETCH_WASTED = counter("cells.prefetch.wasted");
+    public static final Gauge PREFETCH_HIT_RATE = gauge("cells.prefetch.hit_rate"); // percent of lookups
+
+    // location fix to listener dispatch
+    public static final LatencyHistogram DISPATCH_LATENCY = histogram("location.dispatch.latency");
+    public static final LatencyHistogram FIX_TO_UI_LATENCY = histogram("location.fix_to_ui.latency");
+
+    // reverse geocoding
+    public static final Counter GEOCODE_CACHE_HITS = counter("geocode.cache.hits");
+    public static final Counter GEOCODE_CACHE_MISSES = counter("geocode.cache.misses");
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return register(name, new Counter());
+    }
+
+    public static Gauge gauge(String name) {
+        return register(name, new Gauge());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return register(name, new LatencyHistogram());
+    }
+
+    // report returns every metric as a line of text, ordered by name.
+    public static String report() {
+        StringWriter s = new StringWriter();
+        write(s);
+        return s.toString();
+    }
+
+    public static void write(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        for (Map.Entry<String, Object> e : registry.entrySet()) {
+            Object m = e.getValue();
+            String value;
+            if (m instanceof Counter)
+                value = Long.toString(((Counter) m).get());
+            else if (m instanceof Gauge)
+                value = Long.toString(((Gauge) m).get());
+            else
+                value = ((LatencyHistogram) m).summary();
+            out.println(e.getKey() + " " + value);
+        }
+        out.flush();
+    }
+
+    // dump appends a timestamped report to the given file, so runs of different builds can be compared.
+    public static void dump(File file) throws IOException {
+        try (FileWriter w = new FileWriter(file, true)) {
+            w.write("# " + new Date() + "\n");
+            write(w);
+            w.write("\n");
+        }
+    }
+
+    public static void reset() {
+        for (Object m : registry.values()) {
+            if (m instanceof Counter)
+                ((Counter) m).reset();
+            else if (m instanceof Gauge)
+                ((Gauge) m).reset();
+            else
+                ((LatencyHistogram) m).reset();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T register(String name, T metric) {
+        Object existing = registry.putIfAbsent(name, metric);
+        if (existing == null)
+            return metric;
+        if (existing.getClass() != metric.getClass())
+            throw new IllegalArgumentException("metric " + name + " is already registered as a " +
+                    existing.getClass().getSimpleName());
+        return (T) existing;
+    }
+}
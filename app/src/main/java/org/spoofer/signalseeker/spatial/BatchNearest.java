@@ -0,0 +1,222 @@
+package org.spoofer.signalseeker.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// BatchNearest finds the nearest points of a GeoIndex to many query points at once.
+// The queries are sorted by geohash, the same Z order curve the index is sorted by, so consecutive queries fall
+// in the same or adjacent tiles and the index is walked forward through the batch rather than jumped around.
+// Each run of RUN_SIZE sorted queries is searched as its own task, and within a run the tile ranges found for one
+// query are kept for the next, so queries sharing a tile skip the binary searches altogether. While the ranges are
+// small their filtered coordinates are copied out of the index too, and each query reads the copy.
+// A point further in latitude alone than the search radius, or than the furthest of a full result, cannot be
+// nearer on the sphere, so most points are passed over without working out their great circle distance.
+// Searches widen in the same steps as GeoIndex.nearest and find exactly what it finds, point by point.
+public final class BatchNearest {
+
+    private static final int RUN_SIZE = 1024;    // queries searched per task
+    private static final int COPY_LIMIT = 16384; // most points of a tile's ranges copied for reuse
+    private static final double BOUND_MARGIN = 1e-9; // relative, so rounding never passes over a nearer point
+
+    private BatchNearest() {
+    }
+
+    // Result holds the points found for every query in columns, limit slots per query in query order.
+    public static class Result {
+        private final int limit;
+        private final int[] counts;
+        private final int[] positions;
+        private final float[] distances;
+
+        Result(int queries, int limit) {
+            this.limit = limit;
+            counts = new int[queries];
+            positions = new int[queries * limit];
+            distances = new float[queries * limit];
+        }
+
+        public int size() {
+            return counts.length;
+        }
+
+        public int limit() {
+            return limit;
+        }
+
+        // count returns the number of points found for the query.
+        public int count(int query) {
+            return counts[query];
+        }
+
+        // position returns the index position of the query's i'th nearest point.
+        public int position(int query, int i) {
+            return positions[query * limit + i];
+        }
+
+        // distance returns the distance in metres to the query's i'th nearest point.
+        public double distance(int query, int i) {
+            return distances[query * limit + i];
+        }
+    }
+
+    // search returns up to limit points within maxDistance metres of each query, nearest first. When a filter
+    // is given only the points it accepts are considered.
+    public static Result search(final GeoIndex index, final double[] latitudes, final double[] longitudes,
+                                final int limit, final double maxDistance, final GeoIndex.Filter filter,
+                                ForkJoinPool pool) {
+        final int n = latitudes.length;
+        final Result result = new Result(n, limit);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = GeoHash.encode(latitudes[i], longitudes[i]);
+        }
+        final int[] order = KeySort.sort(keys, pool);
+
+        final List<ForkJoinTask<?>> runs = new ArrayList<>();
+        for (int from = 0; from < n; from += RUN_SIZE) {
+            final int start = from;
+            final int end = Math.min(n, from + RUN_SIZE);
+            runs.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    Walker walker = new Walker(index, filter);
+                    GeoIndex.Nearest nearest = new GeoIndex.Nearest(limit);
+                    for (int k = start; k < end; k++) {
+                        int q = order[k];
+                        walker.nearest(latitudes[q], longitudes[q], maxDistance, nearest);
+                        result.counts[q] = nearest.size();
+                        for (int i = 0; i < nearest.size(); i++) {
+                            result.positions[q * limit + i] = nearest.position(i);
+                            result.distances[q * limit + i] = (float) nearest.distance(i);
+                        }
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(runs);
+            }
+        });
+        return result;
+    }
+
+    // Walker searches one run of sorted queries, remembering the tile ranges of each search radius.
+    private static class Walker {
+        private final GeoIndex index;
+        private final GeoIndex.Filter filter;
+        private final List<Ranges> levels = new ArrayList<>();
+
+        Walker(GeoIndex index, GeoIndex.Filter filter) {
+            this.index = index;
+            this.filter = filter;
+        }
+
+        // nearest is GeoIndex.nearest, with the tile ranges of each widening step reused from the last query.
+        void nearest(double latitude, double longitude, double maxDistance, GeoIndex.Nearest result) {
+            double radius = Math.min(GeoIndex.START_RADIUS, maxDistance);
+            for (int level = 0; ; level++) {
+                result.clear();
+                int bits = GeoHash.bitsForRadius(radius, latitude);
+                Ranges ranges = ranges(level, GeoHash.encode(latitude, longitude, bits), bits);
+                double bound = radius;
+                if (ranges.copied >= 0) {
+                    for (int k = 0; k < ranges.copied; k++) {
+                        if (Math.abs(latitude - ranges.latitudes[k]) * GeoMath.METRES_PER_DEGREE > bound)
+                            continue;
+                        bound = offer(latitude, longitude, ranges.positions[k],
+                                ranges.latitudes[k], ranges.longitudes[k], radius, result);
+                    }
+                } else {
+                    for (int t = 0; t < ranges.count; t++) {
+                        for (int i = ranges.starts[t]; i < ranges.ends[t]; i++) {
+                            double lat = index.latitude(i);
+                            if (Math.abs(latitude - lat) * GeoMath.METRES_PER_DEGREE > bound)
+                                continue;
+                            if (filter != null && !filter.accept(i))
+                                continue;
+                            bound = offer(latitude, longitude, i, lat, index.longitude(i), radius, result);
+                        }
+                    }
+                }
+                if (result.isFull() || radius >= maxDistance)
+                    return;
+                radius = Math.min(radius * GeoIndex.RADIUS_GROWTH, maxDistance);
+            }
+        }
+
+        // offer offers the point if it is within the radius, returning the distance beyond which no later point
+        // can be offered.
+        private static double offer(double latitude, double longitude, int position, double lat, double lon,
+                                    double radius, GeoIndex.Nearest result) {
+            double d = GeoMath.distance(latitude, longitude, lat, lon);
+            if (d <= radius)
+                result.offer(position, d);
+            double bound = result.isFull() ? Math.min(radius, result.distance(result.size() - 1)) : radius;
+            return bound * (1 + BOUND_MARGIN);
+        }
+
+        private Ranges ranges(int level, long tile, int bits) {
+            while (levels.size() <= level) {
+                levels.add(new Ranges());
+            }
+            Ranges ranges = levels.get(level);
+            if (ranges.count == 0 || ranges.tile != tile || ranges.bits != bits) {
+                ranges.tile = tile;
+                ranges.bits = bits;
+                ranges.count = GeoIndex.neighbourhood(tile, bits, ranges.tiles);
+                int total = 0;
+                for (int t = 0; t < ranges.count; t++) {
+                    ranges.starts[t] = index.tileStart(ranges.tiles[t], bits);
+                    ranges.ends[t] = index.tileEnd(ranges.tiles[t], bits);
+                    total += ranges.ends[t] - ranges.starts[t];
+                }
+                ranges.copy(index, filter, total);
+            }
+            return ranges;
+        }
+    }
+
+    // Ranges holds the index ranges of a tile and its neighbours.
+    private static class Ranges {
+        final long[] tiles = new long[9];
+        final int[] starts = new int[9];
+        final int[] ends = new int[9];
+        long tile;
+        int bits;
+        int count;
+
+        // the points of the ranges accepted by the filter, or -1 when there are too many to copy
+        int copied = -1;
+        int[] positions = new int[0];
+        double[] latitudes = new double[0];
+        double[] longitudes = new double[0];
+
+        void copy(GeoIndex index, GeoIndex.Filter filter, int total) {
+            if (total > COPY_LIMIT) {
+                copied = -1;
+                return;
+            }
+            if (positions.length < total) {
+                positions = new int[total];
+                latitudes = new double[total];
+                longitudes = new double[total];
+            }
+            copied = 0;
+            for (int t = 0; t < count; t++) {
+                for (int i = starts[t]; i < ends[t]; i++) {
+                    if (filter != null && !filter.accept(i))
+                        continue;
+                    positions[copied] = i;
+                    latitudes[copied] = index.latitude(i);
+                    longitudes[copied] = index.longitude(i);
+                    copied++;
+                }
+            }
+        }
+    }
+}
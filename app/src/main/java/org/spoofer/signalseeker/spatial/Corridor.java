@@ -0,0 +1,152 @@
+package org.spoofer.signalseeker.spatial;
+
+import java.util.concurrent.ForkJoinPool;
+
+// Corridor finds the points of a GeoIndex near each segment of a route in a single sweep over the index.
+// Each segment is sampled every maxDistance metres and the tiles around every sample, at a tile size of at least
+// twice maxDistance, are listed against the segment. The tiles of the whole route are then sorted, so the index is
+// read once in key order, and each point read is measured against only the segments listed for its tile.
+// Distances to a segment are measured on a flat projection about the segment's mid latitude, which is close
+// enough for the segment lengths of a route. Routes crossing the antimeridian are not supported.
+public final class Corridor {
+
+    private Corridor() {
+    }
+
+    // search returns, for each segment of the route from point i to point i + 1, up to limit points within
+    // maxDistance metres of the segment, nearest first. When a filter is given only the points it accepts are
+    // considered. A segment with no points near it is a gap in coverage.
+    public static GeoIndex.Nearest[] search(GeoIndex index, double[] latitudes, double[] longitudes,
+                                            double maxDistance, int limit, GeoIndex.Filter filter) {
+        int segments = Math.max(0, latitudes.length - 1);
+        GeoIndex.Nearest[] result = new GeoIndex.Nearest[segments];
+        for (int s = 0; s < segments; s++) {
+            result[s] = new GeoIndex.Nearest(limit);
+        }
+        if (segments == 0)
+            return result;
+
+        double maxLatitude = 0;
+        for (double lat : latitudes) {
+            maxLatitude = Math.max(maxLatitude, Math.abs(lat));
+        }
+        int bits = GeoHash.bitsForRadius(maxDistance * 2, maxLatitude);
+
+        // list the tiles near each segment, as (tile, segment) pairs
+        TileList list = new TileList();
+        long[] around = new long[9];
+        for (int s = 0; s < segments; s++) {
+            double length = GeoMath.distance(latitudes[s], longitudes[s], latitudes[s + 1], longitudes[s + 1]);
+            int samples = (int) Math.ceil(length / maxDistance) + 1;
+            long previous = -1;
+            for (int i = 0; i < samples; i++) {
+                double f = samples == 1 ? 0 : (double) i / (samples - 1);
+                long tile = GeoHash.encode(latitudes[s] + (latitudes[s + 1] - latitudes[s]) * f,
+                        longitudes[s] + (longitudes[s + 1] - longitudes[s]) * f, bits);
+                if (tile == previous)
+                    continue;
+                previous = tile;
+                int n = GeoIndex.neighbourhood(tile, bits, around);
+                for (int t = 0; t < n; t++) {
+                    list.add(around[t], s);
+                }
+            }
+        }
+
+        // the longitude scale of each segment's flat projection
+        double[] scale = new double[segments];
+        for (int s = 0; s < segments; s++) {
+            scale[s] = Math.cos(Math.toRadians((latitudes[s] + latitudes[s + 1]) / 2));
+        }
+
+        // sweep the tiles in key order, skipping a segment listed more than once for the same tile
+        long[] tiles = list.tiles();
+        int[] order = KeySort.sort(tiles, ForkJoinPool.commonPool());
+        int[] lastTile = new int[segments];
+        for (int s = 0; s < segments; s++) {
+            lastTile[s] = -1;
+        }
+        int[] tileSegments = new int[segments];
+        int from = 0;
+        int group = 0;
+        while (from < tiles.length) {
+            int to = from + 1;
+            while (to < tiles.length && tiles[to] == tiles[from]) {
+                to++;
+            }
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int s = list.segment(order[i]);
+                if (lastTile[s] != group) {
+                    lastTile[s] = group;
+                    tileSegments[count++] = s;
+                }
+            }
+
+            int end = index.tileEnd(tiles[from], bits);
+            for (int p = index.tileStart(tiles[from], bits); p < end; p++) {
+                if (filter != null && !filter.accept(p))
+                    continue;
+                double lat = index.latitude(p);
+                double lon = index.longitude(p);
+                for (int i = 0; i < count; i++) {
+                    int s = tileSegments[i];
+                    double d = segmentDistance(lat, lon, latitudes[s], longitudes[s],
+                            latitudes[s + 1], longitudes[s + 1], scale[s]);
+                    if (d <= maxDistance)
+                        result[s].offer(p, d);
+                }
+            }
+            from = to;
+            group++;
+        }
+        return result;
+    }
+
+    // segmentDistance returns the distance in metres from a point to the segment, with the longitudes scaled by
+    // the cosine of the segment's latitude.
+    static double segmentDistance(double lat, double lon, double lat1, double lon1, double lat2, double lon2,
+                                  double scale) {
+        double x = (lon - lon1) * scale;
+        double y = lat - lat1;
+        double dx = (lon2 - lon1) * scale;
+        double dy = lat2 - lat1;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, (x * dx + y * dy) / length));
+        double px = x - t * dx;
+        double py = y - t * dy;
+        return Math.sqrt(px * px + py * py) * GeoMath.METRES_PER_DEGREE;
+    }
+
+    // TileList is a growable list of (tile, segment) pairs.
+    private static class TileList {
+        private long[] tiles = new long[256];
+        private int[] segments = new int[256];
+        private int size;
+
+        void add(long tile, int segment) {
+            if (size == tiles.length) {
+                long[] t = new long[size * 2];
+                int[] s = new int[size * 2];
+                System.arraycopy(tiles, 0, t, 0, size);
+                System.arraycopy(segments, 0, s, 0, size);
+                tiles = t;
+                segments = s;
+            }
+            tiles[size] = tile;
+            segments[size] = segment;
+            size++;
+        }
+
+        int segment(int i) {
+            return segments[i];
+        }
+
+        // tiles returns a copy of the tiles listed, in the order added.
+        long[] tiles() {
+            long[] t = new long[size];
+            System.arraycopy(tiles, 0, t, 0, size);
+            return t;
+        }
+    }
+}
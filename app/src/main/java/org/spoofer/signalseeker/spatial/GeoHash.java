@@ -0,0 +1,131 @@
+package org.spoofer.signalseeker.spatial;
+
+// GeoHash encodes a coordinate as a binary geohash held in a long.
+// Bits alternate longitude then latitude from the most significant end, the same ordering as a text geohash,
+// so keys sharing a prefix lie in the same tile and sorting by key keeps nearby points close together.
+// A full key holds MAX_BITS bits, a key of fewer bits is the full key shifted right and names a larger tile.
+public final class GeoHash {
+
+    public static final int MAX_BITS = 52;
+    private static final int AXIS_BITS = MAX_BITS / 2;
+    private static final double AXIS_CELLS = 1L << AXIS_BITS;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    public static long encode(double latitude, double longitude) {
+        long lat = quantise((latitude + 90.0) / 180.0);
+        long lon = quantise((longitude + 180.0) / 360.0);
+        return (spread(lon) << 1) | spread(lat);
+    }
+
+    public static long encode(double latitude, double longitude, int bits) {
+        return prefix(encode(latitude, longitude), bits);
+    }
+
+    // prefix reduces a full key to the tile of the given number of bits containing it.
+    public static long prefix(long key, int bits) {
+        return key >>> (MAX_BITS - bits);
+    }
+
+    // first returns the lowest full key inside the tile.
+    public static long first(long tile, int bits) {
+        return tile << (MAX_BITS - bits);
+    }
+
+    // last returns the highest full key inside the tile.
+    public static long last(long tile, int bits) {
+        return ((tile + 1) << (MAX_BITS - bits)) - 1;
+    }
+
+    public static double tileHeight(int bits) {
+        return 180.0 / (1L << (bits / 2));
+    }
+
+    public static double tileWidth(int bits) {
+        return 360.0 / (1L << ((bits + 1) / 2));
+    }
+
+    // latitude returns the centre latitude of the tile.
+    public static double latitude(long tile, int bits) {
+        long full = first(tile, bits);
+        double lat = compact(full) / AXIS_CELLS * 180.0 - 90.0;
+        return lat + tileHeight(bits) / 2;
+    }
+
+    // longitude returns the centre longitude of the tile.
+    public static double longitude(long tile, int bits) {
+        long full = first(tile, bits);
+        double lon = compact(full >>> 1) / AXIS_CELLS * 360.0 - 180.0;
+        return lon + tileWidth(bits) / 2;
+    }
+
+    // neighbour returns the tile offset by the given number of tiles north and east.
+    // Longitude wraps around the antimeridian, latitude is clamped at the poles.
+    public static long neighbour(long tile, int bits, int north, int east) {
+        double lat = latitude(tile, bits) + north * tileHeight(bits);
+        double lon = longitude(tile, bits) + east * tileWidth(bits);
+        lat = Math.max(-90.0, Math.min(90.0, lat));
+        if (lon >= 180.0)
+            lon -= 360.0;
+        else if (lon < -180.0)
+            lon += 360.0;
+        return encode(lat, lon, bits);
+    }
+
+    // bitsForRadius returns the largest number of bits whose tile is at least the given size in metres,
+    // so any point within that distance of a tile lies in the tile or one of its eight neighbours.
+    public static int bitsForRadius(double metres, double latitude) {
+        double latDegrees = metres / GeoMath.METRES_PER_DEGREE;
+        // longitude degrees are measured at the pole-ward edge of the radius, where they are widest
+        double edge = Math.min(89.0, Math.abs(latitude) + latDegrees);
+        double lonDegrees = latDegrees / Math.cos(Math.toRadians(edge));
+        int bits = MAX_BITS;
+        while (bits > 2 && (tileHeight(bits) < latDegrees || tileWidth(bits) < lonDegrees)) {
+            bits--;
+        }
+        return bits;
+    }
+
+    // toString returns the text geohash of the tile. Bits beyond the last whole character are dropped.
+    public static String toString(long tile, int bits) {
+        int chars = bits / 5;
+        char[] s = new char[chars];
+        for (int i = 0; i < chars; i++) {
+            int shift = bits - (i + 1) * 5;
+            s[i] = BASE32[(int) ((tile >>> shift) & 0x1f)];
+        }
+        return new String(s);
+    }
+
+    private static long quantise(double fraction) {
+        long v = (long) (fraction * AXIS_CELLS);
+        if (v < 0)
+            return 0;
+        return Math.min(v, (1L << AXIS_BITS) - 1);
+    }
+
+    // spread moves the low 26 bits of v into the even bit positions.
+    private static long spread(long v) {
+        v &= 0x3ffffffL;
+        v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+        v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    // compact is the inverse of spread, gathering the even bit positions.
+    private static long compact(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+        v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+        return v;
+    }
+}
@@ -0,0 +1,157 @@
+package org.spoofer.signalseeker.spatial;
+
+// GeoIndex is a list of points sorted by their full GeoHash key.
+// Every tile is a contiguous run of the list, so the points of a tile are found by two binary searches.
+// Nearest queries scan the tile containing the query and its eight neighbours, at a tile size no smaller than
+// the search radius, then widen the radius until enough points are found.
+// Subclasses supply the storage, which is usually a mapped file read with absolute gets, so queries are thread safe.
+public abstract class GeoIndex {
+
+    static final double START_RADIUS = 500;   // metres of the first search ring
+    static final int RADIUS_GROWTH = 4;
+
+    public abstract int size();
+
+    public abstract long keyAt(int position);
+
+    public abstract double latitude(int position);
+
+    public abstract double longitude(int position);
+
+    // Filter restricts a nearest query to a subset of the points.
+    public interface Filter {
+        boolean accept(int position);
+    }
+
+    // lowerBound returns the position of the first key not less than the given key.
+    public int lowerBound(long key) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // tileStart returns the position of the first point inside the tile.
+    public int tileStart(long tile, int bits) {
+        return lowerBound(GeoHash.first(tile, bits));
+    }
+
+    // tileEnd returns the position after the last point inside the tile.
+    public int tileEnd(long tile, int bits) {
+        return lowerBound(GeoHash.last(tile, bits) + 1);
+    }
+
+    public Nearest nearest(double latitude, double longitude, int limit, double maxDistance) {
+        Nearest result = new Nearest(limit);
+        nearest(latitude, longitude, maxDistance, null, result);
+        return result;
+    }
+
+    // nearest fills the result with the closest points to the given coordinates, up to its capacity,
+    // within maxDistance metres. When a filter is given only the points it accepts are considered.
+    public void nearest(double latitude, double longitude, double maxDistance, Filter filter, Nearest result) {
+        long[] tiles = new long[9];
+        double radius = Math.min(START_RADIUS, maxDistance);
+        result.examined = 0;
+        while (true) {
+            result.clear();
+            int bits = GeoHash.bitsForRadius(radius, latitude);
+            int count = neighbourhood(GeoHash.encode(latitude, longitude, bits), bits, tiles);
+            for (int t = 0; t < count; t++) {
+                int begin = tileStart(tiles[t], bits);
+                int end = tileEnd(tiles[t], bits);
+                for (int i = begin; i < end; i++) {
+                    if (filter != null && !filter.accept(i))
+                        continue;
+                    double d = GeoMath.distance(latitude, longitude, latitude(i), longitude(i));
+                    if (d <= radius)
+                        result.offer(i, d);
+                }
+                result.examined += end - begin;
+            }
+            if (result.isFull() || radius >= maxDistance)
+                return;
+            radius = Math.min(radius * RADIUS_GROWTH, maxDistance);
+        }
+    }
+
+    // neighbourhood fills tiles with the tile and its neighbours, without duplicates, returning the count.
+    // Near the poles several neighbours collapse into the same tile.
+    public static int neighbourhood(long tile, int bits, long[] tiles) {
+        int count = 0;
+        for (int north = -1; north <= 1; north++) {
+            for (int east = -1; east <= 1; east++) {
+                long t = GeoHash.neighbour(tile, bits, north, east);
+                boolean seen = false;
+                for (int i = 0; i < count && !seen; i++) {
+                    seen = tiles[i] == t;
+                }
+                if (!seen)
+                    tiles[count++] = t;
+            }
+        }
+        return count;
+    }
+
+    // Nearest holds the closest positions found, ordered by ascending distance.
+    public static class Nearest {
+        private final int[] positions;
+        private final double[] distances;
+        private int count;
+        private int examined;
+
+        public Nearest(int capacity) {
+            positions = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int capacity() {
+            return positions.length;
+        }
+
+        public boolean isFull() {
+            return count == positions.length;
+        }
+
+        public int position(int i) {
+            return positions[i];
+        }
+
+        public double distance(int i) {
+            return distances[i];
+        }
+
+        // examined returns the number of points the query filling this result looked at, over every radius tried.
+        public int examined() {
+            return examined;
+        }
+
+        public void clear() {
+            count = 0;
+        }
+
+        // offer inserts the position if it is closer than the furthest held so far.
+        public void offer(int position, double distance) {
+            if (positions.length == 0 || (isFull() && distance >= distances[count - 1]))
+                return;
+            int i = isFull() ? count - 1 : count++;
+            while (i > 0 && distances[i - 1] > distance) {
+                positions[i] = positions[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+    }
+}
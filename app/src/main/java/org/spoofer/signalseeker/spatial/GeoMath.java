@@ -0,0 +1,47 @@
+package org.spoofer.signalseeker.spatial;
+
+// GeoMath holds the distance calculations shared by the spatial lookups.
+// All distances are in metres over a spherical earth.
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS = 6371008.8;
+    public static final double METRES_PER_DEGREE = Math.PI * EARTH_RADIUS / 180.0;
+
+    private GeoMath() {
+    }
+
+    // distance returns the great circle distance between two coordinates.
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    // bearing returns the initial bearing from the first coordinates to the second, in degrees clockwise from north.
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(dLon) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLon);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+
+    // destination sets out to the latitude and longitude reached by travelling distance metres from the
+    // coordinates along the initial bearing, in degrees clockwise from north.
+    public static void destination(double lat, double lon, double bearing, double distance, double[] out) {
+        double angle = distance / EARTH_RADIUS;
+        double phi = Math.toRadians(lat);
+        double theta = Math.toRadians(bearing);
+        double sinPhi2 = Math.sin(phi) * Math.cos(angle) + Math.cos(phi) * Math.sin(angle) * Math.cos(theta);
+        double phi2 = Math.asin(Math.max(-1, Math.min(1, sinPhi2)));
+        double lambda = Math.atan2(Math.sin(theta) * Math.sin(angle) * Math.cos(phi),
+                Math.cos(angle) - Math.sin(phi) * sinPhi2);
+        out[0] = Math.toDegrees(phi2);
+        // normalise the longitude to -180..180
+        out[1] = ((lon + Math.toDegrees(lambda) + 540) % 360) - 180;
+    }
+}
@@ -0,0 +1,179 @@
+package org.spoofer.signalseeker.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// KeySort sorts an array of long keys in parallel and reports where each key came from.
+// A partition pass spreads the keys over BUCKETS buckets by their leading bits, counting and scattering
+// slices of the array in parallel, then every bucket is sorted as its own task.
+// The bucket width adapts to the range of the keys, so geohashes from one country still spread evenly.
+public final class KeySort {
+
+    private static final int BUCKET_BITS = 10;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final int SLICE_SIZE = 1 << 16;    // keys counted/scattered per task
+    private static final int INSERTION_SORT_SIZE = 24;
+
+    private KeySort() {
+    }
+
+    // sort orders the keys ascending in place and returns, for each sorted position, the original position of its key.
+    public static int[] sort(final long[] keys, ForkJoinPool pool) {
+        final int n = keys.length;
+        final int[] order = new int[n];
+        if (n == 0)
+            return order;
+
+        long min = keys[0];
+        long max = keys[0];
+        for (long k : keys) {
+            if (k < min)
+                min = k;
+            if (k > max)
+                max = k;
+        }
+        final long base = min;
+        final int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(max - min) - BUCKET_BITS);
+
+        // count each slice's keys per bucket
+        final int slices = (n + SLICE_SIZE - 1) / SLICE_SIZE;
+        final int[][] counts = new int[slices][BUCKETS];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(slices);
+        for (int s = 0; s < slices; s++) {
+            final int slice = s;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    int[] c = counts[slice];
+                    int end = Math.min(n, (slice + 1) * SLICE_SIZE);
+                    for (int i = slice * SLICE_SIZE; i < end; i++) {
+                        c[(int) ((keys[i] - base) >>> shift)]++;
+                    }
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        // turn the counts into each slice's starting offset within each bucket
+        final int[] bucketStart = new int[BUCKETS + 1];
+        int offset = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            bucketStart[b] = offset;
+            for (int s = 0; s < slices; s++) {
+                int c = counts[s][b];
+                counts[s][b] = offset;
+                offset += c;
+            }
+        }
+        bucketStart[BUCKETS] = n;
+
+        // scatter keys and their positions into their buckets
+        final long[] sorted = new long[n];
+        tasks.clear();
+        for (int s = 0; s < slices; s++) {
+            final int slice = s;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    int[] next = counts[slice];
+                    int end = Math.min(n, (slice + 1) * SLICE_SIZE);
+                    for (int i = slice * SLICE_SIZE; i < end; i++) {
+                        int dest = next[(int) ((keys[i] - base) >>> shift)]++;
+                        sorted[dest] = keys[i];
+                        order[dest] = i;
+                    }
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        // sort each bucket
+        tasks.clear();
+        for (int b = 0; b < BUCKETS; b++) {
+            final int from = bucketStart[b];
+            final int to = bucketStart[b + 1];
+            if (to - from < 2)
+                continue;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    sort(sorted, order, from, to - 1);
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        System.arraycopy(sorted, 0, keys, 0, n);
+        return order;
+    }
+
+    private static void invokeAll(ForkJoinPool pool, final List<ForkJoinTask<?>> tasks) {
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    // sort is a quicksort of keys[lo..hi] inclusive, moving the positions in step with their keys.
+    private static void sort(long[] keys, int[] positions, int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_SIZE) {
+            int mid = (lo + hi) >>> 1;
+            // median of three as the pivot
+            if (keys[mid] < keys[lo])
+                swap(keys, positions, mid, lo);
+            if (keys[hi] < keys[lo])
+                swap(keys, positions, hi, lo);
+            if (keys[hi] < keys[mid])
+                swap(keys, positions, hi, mid);
+            long pivot = keys[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot)
+                    i++;
+                while (keys[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    swap(keys, positions, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller side, loop on the larger, to bound the stack depth
+            if (j - lo < hi - i) {
+                sort(keys, positions, lo, j);
+                lo = i;
+            } else {
+                sort(keys, positions, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            long k = keys[i];
+            int p = positions[i];
+            int j = i - 1;
+            while (j >= lo && keys[j] > k) {
+                keys[j + 1] = keys[j];
+                positions[j + 1] = positions[j];
+                j--;
+            }
+            keys[j + 1] = k;
+            positions[j + 1] = p;
+        }
+    }
+
+    private static void swap(long[] keys, int[] positions, int a, int b) {
+        long k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        int p = positions[a];
+        positions[a] = positions[b];
+        positions[b] = p;
+    }
+}
@@ -0,0 +1,159 @@
+package org.spoofer.signalseeker.track;
+
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+import org.spoofer.signalseeker.location.FixProcessor;
+import org.spoofer.signalseeker.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// ReplayEngine plays a recorded track through a FixProcessor, as CellLocationService does with live fixes,
+// and hands each update to the listener on the dispatcher, standing in for the GUI handler.
+// Records are released at their recorded times scaled by the replay speed, or back to back when the speed is 0.
+// Cell samples recorded at the same time are one scan, and each scan is located through the processor, as the
+// service does while GPS is stale, so a track can compare the cell positions against its GPS fixes.
+// Latencies are measured from each record's release, so they show how far processing falls behind the track.
+public class ReplayEngine {
+
+    public interface Listener {
+        void onUpdate(FixProcessor.Update update);
+
+        void onCellSample(CellSample sample);
+
+        void onCellFix(Fix fix);
+    }
+
+    // Result holds the counts and latencies of one replay.
+    public static class Result {
+        public final LatencyHistogram processLatency = new LatencyHistogram();  // release to processed
+        public final LatencyHistogram dispatchLatency = new LatencyHistogram(); // release to listener
+        public final LatencyHistogram locateLatency = new LatencyHistogram();   // scan's last release to located
+        public int fixes;
+        public int cellSamples;
+        public int cellFixes;
+        public long elapsedNanos;
+
+        public double fixesPerSecond() {
+            return elapsedNanos == 0 ? 0 : fixes * 1e9 / elapsedNanos;
+        }
+    }
+
+    private final FixProcessor processor;
+    private final Executor dispatcher;
+    private final Listener listener;
+
+    public ReplayEngine(FixProcessor processor, Executor dispatcher, Listener listener) {
+        this.processor = processor;
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+    }
+
+    // replay plays the track at the given multiple of real time, 1 for real time or 0 for as fast as possible,
+    // returning once the listener has been given every record.
+    public Result replay(File track, double speed) throws IOException, InterruptedException {
+        final Result result = new Result();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CountDownLatch drained = new CountDownLatch(1);
+
+        List<CellSample> scan = new ArrayList<>();
+        long scanTime = 0;
+        long scanReleased = 0;
+        long start = System.nanoTime();
+        try (TrackReader reader = new TrackReader(track)) {
+            int type;
+            while ((type = reader.next()) != TrackReader.END) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                final long released = speed > 0
+                        ? waitUntil(start + (long) (TimeUnit.MILLISECONDS.toNanos(reader.offset()) / speed))
+                        : System.nanoTime();
+                if (!scan.isEmpty() && (type != TrackReader.CELL || reader.offset() != scanTime)) {
+                    locate(scan, scanTime, scanReleased, result, pending, drained);
+                    scan.clear();
+                }
+                pending.incrementAndGet();
+                if (type == TrackReader.FIX) {
+                    final FixProcessor.Update update = processor.process(reader.fix());
+                    result.processLatency.recordSince(released);
+                    result.fixes++;
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.dispatchLatency.recordSince(released);
+                            listener.onUpdate(update);
+                        }
+                    }, pending, drained);
+                } else {
+                    final CellSample sample = reader.cell();
+                    result.cellSamples++;
+                    scan.add(sample);
+                    scanTime = reader.offset();
+                    scanReleased = released;
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onCellSample(sample);
+                        }
+                    }, pending, drained);
+                }
+            }
+            if (!scan.isEmpty())
+                locate(scan, scanTime, scanReleased, result, pending, drained);
+        }
+        if (pending.decrementAndGet() == 0)
+            drained.countDown();
+        drained.await();
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void locate(List<CellSample> scan, long time, long released, Result result,
+                        AtomicInteger pending, CountDownLatch drained) {
+        final Fix fix = processor.locate(scan, time);
+        result.locateLatency.recordSince(released);
+        if (fix == null)
+            return;
+        result.cellFixes++;
+        pending.incrementAndGet();
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                listener.onCellFix(fix);
+            }
+        }, pending, drained);
+    }
+
+    private void dispatch(final Runnable task, final AtomicInteger pending, final CountDownLatch drained) {
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    if (pending.decrementAndGet() == 0)
+                        drained.countDown();
+                }
+            }
+        });
+    }
+
+    // waitUntil parks until System.nanoTime() reaches the deadline and returns it, so a record released late
+    // carries the delay in its latencies.
+    private static long waitUntil(long deadline) throws InterruptedException {
+        long now;
+        while ((now = System.nanoTime()) - deadline < 0) {
+            LockSupport.parkNanos(deadline - now);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return deadline;
+    }
+}
@@ -0,0 +1,129 @@
+package org.spoofer.signalseeker.track;
+
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// TrackReader reads back the records of a track written by TrackWriter, in order.
+// Times are given as milliseconds from the first record, so a replayed fix's time is its offset into the track.
+public class TrackReader implements Closeable {
+
+    public static final int END = 0;
+    public static final int FIX = 1;
+    public static final int CELL = 2;
+
+    private final DataInputStream in;
+    private final long startTime;
+
+    private long offset;
+    private long latitude;
+    private long longitude;
+    private Fix fix;
+    private CellSample cell;
+
+
+    public TrackReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public TrackReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 8192));
+        if (this.in.readInt() != TrackWriter.MAGIC)
+            throw new IOException("not a track file");
+        int version = this.in.readInt();
+        if (version != TrackWriter.VERSION)
+            throw new IOException("unsupported track version " + version);
+        startTime = this.in.readLong();
+    }
+
+    // startTime is the wall clock time the track was started, in milliseconds.
+    public long startTime() {
+        return startTime;
+    }
+
+    // next reads the next record and returns its type, or END at the end of the track.
+    public int next() throws IOException {
+        int type = in.read();
+        if (type < 0)
+            return END;
+        offset += readVarint();
+        switch (type) {
+            case FIX:
+                readFix();
+                break;
+            case CELL:
+                readCell();
+                break;
+            default:
+                throw new IOException("unknown track record " + type);
+        }
+        return type;
+    }
+
+    // offset is the milliseconds from the first record to the current one.
+    public long offset() {
+        return offset;
+    }
+
+    // fix is the last fix read.
+    public Fix fix() {
+        return fix;
+    }
+
+    // cell is the last cell sample read.
+    public CellSample cell() {
+        return cell;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readFix() throws IOException {
+        int flags = in.readUnsignedByte();
+        latitude += readZigZag();
+        longitude += readZigZag();
+        float accuracy = readVarint() / 10f;
+        float speed = (flags & TrackWriter.FLAG_SPEED) != 0 ? readVarint() / 100f : Float.NaN;
+        float bearing = (flags & TrackWriter.FLAG_BEARING) != 0 ? readVarint() / 100f : Float.NaN;
+        fix = new Fix(latitude / TrackWriter.E7, longitude / TrackWriter.E7, accuracy, speed, bearing,
+                (flags & TrackWriter.FLAG_NETWORK) != 0, offset);
+    }
+
+    private void readCell() throws IOException {
+        int flags = in.readUnsignedByte();
+        int mcc = (int) readVarint();
+        int mnc = (int) readVarint();
+        int lac = (int) readVarint();
+        int cid = (int) readVarint();
+        int dbm = (int) readZigZag();
+        cell = new CellSample(mcc, mnc, lac, cid, dbm, (flags & TrackWriter.FLAG_REGISTERED) != 0, offset);
+    }
+
+    private long readZigZag() throws IOException {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("truncated track record");
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed varint in track");
+    }
+}
@@ -0,0 +1,112 @@
+package org.spoofer.signalseeker.track;
+
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// TrackWriter records location fixes, and optionally the cells heard along the way, to a compact binary track.
+// A record is a type byte and the milliseconds since the previous record as a varint. Fix coordinates are
+// stored as zigzag varint deltas from the previous fix in 1e-7 degrees, so a fix taken every second while driving
+// is around 14 bytes, 13.8 over the hour long drive of TrackTest. Speed and bearing are only written when the fix
+// has them.
+//
+// File layout, big endian:
+//   header   int magic, int version, long start (wall clock milliseconds)
+//   fix      byte FIX, varint dt, byte flags, zigzag dlat, zigzag dlon, varint accuracy (dm),
+//            [varint speed (cm/s)], [varint bearing (centidegrees)]
+//   cell     byte CELL, varint dt, byte flags, varint mcc, varint mnc, varint lac, varint cid, zigzag dbm
+public class TrackWriter implements Closeable {
+
+    static final int MAGIC = 0x4b415254; // "TRAK"
+    static final int VERSION = 1;
+
+    static final int FLAG_SPEED = 1;
+    static final int FLAG_BEARING = 2;
+    static final int FLAG_NETWORK = 4;
+    static final int FLAG_REGISTERED = 1;
+
+    static final double E7 = 1e7;
+
+    private final DataOutputStream out;
+    private long lastTime = Long.MIN_VALUE;
+    private long lastLatitude;
+    private long lastLongitude;
+
+
+    public TrackWriter(File file, long startTime) throws IOException {
+        this(new FileOutputStream(file), startTime);
+    }
+
+    public TrackWriter(OutputStream out, long startTime) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeLong(startTime);
+    }
+
+    public synchronized void writeFix(Fix fix) throws IOException {
+        writeHeader(TrackReader.FIX, fix.getTime());
+        int flags = (fix.hasSpeed() ? FLAG_SPEED : 0) | (fix.hasBearing() ? FLAG_BEARING : 0)
+                | (fix.isNetwork() ? FLAG_NETWORK : 0);
+        out.writeByte(flags);
+        long lat = Math.round(fix.getLatitude() * E7);
+        long lon = Math.round(fix.getLongitude() * E7);
+        writeZigZag(lat - lastLatitude);
+        writeZigZag(lon - lastLongitude);
+        lastLatitude = lat;
+        lastLongitude = lon;
+        writeVarint(Math.max(0, Math.round(fix.getAccuracy() * 10)));
+        if (fix.hasSpeed())
+            writeVarint(Math.max(0, Math.round(fix.getSpeed() * 100)));
+        if (fix.hasBearing())
+            writeVarint(Math.round(((fix.getBearing() % 360) + 360) % 360 * 100));
+    }
+
+    public synchronized void writeCell(CellSample cell) throws IOException {
+        writeHeader(TrackReader.CELL, cell.getTime());
+        out.writeByte(cell.isRegistered() ? FLAG_REGISTERED : 0);
+        writeVarint(cell.getMcc());
+        writeVarint(cell.getMnc());
+        writeVarint(cell.getLac());
+        writeVarint(cell.getCid());
+        writeZigZag(cell.getDbm());
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    // writeHeader writes the record type and the time since the previous record.
+    // Records arriving out of order, such as a cell sample older than the last fix, are kept at the same time.
+    private void writeHeader(int type, long time) throws IOException {
+        if (lastTime == Long.MIN_VALUE)
+            lastTime = time;
+        out.writeByte(type);
+        writeVarint(Math.max(0, time - lastTime));
+        lastTime = Math.max(lastTime, time);
+    }
+
+    private void writeZigZag(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
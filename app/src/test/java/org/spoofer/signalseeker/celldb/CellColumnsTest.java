@@ -0,0 +1,67 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Maps the cell_zone columns of databases written by the import, and of downloaded ones naming them their own way.
+ */
+public class CellColumnsTest {
+
+    @Test
+    public void resolve_ownSchema() {
+        CellColumns columns = CellColumns.resolve(Arrays.asList(
+                "_id", "mcc", "mnc", "lac", "cid", "latitude", "longitude", "last_update"));
+        assertArrayEquals(CellColumns.FIELDS, columns.select());
+        assertArrayEquals(new Object[]{"z._id", "z.latitude", "z.longitude", "z.mcc", "z.mnc", "z.lac", "z.cid",
+                "z.last_update"}, columns.select("z"));
+    }
+
+    @Test
+    public void resolve_otherNames() {
+        CellColumns columns = CellColumns.resolve(Arrays.asList(
+                "_id", "MCC", "net", "area", "cell", "lat", "lon", "updated"));
+        assertArrayEquals(new Object[]{"_id", "lat AS latitude", "lon AS longitude", "MCC AS mcc", "net AS mnc",
+                "area AS lac", "cell AS cid", "updated AS last_update"}, columns.select());
+        assertEquals("area", columns.column(CellColumns.LAC));
+        assertEquals("z.area AS lac", columns.select("z")[CellColumns.LAC]);
+    }
+
+    @Test
+    public void resolve_prefersFieldName() {
+        CellColumns columns = CellColumns.resolve(Arrays.asList(
+                "_id", "latitude", "longitude", "area", "lac", "cell_id", "cid"));
+        assertEquals("lac", columns.column(CellColumns.LAC));
+        assertEquals("cid", columns.column(CellColumns.CID));
+    }
+
+    @Test
+    public void resolve_missingReadAsZero() {
+        CellColumns columns = CellColumns.resolve(Arrays.asList("_id", "latitude", "longitude", "mcc", "mnc"));
+        assertTrue(columns.has(CellColumns.MNC));
+        assertFalse(columns.has(CellColumns.LAC));
+        assertFalse(columns.has(CellColumns.LAST_UPDATE));
+        assertEquals("0", columns.column(CellColumns.LAST_UPDATE));
+        String[] select = columns.select("z");
+        assertEquals("0 AS lac", select[CellColumns.LAC]);
+        assertEquals("0 AS cid", select[CellColumns.CID]);
+        assertEquals("0 AS last_update", select[CellColumns.LAST_UPDATE]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resolve_noCoordinates() {
+        CellColumns.resolve(Arrays.asList("_id", "mcc", "mnc", "lac", "cid"));
+    }
+
+    @Test
+    public void selectCells_readsResolvedColumns() {
+        CellColumns columns = CellColumns.resolve(Arrays.asList("_id", "lat", "lon", "mcc", "net", "area", "cell"));
+        String sql = CellDatabase.selectCells(columns);
+        assertTrue(sql, sql.startsWith("SELECT c._id,c.cell_id,z.lat AS latitude,z.lon AS longitude,z.mcc,"
+                + "z.net AS mnc,z.area AS lac,z.cell AS cid,0 AS last_update,("));
+        assertEquals(5, sql.split("%", -1).length - 1);
+    }
+}
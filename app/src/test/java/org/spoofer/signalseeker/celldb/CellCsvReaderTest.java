@@ -0,0 +1,106 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses a few lines of an OpenCellID style export into cell blocks, skipping the lines that are not cells.
+ */
+public class CellCsvReaderTest {
+
+    private static final String HEADER =
+            "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n";
+
+    @Test
+    public void read_parsesRows() throws IOException {
+        CellCsvReader reader = reader(HEADER +
+                "LTE,262,2,801,86355,0,13.404954,52.520008,1000,12,1,1459692000,1560000000,0\n" +
+                "GSM,208,10,12,3405,,-0.5,-45.25,500,3,1,1459692000,1560000001,-80\r\n" +
+                "UMTS,234,15,1,2,0,1.5e-3,+51,1,1,1,1,1", 100);
+        CellBlock block = new CellBlock(10);
+        assertTrue(reader.read(block));
+        assertEquals(3, block.size);
+        assertEquals(1, reader.skipped());
+
+        assertEquals(100, block.ids[0]);
+        assertEquals(262, block.mcc[0]);
+        assertEquals(2, block.mnc[0]);
+        assertEquals(801, block.lac[0]);
+        assertEquals(86355, block.cid[0]);
+        assertEquals(52.520008, block.latitudes[0], 1e-9);
+        assertEquals(13.404954, block.longitudes[0], 1e-9);
+        assertEquals(1560000000000L, block.updated[0]);
+
+        // a CR line ending, negative coordinates, an empty field before them
+        assertEquals(101, block.ids[1]);
+        assertEquals(-45.25, block.latitudes[1], 1e-9);
+        assertEquals(-0.5, block.longitudes[1], 1e-9);
+        assertEquals(1560000001000L, block.updated[1]);
+
+        // an exponent and a sign, on a last line without an ending
+        assertEquals(0.0015, block.longitudes[2], 1e-12);
+        assertEquals(51, block.latitudes[2], 1e-9);
+
+        assertFalse(reader.read(block));
+        assertEquals(0, block.size);
+    }
+
+    @Test
+    public void read_skipsBadRows() throws IOException {
+        CellCsvReader reader = reader(
+                "\n" +
+                "LTE,262,2,801\n" +                                         // too few fields
+                "LTE,-262,2,801,1,0,13.4,52.5,1,1,1,1,1\n" +                // negative code
+                "LTE,262,2,801,4294967296,0,13.4,52.5,1,1,1,1,1\n" +        // cid over an int
+                "LTE,262,2,801,1,0,13.4,95.0,1,1,1,1,1\n" +                 // latitude out of range
+                "LTE,262,2,801,1,0,east,52.5,1,1,1,1,1\n" +                 // not a number
+                "LTE,262,2,801,7,0,13.4,52.5,1,1,1,1,1\n", 0);
+        CellBlock block = new CellBlock(10);
+        assertTrue(reader.read(block));
+        assertEquals(1, block.size);
+        assertEquals(7, block.cid[0]);
+        assertEquals(0, block.ids[0]);
+        assertEquals(6, reader.skipped());
+    }
+
+    @Test
+    public void read_fillsBlocksInTurn() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < 25; i++) {
+            csv.append("LTE,262,2,801,").append(i).append(",0,13.4,52.5,1,1,1,1,1\n");
+        }
+        CellCsvReader reader = reader(csv.toString(), 1);
+        CellBlock block = new CellBlock(10);
+        int total = 0;
+        long nextId = 1;
+        while (reader.read(block)) {
+            for (int i = 0; i < block.size; i++) {
+                assertEquals(nextId++, block.ids[i]);
+                assertEquals(total + i, block.cid[i]);
+            }
+            total += block.size;
+        }
+        assertEquals(25, total);
+    }
+
+    @Test
+    public void read_longLine() throws IOException {
+        StringBuilder line = new StringBuilder("LTE,262,2,801,9,0,13.4,52.5,1,1,1,1,1");
+        while (line.length() < 1000) {
+            line.append(",padding");
+        }
+        CellCsvReader reader = reader(line + "\n", 0);
+        CellBlock block = new CellBlock(1);
+        assertTrue(reader.read(block));
+        assertEquals(9, block.cid[0]);
+    }
+
+    private static CellCsvReader reader(String csv, long firstId) {
+        return new CellCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)), firstId);
+    }
+}
@@ -0,0 +1,226 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Opens the cell index of a database through openIndex when its snapshot and id table are current, of an older
+ * version, or truncated, checking the unreadable ones are rebuilt rather than failing the open, and that a close
+ * is not held up by the rebuild. SQLite needs a device, so the snapshot is rebuilt by a stand in writing the same
+ * cells, and the id table by its own structure.
+ */
+public class CellDatabaseTest {
+
+    private static final int CELLS = 1000;
+
+    private File dir;
+    private File db;
+    private File snapshot;
+    private File ids;
+    private SnapshotStructure structure;
+    private int background;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("celldb").toFile();
+        db = new File(dir, "DE.db");
+        Files.write(db.toPath(), new byte[4096]);
+        snapshot = new File(db.getPath() + CellIndex.EXTENSION);
+        ids = new File(db.getPath() + CellIdTable.EXTENSION);
+        structure = new SnapshotStructure();
+        structure.rebuild();
+        new SchemaMigrator.IdTable(db.getPath()).rebuild();
+        structure.rebuilds = 0;
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void openIndex_current() throws IOException {
+        CellDatabase cells = open();
+        assertEquals(0, structure.rebuilds);
+        assertEquals(0, background);
+        assertFound(cells);
+        cells.close();
+    }
+
+    @Test
+    public void openIndex_snapshotOfOlderVersion() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+            raf.seek(4);
+            raf.writeInt(Integer.reverseBytes(1));
+        }
+        CellDatabase cells = open();
+        assertEquals(1, structure.rebuilds);
+        assertFound(cells);
+        cells.close();
+    }
+
+    @Test
+    public void openIndex_truncatedSnapshot() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+            raf.setLength(100);
+        }
+        CellDatabase cells = open();
+        assertEquals(1, structure.rebuilds);
+        assertFound(cells);
+        cells.close();
+    }
+
+    @Test
+    public void openIndex_closeDuringRebuild() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+            raf.setLength(100);
+        }
+        structure.started = new CountDownLatch(1);
+        structure.release = new CountDownLatch(1);
+        final CellDatabase cells = database();
+        final IOException[] failed = new IOException[1];
+        Thread open = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cells.openIndex();
+                } catch (IOException e) {
+                    failed[0] = e;
+                }
+            }
+        });
+        open.start();
+        assertTrue(structure.started.await(10, TimeUnit.SECONDS));
+
+        Thread close = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cells.close();
+            }
+        });
+        close.start();
+        close.join(10000);
+        assertFalse("close waited on the rebuild", close.isAlive());
+
+        structure.release.countDown();
+        open.join(10000);
+        assertFalse(open.isAlive());
+        assertNull(failed[0]);
+        assertEquals(1, structure.rebuilds);
+
+        cells.openIndex();
+        assertFound(cells);
+        cells.close();
+    }
+
+    @Test
+    public void openIndex_truncatedIdTable() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(ids, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        CellDatabase cells = open();
+        assertEquals(0, structure.rebuilds);
+        assertFound(cells);
+        cells.close();
+    }
+
+    @Test
+    public void openIndex_notAnIdTable() throws IOException {
+        Files.write(ids.toPath(), new byte[64]);
+        CellDatabase cells = open();
+        assertFound(cells);
+        cells.close();
+    }
+
+    private CellDatabase open() throws IOException {
+        CellDatabase cells = database();
+        cells.openIndex();
+        return cells;
+    }
+
+    private CellDatabase database() {
+        List<SchemaMigrator.Structure> structures = new ArrayList<>();
+        structures.add(structure);
+        structures.add(new SchemaMigrator.IdTable(db.getPath()));
+        return new CellDatabase(db.getPath(), structures, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                background++;
+                command.run();
+            }
+        });
+    }
+
+    private static void assertFound(CellDatabase cells) {
+        for (int i = 0; i < CELLS; i += 97) {
+            Cell cell = cells.findCell(262, 1, i / 100, i);
+            assertNotNull("cell " + i, cell);
+            assertEquals(Integer.toString(i), cell.getCellID());
+        }
+        assertNull(cells.findCell(262, 1, 0, CELLS + 1));
+    }
+
+    // SnapshotStructure stands in for the snapshot, rebuilding it with the same cells without reading SQLite.
+    // With release set, a rebuild counts down started and waits for release before it writes.
+    private class SnapshotStructure implements SchemaMigrator.Structure {
+        volatile int rebuilds;
+        CountDownLatch started;
+        CountDownLatch release;
+
+        @Override
+        public String name() {
+            return snapshot.getName();
+        }
+
+        @Override
+        public int state() {
+            if (!snapshot.exists())
+                return SchemaMigrator.MISSING;
+            try {
+                return CellIndex.map(snapshot).matches(db) ? SchemaMigrator.CURRENT : SchemaMigrator.STALE;
+            } catch (IOException e) {
+                return SchemaMigrator.MISSING;
+            }
+        }
+
+        @Override
+        public void rebuild() throws IOException {
+            rebuilds++;
+            if (release != null) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Rebuild interrupted", e);
+                }
+            }
+            CellBlock block = new CellBlock(CELLS);
+            for (int i = 0; i < CELLS; i++) {
+                block.add(i + 1, 52 + i * 0.001, 13 + i * 0.001, 262, 1, i / 100, i, 0);
+            }
+            block.derive();
+            try (CellIndex.Writer writer = new CellIndex.Writer(snapshot, CELLS)) {
+                for (int i = 0; i < CELLS; i++) {
+                    writer.add(block, i);
+                }
+                writer.finish(db.length(), db.lastModified(), CellIndex.fingerprint(db));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.spatial.GeoHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times generating a 10M cell synthetic country straight to an index snapshot on 1 to 8 cores,
+ * and checks the cells are sorted and realistic in their codes and clustering. Writing the SQLite database needs a
+ * device and is not included. CellGeneratorTest checks the generator on a small country.
+ */
+public class CellGeneratorBenchmark {
+
+    private static final int CELLS = 10000000;
+    private static final int SMALL = 200000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("generate").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void index10M_scalesWithCores() throws Exception {
+        File file = new File(dir, "de.idx");
+        CellGenerator generator = CellGeneratorTest.germany(CELLS, 1);
+        // warm up the JIT before timing
+        CellGeneratorTest.germany(SMALL, 1).writeIndex(file, ForkJoinPool.commonPool());
+
+        for (int cores = 1; cores <= 8; cores *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(cores);
+            try {
+                long start = System.nanoTime();
+                generator.writeIndex(file, pool);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%d cores: %d cells in %d ms, %.0f cells/s, %d MB%n", cores, CELLS,
+                        elapsed / 1000000, CELLS * 1e9 / elapsed, file.length() >> 20);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        CellIndex index = CellIndex.map(file);
+        assertEquals(CELLS, index.size());
+        int[] operators = new int[10];
+        long oldest = Long.MAX_VALUE;
+        long newest = 0;
+        for (int i = 0; i < index.size(); i++) {
+            if (i > 0)
+                assertTrue("keys out of order at " + i, index.keyAt(i - 1) <= index.keyAt(i));
+            operators[index.mnc(i)]++;
+            oldest = Math.min(oldest, index.updated(i));
+            newest = Math.max(newest, index.updated(i));
+        }
+        System.out.printf("operators %s, updated over %d days%n",
+                Arrays.toString(operators), (newest - oldest) / (24L * 60 * 60 * 1000));
+        assertEquals(0.34, operators[1] / (double) CELLS, 0.01);
+        assertEquals(0.12, operators[7] / (double) CELLS, 0.01);
+
+        // clustered: the busiest tenth of the occupied ~600m tiles hold most of the cells
+        int[] tileCells = new int[CELLS];
+        int tiles = 0;
+        for (int i = 0; i < index.size(); i++) {
+            if (i == 0 || GeoHash.prefix(index.keyAt(i), 30) != GeoHash.prefix(index.keyAt(i - 1), 30))
+                tiles++;
+            tileCells[tiles - 1]++;
+        }
+        Arrays.sort(tileCells, 0, tiles);
+        long busiest = 0;
+        for (int t = tiles - tiles / 10; t < tiles; t++) {
+            busiest += tileCells[t];
+        }
+        System.out.printf("%d tiles occupied, the busiest tenth hold %d%% of cells%n", tiles, busiest * 100 / CELLS);
+        assertTrue(busiest > CELLS / 2);
+    }
+}
@@ -0,0 +1,91 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Generates a small synthetic country, checking the same seed writes the same index on any number of cores and
+ * that the CSV export reads back as the cells of the index.
+ */
+public class CellGeneratorTest {
+
+    private static final int CELLS = 20000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("generate").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void generate_isRepeatable() throws Exception {
+        File a = new File(dir, "a.idx");
+        File b = new File(dir, "b.idx");
+        germany(CELLS, 7).writeIndex(a, new ForkJoinPool(2));
+        germany(CELLS, 7).writeIndex(b, new ForkJoinPool(5));
+        assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+
+        File c = new File(dir, "c.idx");
+        germany(CELLS, 8).writeIndex(c, ForkJoinPool.commonPool());
+        assertFalse(Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(c.toPath())));
+    }
+
+    @Test
+    public void csv_readsBackAsGenerated() throws Exception {
+        File csv = new File(dir, "de.csv.gz");
+        File idx = new File(dir, "de.idx");
+        CellGenerator generator = germany(CELLS, 3);
+        try (OutputStream out = new FileOutputStream(csv)) {
+            generator.writeCsv(out, ForkJoinPool.commonPool());
+        }
+        generator.writeIndex(idx, ForkJoinPool.commonPool());
+        CellIndex index = CellIndex.map(idx);
+
+        int n = 0;
+        try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(csv))) {
+            CellCsvReader reader = new CellCsvReader(in, 1);
+            CellBlock block = new CellBlock(4096);
+            while (reader.read(block)) {
+                for (int i = 0; i < block.size; i++, n++) {
+                    assertEquals(index.id(n), block.ids[i]);
+                    assertEquals(index.mcc(n), block.mcc[i]);
+                    assertEquals(index.mnc(n), block.mnc[i]);
+                    assertEquals(index.lac(n), block.lac[i]);
+                    assertEquals(index.cid(n), block.cid[i]);
+                    assertEquals(index.latitude(n), block.latitudes[i], 1e-5);
+                    assertEquals(index.longitude(n), block.longitudes[i], 1e-5);
+                    assertEquals(index.updated(n) / 1000, block.updated[i] / 1000);
+                }
+            }
+            assertEquals(1, reader.skipped()); // the header
+        }
+        assertEquals(CELLS, n);
+    }
+
+    // germany returns a generator of the cells of a country the size of Germany.
+    static CellGenerator germany(int cells, long seed) {
+        return new CellGenerator(cells, 47.3, 5.9, 55.0, 15.0, 262, seed);
+    }
+}
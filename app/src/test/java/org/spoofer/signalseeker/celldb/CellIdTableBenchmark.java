@@ -0,0 +1,71 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times building the id table of a 2M cell synthetic country and looking cells up by identity.
+ * CellIdTableTest checks the lookups on a small country.
+ */
+public class CellIdTableBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final int LOOKUPS = 5000000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ids").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void lookups_perSecond() throws Exception {
+        File indexFile = new File(dir, "de.idx");
+        new CellGenerator(CELLS, 47.3, 5.9, 55.0, 15.0, 262, 1).writeIndex(indexFile, ForkJoinPool.commonPool());
+        CellIndex index = CellIndex.map(indexFile);
+
+        File tableFile = new File(dir, "de.ids");
+        long start = System.nanoTime();
+        int count = CellIdTable.build(index, indexFile, tableFile);
+        long built = System.nanoTime() - start;
+        CellIdTable table = CellIdTable.open(tableFile, indexFile);
+        assertNotNull(table);
+        assertEquals(CELLS, count);
+        System.out.printf("built table of %d cells in %d ms, %d MB%n",
+                count, built / 1000000, tableFile.length() >> 20);
+
+        long[] keys = new long[1 << 16];
+        Random rnd = new Random(3);
+        for (int i = 0; i < keys.length; i++) {
+            int p = rnd.nextInt(index.size());
+            keys[i] = CellIdTable.key(index.mcc(p), index.mnc(p), index.lac(p), index.cid(p));
+        }
+        long found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += table.find(keys[i & (keys.length - 1)]) >= 0 ? 1 : 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(LOOKUPS, found);
+        System.out.printf("%d lookups in %d ms, %.0f ns each%n",
+                LOOKUPS, elapsed / 1000000, (double) elapsed / LOOKUPS);
+    }
+}
@@ -0,0 +1,72 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds the id table of a small synthetic country, checking every cell is found at its own index position while
+ * unknown identities are not, and that a table older than its index is not opened.
+ */
+public class CellIdTableTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ids").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void find_everyCell() throws Exception {
+        File indexFile = new File(dir, "de.idx");
+        new CellGenerator(20000, 47.3, 5.9, 55.0, 15.0, 262, 1).writeIndex(indexFile, ForkJoinPool.commonPool());
+        CellIndex index = CellIndex.map(indexFile);
+        File tableFile = new File(dir, "de.ids");
+        assertEquals(index.size(), CellIdTable.build(index, indexFile, tableFile));
+        CellIdTable table = CellIdTable.open(tableFile, indexFile);
+        assertNotNull(table);
+
+        for (int p = 0; p < index.size(); p++) {
+            long key = CellIdTable.key(index.mcc(p), index.mnc(p), index.lac(p), index.cid(p));
+            assertEquals(p, table.find(key));
+        }
+    }
+
+    @Test
+    public void find_unknownIdentity() throws Exception {
+        File indexFile = new File(dir, "fr.idx");
+        new CellGenerator(10000, 43, 0, 49, 7, 208, 2).writeIndex(indexFile, ForkJoinPool.commonPool());
+        CellIndex index = CellIndex.map(indexFile);
+        File tableFile = new File(dir, "fr.ids");
+        CellIdTable.build(index, indexFile, tableFile);
+        CellIdTable table = CellIdTable.map(tableFile);
+
+        int p = 1234;
+        assertEquals(p, table.find(CellIdTable.key(208, index.mnc(p), index.lac(p), index.cid(p))));
+        assertEquals(-1, table.find(CellIdTable.key(262, index.mnc(p), index.lac(p), index.cid(p))));
+        assertEquals(-1, table.find(CellIdTable.key(208, index.mnc(p), index.lac(p) ^ 1, index.cid(p))));
+        // the values Android reports for an unknown identity part
+        assertEquals(0, CellIdTable.key(208, 1, Integer.MAX_VALUE, 5));
+        assertEquals(-1, table.find(0));
+
+        assertTrue(tableFile.setLastModified(indexFile.lastModified() + 1000));
+        assertTrue(indexFile.setLastModified(indexFile.lastModified() + 5000));
+        assertNull(CellIdTable.open(tableFile, indexFile));
+    }
+}
@@ -0,0 +1,49 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the importer copying 2M cells, deriving them in parallel and writing each run in key order, on 1 to 8
+ * cores. SQLite needs a device, so the cells are read from memory and the writer only totals the rows it is given.
+ */
+public class CellImportBenchmark {
+
+    private static final int CELLS = 2000000;
+
+    @Test
+    public void copy_scalesWithCores() {
+        CellImporterTest.Cells cells = new CellImporterTest.Cells(CELLS, new Random(42));
+        // warm up the JIT before timing
+        copy(cells, 2);
+
+        for (int cores = 1; cores <= 8; cores *= 2) {
+            long start = System.nanoTime();
+            copy(cells, cores);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d cores: %d cells in %d ms, %.0f cells/s%n",
+                    cores, CELLS, elapsed / 1000000, CELLS * 1e9 / elapsed);
+        }
+    }
+
+    private static void copy(CellImporter.Rows cells, int cores) {
+        final long[] total = new long[1];
+        ForkJoinPool pool = new ForkJoinPool(cores);
+        try {
+            int count = CellImporter.copy(cells, new CellImporter.Writer() {
+                @Override
+                public void write(CellBlock block, int i) {
+                    total[0] += block.ids[i] ^ block.geohashes[i];
+                }
+            }, pool);
+            assertEquals(CELLS, count);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(total[0] != 0);
+    }
+}
@@ -0,0 +1,90 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+import org.spoofer.signalseeker.spatial.GeoHash;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copies a few runs of cells with gaps in their ids through the importer, checking every cell is written once with
+ * its derived values, and in key order within each run.
+ */
+public class CellImporterTest {
+
+    @Test
+    public void copy_writesRunsInKeyOrder() {
+        int count = CellImporter.RUN_SIZE * 2 + 5000;
+        final Cells cells = new Cells(count, new Random(1));
+        final boolean[] seen = new boolean[count];
+        final long[] last = {Long.MIN_VALUE};
+        final int[] drops = {0}; // keys lower than the one before, one at the start of each run
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(count, CellImporter.copy(cells, new CellImporter.Writer() {
+                @Override
+                public void write(CellBlock block, int i) {
+                    int c = (int) (block.ids[i] / 3);
+                    assertFalse("cell " + c + " written twice", seen[c]);
+                    seen[c] = true;
+                    assertEquals(GeoHash.encode(block.latitudes[i], block.longitudes[i]), block.geohashes[i]);
+                    assertEquals(Math.sin(Math.toRadians(block.latitudes[i])), block.latitudeSin[i], 1e-12);
+                    if (block.geohashes[i] < last[0])
+                        drops[0]++;
+                    last[0] = block.geohashes[i];
+                }
+            }, pool));
+        } finally {
+            pool.shutdown();
+        }
+        for (int c = 0; c < count; c++) {
+            assertTrue("cell " + c + " not written", seen[c]);
+        }
+        // each run is over half RUN_SIZE cells, so there are at most four
+        assertTrue("keys out of order " + drops[0] + " times", drops[0] > 0 && drops[0] < 4);
+    }
+
+    @Test
+    public void copy_noCells() {
+        CellImporter.Writer writer = new CellImporter.Writer() {
+            @Override
+            public void write(CellBlock block, int i) {
+                fail("no cells to write");
+            }
+        };
+        assertEquals(0, CellImporter.copy(new Cells(0, new Random(2)), writer, ForkJoinPool.commonPool()));
+    }
+
+    // Cells stands in for the cell_zone table, with cell c at id 3c and scattered over a country.
+    static class Cells implements CellImporter.Rows {
+        final double[] latitudes;
+        final double[] longitudes;
+
+        Cells(int count, Random rnd) {
+            latitudes = new double[count];
+            longitudes = new double[count];
+            for (int c = 0; c < count; c++) {
+                latitudes[c] = 47 + rnd.nextDouble() * 8;
+                longitudes[c] = 6 + rnd.nextDouble() * 9;
+            }
+        }
+
+        @Override
+        public long[] idRange() {
+            return latitudes.length == 0 ? new long[]{0, -1} : new long[]{0, 3L * (latitudes.length - 1)};
+        }
+
+        @Override
+        public CellBlock read(long start, long end) {
+            int from = (int) ((start + 2) / 3);
+            int to = (int) Math.min(latitudes.length, (end + 2) / 3);
+            CellBlock block = new CellBlock(Math.max(0, to - from));
+            for (int c = from; c < to; c++) {
+                block.add(3L * c, latitudes[c], longitudes[c], 262, 1, c / 100, c, 0);
+            }
+            return block;
+        }
+    }
+}
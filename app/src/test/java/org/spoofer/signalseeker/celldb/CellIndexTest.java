@@ -0,0 +1,137 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes small cell index snapshots and maps them back, checking every column of every cell, and that snapshots
+ * of another version, truncated, or not written in full are refused.
+ */
+public class CellIndexTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cellindex").toFile();
+        file = new File(dir, "cells.db" + CellIndex.EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void write_readsBack() throws IOException {
+        CellBlock block = block(5000);
+        write(block, block.size);
+        CellIndex index = CellIndex.map(file);
+        assertEquals(block.size, index.size());
+        for (int i = 0; i < block.size; i++) {
+            assertEquals(block.geohashes[i], index.keyAt(i));
+            assertEquals(block.ids[i], index.id(i));
+            assertEquals(block.updated[i], index.updated(i));
+            assertEquals(block.latitudes[i], index.latitude(i), 1e-5);
+            assertEquals(block.longitudes[i], index.longitude(i), 1e-5);
+            assertEquals(block.mcc[i], index.mcc(i));
+            assertEquals(block.mnc[i], index.mnc(i));
+            assertEquals(block.lac[i], index.lac(i));
+            assertEquals(block.cid[i], index.cid(i));
+        }
+        assertEquals(1, dir.listFiles().length); // the temporary file was renamed into place
+    }
+
+    @Test
+    public void write_empty() throws IOException {
+        write(block(0), 0);
+        assertEquals(0, CellIndex.map(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void map_otherVersion() throws IOException {
+        write(block(10), 10);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(Integer.reverseBytes(1));
+        }
+        CellIndex.map(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void map_truncated() throws IOException {
+        write(block(10), 10);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        CellIndex.map(file);
+    }
+
+    @Test
+    public void finish_refusesMissingCells() throws IOException {
+        CellBlock block = block(10);
+        try (CellIndex.Writer writer = new CellIndex.Writer(file, 11)) {
+            for (int i = 0; i < block.size; i++) {
+                writer.add(block, i);
+            }
+            writer.finish(0, 0, null);
+            fail("finished with a cell missing");
+        } catch (IOException expected) {
+        }
+        // the writer deleted what it wrote
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void add_refusesExtraCells() throws IOException {
+        CellBlock block = block(10);
+        try (CellIndex.Writer writer = new CellIndex.Writer(file, 9)) {
+            for (int i = 0; i < block.size; i++) {
+                writer.add(block, i);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void writer_refusesTooManyCells() throws IOException {
+        try {
+            new CellIndex.Writer(file, CellIndex.MAX_COUNT + 1).close();
+        } finally {
+            assertEquals(0, dir.listFiles().length);
+        }
+    }
+
+    private void write(CellBlock block, int count) throws IOException {
+        try (CellIndex.Writer writer = new CellIndex.Writer(file, count)) {
+            for (int i = 0; i < block.size; i++) {
+                writer.add(block, i);
+            }
+            writer.finish(0, 0, null);
+        }
+    }
+
+    // block returns derived cells, in no particular order, which the writer does not check.
+    private static CellBlock block(int count) {
+        Random rnd = new Random(count);
+        CellBlock block = new CellBlock(count);
+        for (int i = 0; i < count; i++) {
+            block.add(i + 1, 47 + rnd.nextDouble() * 8, 5 + rnd.nextDouble() * 10, 262, rnd.nextInt(10),
+                    rnd.nextInt(65536), rnd.nextInt(1 << 28), 1500000000000L + rnd.nextInt());
+        }
+        block.derive();
+        return block;
+    }
+}
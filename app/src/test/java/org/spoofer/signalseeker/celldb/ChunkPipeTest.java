@@ -0,0 +1,121 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hands bytes from a producer thread to a reader through a chunk pipe, checking they arrive whole and in order,
+ * that a slow reader holds back the producer, and the end of the stream and interrupts.
+ */
+public class ChunkPipeTest {
+
+    @Test
+    public void read_bytesInOrder() throws Exception {
+        final byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        final ChunkPipe pipe = new ChunkPipe(3, 1000);
+        Thread producer = produce(pipe, data, 777);
+
+        byte[] read = new byte[data.length];
+        int n = 0;
+        // single bytes and buffers of odd sizes
+        read[n++] = (byte) pipe.read();
+        while (n < read.length) {
+            int r = pipe.read(read, n, Math.min(333, read.length - n));
+            assertTrue(r > 0);
+            n += r;
+        }
+        producer.join();
+        assertArrayEquals(data, read);
+        assertEquals(-1, pipe.read());
+        assertEquals(-1, pipe.read(read, 0, 1));
+        assertEquals(0, pipe.available());
+    }
+
+    @Test
+    public void obtain_waitsForReader() throws Exception {
+        final ChunkPipe pipe = new ChunkPipe(2, 10);
+        for (int i = 0; i < 2; i++) {
+            ChunkPipe.Chunk c = pipe.obtain();
+            c.data[0] = (byte) i;
+            c.length = 1;
+            pipe.send(c);
+        }
+        final AtomicReference<ChunkPipe.Chunk> third = new AtomicReference<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    third.set(pipe.obtain());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        producer.join(200);
+        // every chunk is waiting to be read
+        assertTrue(producer.isAlive());
+        assertNull(third.get());
+
+        assertEquals(0, pipe.read());
+        assertEquals(1, pipe.read()); // the first chunk is handed back
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertNotNull(third.get());
+        assertEquals(0, third.get().length);
+        assertTrue(pipe.producerWait() > 0);
+    }
+
+    @Test
+    public void send_emptyChunkIsFreed() throws Exception {
+        ChunkPipe pipe = new ChunkPipe(1, 10);
+        pipe.send(pipe.obtain());
+        pipe.finish();
+        // the chunk was not sent to the reader, so is free again
+        assertNotNull(pipe.obtain());
+        assertEquals(-1, pipe.read());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void read_interrupted() throws IOException {
+        ChunkPipe pipe = new ChunkPipe(1, 10);
+        Thread.currentThread().interrupt();
+        try {
+            pipe.read();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    // produce writes the data through the pipe on a thread of its own, in pieces of the given size.
+    private static Thread produce(final ChunkPipe pipe, final byte[] data, final int piece) {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int off = 0;
+                    while (off < data.length) {
+                        ChunkPipe.Chunk c = pipe.obtain();
+                        int n = Math.min(Math.min(piece, c.data.length), data.length - off);
+                        System.arraycopy(data, off, c.data, 0, n);
+                        c.length = n;
+                        pipe.send(c);
+                        off += n;
+                    }
+                    pipe.finish();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        return producer;
+    }
+}
@@ -0,0 +1,127 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the query throughput of several threads sharing a connection pool as its number of readers grows, from
+ * the single connection every query queued for before. SQLite needs a device, so each connection is a stand in
+ * whose query does a little work and then waits, as a query does on the flash. Checks no connection is ever lent to
+ * two threads at once; ConnectionPoolTest checks the writer and closing the pool.
+ */
+public class ConnectionPoolBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int QUERIES = 400;      // per thread
+    private static final long QUERY_WAIT = 200;  // microseconds waiting on storage per query
+
+    @Test
+    public void readers_scaleThroughput() throws Exception {
+        double single = 0;
+        for (int readers : new int[]{1, 2, 4, 8}) {
+            run(readers); // warm up
+            double perSecond = run(readers);
+            if (readers == 1)
+                single = perSecond;
+            System.out.printf("%d readers: %.0f queries/s, %.1fx one reader%n", readers, perSecond, perSecond / single);
+            if (readers == 4)
+                assertTrue("4 readers " + perSecond + " against 1 " + single, perSecond > single * 2);
+        }
+    }
+
+    // run has THREADS threads query through a pool of the given readers, returning the queries a second.
+    private static double run(int readers) throws Exception {
+        FakeFactory factory = new FakeFactory();
+        final ConnectionPool<FakeConnection> pool = new ConnectionPool<>(factory, readers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < QUERIES; i++) {
+                            FakeConnection c = pool.acquireReader();
+                            try {
+                                c.query();
+                            } finally {
+                                pool.releaseReader(c);
+                            }
+                        }
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - begin;
+        pool.close();
+
+        assertEquals(0, failures.get());
+        assertTrue(factory.opened.size() - 1 <= readers);
+        long queries = 0;
+        for (FakeConnection c : factory.opened) {
+            queries += c.queries.get();
+        }
+        assertEquals(THREADS * QUERIES, queries);
+        return queries * 1e9 / elapsed;
+    }
+
+    // FakeConnection stands in for a connection, failing if two threads use it at once.
+    private static class FakeConnection {
+        final AtomicInteger users = new AtomicInteger();
+        final AtomicLong queries = new AtomicLong();
+        volatile boolean closed;
+        private long work;
+
+        void query() {
+            if (users.incrementAndGet() != 1)
+                throw new IllegalStateException("Connection used by two threads");
+            try {
+                if (closed)
+                    throw new IllegalStateException("Connection is closed");
+                for (int i = 0; i < 2000; i++) {
+                    work = work * 31 + i;
+                }
+                LockSupport.parkNanos(QUERY_WAIT * 1000);
+                queries.incrementAndGet();
+            } finally {
+                users.decrementAndGet();
+            }
+        }
+    }
+
+    private static class FakeFactory implements ConnectionPool.Factory<FakeConnection> {
+        final List<FakeConnection> opened = new ArrayList<>();
+        @Override
+        public synchronized FakeConnection open(boolean writer) {
+            FakeConnection c = new FakeConnection();
+            opened.add(c);
+            return c;
+        }
+
+        @Override
+        public void close(FakeConnection connection, boolean writer) {
+            assertFalse(connection.closed);
+            connection.closed = true;
+        }
+    }
+}
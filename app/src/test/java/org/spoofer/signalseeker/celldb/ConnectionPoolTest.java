@@ -0,0 +1,192 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lends the connections of a pool of stand in connections, checking the writer is only ever held by one thread,
+ * that trying for it while it is held returns at once, and that closing the pool closes every connection and ends
+ * a wait for a reader.
+ */
+public class ConnectionPoolTest {
+
+    @Test
+    public void writer_heldByOneThread() throws Exception {
+        Factory factory = new Factory();
+        final ConnectionPool<Connection> pool = new ConnectionPool<>(factory, 4);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            Connection writer = pool.acquireWriter();
+                            try {
+                                writer.use();
+                            } finally {
+                                pool.releaseWriter(writer);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, factory.opened.size());
+        assertEquals(200, factory.opened.get(0).uses.get());
+        pool.close();
+    }
+
+    @Test
+    public void close_closesEveryConnection() throws Exception {
+        Factory factory = new Factory();
+        ConnectionPool<Connection> pool = new ConnectionPool<>(factory, 3);
+        Connection a = pool.acquireReader();
+        Connection b = pool.acquireReader();
+        pool.releaseReader(a);
+        pool.releaseReader(b);
+        assertSame(a, pool.acquireReader()); // an idle reader is reused rather than another opened
+        pool.releaseReader(a);
+        assertEquals(2, pool.readers());
+
+        pool.close();
+        assertEquals(3, factory.opened.size());
+        for (Connection c : factory.opened) {
+            assertTrue(c.closed);
+        }
+        try {
+            pool.acquireWriter();
+            fail("pool is closed");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void acquireReader_closeEndsWait() throws Exception {
+        final ConnectionPool<Connection> pool = new ConnectionPool<>(new Factory(), 1);
+        pool.acquireReader();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final AtomicInteger refused = new AtomicInteger();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                try {
+                    pool.acquireReader();
+                } catch (IOException expected) {
+                    refused.incrementAndGet();
+                }
+            }
+        });
+        waiter.start();
+        assertTrue(waiting.await(10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertTrue(waiter.isAlive());
+
+        pool.close();
+        waiter.join(10000);
+        assertFalse("close left the waiter waiting", waiter.isAlive());
+        assertEquals(1, refused.get());
+    }
+
+    @Test
+    public void tryAcquireWriter_busy() throws Exception {
+        final ConnectionPool<Connection> pool = new ConnectionPool<>(new Factory(), 2);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Connection writer = pool.acquireWriter();
+                    held.countDown();
+                    done.await();
+                    pool.releaseWriter(writer);
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        holder.start();
+        assertTrue(held.await(10, TimeUnit.SECONDS));
+        assertNull(pool.tryAcquireWriter());
+
+        done.countDown();
+        holder.join();
+        Connection writer = pool.tryAcquireWriter();
+        assertNotNull(writer);
+        assertTrue(writer.writer);
+        // the thread holding the writer may take it again, as with acquireWriter
+        assertSame(writer, pool.tryAcquireWriter());
+        pool.releaseWriter(writer);
+        pool.releaseWriter(writer);
+        pool.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void tryAcquireWriter_closed() throws IOException {
+        ConnectionPool<Connection> pool = new ConnectionPool<>(new Factory(), 1);
+        pool.close();
+        pool.tryAcquireWriter();
+    }
+
+    // Connection stands in for a database connection, failing if two threads use it at once.
+    private static class Connection {
+        final boolean writer;
+        final AtomicInteger users = new AtomicInteger();
+        final AtomicInteger uses = new AtomicInteger();
+        volatile boolean closed;
+
+        Connection(boolean writer) {
+            this.writer = writer;
+        }
+
+        void use() {
+            if (users.incrementAndGet() != 1)
+                throw new IllegalStateException("Connection used by two threads");
+            try {
+                if (closed)
+                    throw new IllegalStateException("Connection is closed");
+                Thread.yield();
+                uses.incrementAndGet();
+            } finally {
+                users.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Factory implements ConnectionPool.Factory<Connection> {
+        final List<Connection> opened = new ArrayList<>();
+
+        @Override
+        public synchronized Connection open(boolean writer) {
+            Connection c = new Connection(writer);
+            opened.add(c);
+            return c;
+        }
+
+        @Override
+        public synchronized void close(Connection connection, boolean writer) {
+            assertFalse(connection.closed);
+            connection.closed = true;
+        }
+    }
+}
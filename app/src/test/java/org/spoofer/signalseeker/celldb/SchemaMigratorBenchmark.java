@@ -0,0 +1,161 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migrates the snapshot and id table of a 2M cell synthetic country when the country changes, and measures the
+ * cell id lookups answered from the old structures while the new ones are rebuilt in the background: their rate
+ * against the rate beforehand, the longest stall, and that every answer is still right. The snapshot is generated
+ * rather than built from SQLite, which needs a device; CalculatedTableTest rebuilds the calculated table on one.
+ */
+public class SchemaMigratorBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final int BATCH = 1024; // lookups timed together
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("migrate").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void staleRebuild_servesOldUntilSwapped() throws Exception {
+        String dbpath = new File(dir, "de.sqlite").getPath();
+        SchemaMigratorTest.GeneratedSnapshot snapshot = new SchemaMigratorTest.GeneratedSnapshot(dbpath, CELLS, 1);
+        SchemaMigrator.IdTable ids = new SchemaMigrator.IdTable(dbpath);
+        final CountDownLatch migrated = new CountDownLatch(1);
+        SchemaMigrator migrator = new SchemaMigrator(Arrays.asList(snapshot, ids), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command, "cell-migration").start();
+            }
+        }, new SchemaMigrator.Listener() {
+            @Override
+            public void onMigrated() {
+                migrated.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        // nothing there yet, so both are built before migrate returns
+        assertFalse(migrator.migrate());
+        assertEquals(SchemaMigrator.CURRENT, snapshot.state());
+        assertEquals(SchemaMigrator.CURRENT, ids.state());
+
+        CellIndex oldIndex = CellIndex.map(snapshot.file);
+        CellIdTable oldIds = CellIdTable.map(new File(dbpath + CellIdTable.EXTENSION));
+        int[] positions = sample(oldIndex, new Random(3));
+        long[] keys = keys(oldIndex, positions);
+        // warm up the JIT, then time the lookups with nothing else running
+        lookups(oldIds, keys, positions, 200);
+        Run before = lookups(oldIds, keys, positions, 1000);
+
+        // the country changes, so the snapshot, and the id table with it, are stale
+        snapshot.seed = 2;
+        assertEquals(SchemaMigrator.STALE, snapshot.state());
+        long start = System.nanoTime();
+        assertTrue(migrator.migrate());
+        Run during = new Run();
+        while (migrated.getCount() > 0) {
+            during.add(lookups(oldIds, keys, positions, 50));
+        }
+        long rebuilt = System.nanoTime() - start;
+        assertTrue(migrated.await(1, TimeUnit.SECONDS));
+        assertFalse(migrator.isRebuilding());
+
+        System.out.printf("rebuilt snapshot and id table of %d cells in %d ms%n", CELLS, rebuilt / 1000000);
+        System.out.printf("lookups before %.1fM/s; during rebuild %.1fM/s, longest stall %d us, %d lookups%n",
+                before.perSecond() / 1e6, during.perSecond() / 1e6, during.longest / 1000, during.count);
+        assertTrue(during.count > 0);
+        assertEquals(SchemaMigrator.CURRENT, snapshot.state());
+        assertEquals(SchemaMigrator.CURRENT, ids.state());
+
+        // the old mappings still answer after their files were replaced, and the new ones answer for the new cells
+        lookups(oldIds, keys, positions, 10);
+        CellIndex newIndex = CellIndex.map(snapshot.file);
+        CellIdTable newIds = CellIdTable.map(new File(dbpath + CellIdTable.EXTENSION));
+        int[] newPositions = sample(newIndex, new Random(4));
+        lookups(newIds, keys(newIndex, newPositions), newPositions, 10);
+    }
+
+    private static int[] sample(CellIndex index, Random rnd) {
+        int[] positions = new int[1 << 16];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = rnd.nextInt(index.size());
+        }
+        return positions;
+    }
+
+    private static long[] keys(CellIndex index, int[] positions) {
+        long[] keys = new long[positions.length];
+        for (int i = 0; i < keys.length; i++) {
+            int p = positions[i];
+            keys[i] = CellIdTable.key(index.mcc(p), index.mnc(p), index.lac(p), index.cid(p));
+        }
+        return keys;
+    }
+
+    // lookups looks up batches of the keys, checking each finds its position.
+    private static Run lookups(CellIdTable table, long[] keys, int[] positions, int batches) {
+        Run run = new Run();
+        int k = 0;
+        for (int b = 0; b < batches; b++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++, k = (k + 1) & (keys.length - 1)) {
+                assertEquals(positions[k], table.find(keys[k]));
+            }
+            run.record(System.nanoTime() - start);
+        }
+        return run;
+    }
+
+    // Run totals the lookups of one or more timed runs.
+    private static class Run {
+        long count;
+        long nanos;
+        long longest;
+
+        void record(long elapsed) {
+            count += BATCH;
+            nanos += elapsed;
+            longest = Math.max(longest, elapsed);
+        }
+
+        void add(Run r) {
+            count += r.count;
+            nanos += r.nanos;
+            longest = Math.max(longest, r.longest);
+        }
+
+        double perSecond() {
+            return count * 1e9 / Math.max(1, nanos);
+        }
+    }
+}
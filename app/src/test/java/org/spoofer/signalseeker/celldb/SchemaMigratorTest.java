@@ -0,0 +1,104 @@
+package org.spoofer.signalseeker.celldb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migrates the snapshot and id table of a small synthetic country, checking a table of an older version is rebuilt
+ * at once rather than in the background. The snapshot is generated rather than built from SQLite, which needs a
+ * device.
+ */
+public class SchemaMigratorTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("migrate").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void olderVersion_rebuiltAtOnce() throws Exception {
+        String dbpath = new File(dir, "fr.sqlite").getPath();
+        GeneratedSnapshot snapshot = new GeneratedSnapshot(dbpath, 10000, 5);
+        snapshot.rebuild();
+        File file = new File(dbpath + CellIdTable.EXTENSION);
+        CellIdTable.build(CellIndex.map(snapshot.file), snapshot.file, file);
+        SchemaMigrator.IdTable ids = new SchemaMigrator.IdTable(dbpath);
+        assertEquals(SchemaMigrator.CURRENT, ids.state());
+
+        // a table laid out by an older version of the app
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(Integer.reverseBytes(0));
+        }
+        assertEquals(SchemaMigrator.MISSING, ids.state());
+
+        SchemaMigrator migrator = new SchemaMigrator(Arrays.<SchemaMigrator.Structure>asList(snapshot, ids),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        fail("nothing is stale");
+                    }
+                }, null);
+        assertFalse(migrator.migrate());
+        assertEquals(SchemaMigrator.CURRENT, ids.state());
+    }
+
+    // GeneratedSnapshot stands in for the snapshot of a database, generating a country of the given cells and seed
+    // rather than reading SQLite. It is stale once the seed changes.
+    static class GeneratedSnapshot implements SchemaMigrator.Structure {
+        final File file;
+        final int cells;
+        volatile long seed;
+        private long built = -1;
+
+        GeneratedSnapshot(String dbpath, int cells, long seed) {
+            this.file = new File(dbpath + CellIndex.EXTENSION);
+            this.cells = cells;
+            this.seed = seed;
+        }
+
+        @Override
+        public String name() {
+            return file.getName();
+        }
+
+        @Override
+        public int state() {
+            if (!file.exists())
+                return SchemaMigrator.MISSING;
+            return built == seed ? SchemaMigrator.CURRENT : SchemaMigrator.STALE;
+        }
+
+        @Override
+        public void rebuild() throws IOException {
+            long s = seed;
+            try {
+                new CellGenerator(cells, 47.3, 5.9, 55.0, 15.0, 262, s).writeIndex(file, ForkJoinPool.commonPool());
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+            built = s;
+        }
+    }
+}
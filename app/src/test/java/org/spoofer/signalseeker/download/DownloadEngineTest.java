@@ -0,0 +1,228 @@
+package org.spoofer.signalseeker.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the download engine against a local HTTP server streaming generated content.
+ * The file size defaults to 32MB and can be raised, e.g. -Ddownload.test.size=500000000, to test with
+ * multi-hundred-MB files.
+ */
+public class DownloadEngineTest {
+
+    private static final long SIZE = Long.getLong("download.test.size", 32L * 1024 * 1024);
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private URL url;
+    private File dir;
+    private volatile String lastRange;
+    private volatile long cutOffAt = -1;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/de.sqlite", new ContentHandler());
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/de.sqlite");
+        dir = Files.createTempDirectory("download").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void download_fullFile_matchesChecksum() throws Exception {
+        File target = new File(dir, "de.sqlite");
+        Result r = run(target, expectedSha256(SIZE));
+
+        assertNull(r.error);
+        assertEquals(SIZE, target.length());
+        assertEquals(expectedSha256(SIZE), r.sha256);
+        assertEquals(SIZE, r.lastProgress);
+        assertFalse(new File(dir, "de.sqlite.part").exists());
+    }
+
+    @Test
+    public void download_interrupted_resumesFromPartFile() throws Exception {
+        File target = new File(dir, "de.sqlite");
+        cutOffAt = SIZE / 2;
+        Result first = run(target, expectedSha256(SIZE));
+        assertNotNull(first.error);
+        assertFalse(target.exists());
+
+        cutOffAt = -1;
+        Result second = run(target, expectedSha256(SIZE));
+
+        assertNull(second.error);
+        assertNotNull(lastRange);
+        assertTrue(lastRange.startsWith("bytes="));
+        assertEquals(SIZE, target.length());
+        assertEquals(expectedSha256(SIZE), second.sha256);
+    }
+
+    @Test
+    public void download_wholePartFile_finishesWithoutRefetching() throws Exception {
+        File target = new File(dir, "de.sqlite");
+        writeContent(new File(dir, "de.sqlite.part"), SIZE);
+        Files.write(new File(dir, "de.sqlite.part.etag").toPath(), ETAG.getBytes());
+
+        Result r = run(target, expectedSha256(SIZE));
+
+        assertNull(r.error);
+        assertEquals("bytes=" + SIZE + "-", lastRange);
+        assertEquals(SIZE, target.length());
+        assertEquals(expectedSha256(SIZE), r.sha256);
+        assertEquals(SIZE, r.lastProgress);
+        assertFalse(new File(dir, "de.sqlite.part").exists());
+        assertFalse(new File(dir, "de.sqlite.part.etag").exists());
+    }
+
+    @Test
+    public void download_changedSource_restartsFromBeginning() throws Exception {
+        File target = new File(dir, "de.sqlite");
+        writeContent(new File(dir, "de.sqlite.part"), SIZE / 4);
+        Files.write(new File(dir, "de.sqlite.part.etag").toPath(), "\"old\"".getBytes());
+
+        Result r = run(target, expectedSha256(SIZE));
+
+        assertNull(r.error);
+        assertEquals(SIZE, target.length());
+    }
+
+    @Test
+    public void download_checksumMismatch_keepsExistingTarget() throws Exception {
+        File target = new File(dir, "de.sqlite");
+        Files.write(target.toPath(), "old database".getBytes());
+
+        Result r = run(target, "0000");
+
+        assertNotNull(r.error);
+        assertEquals("old database", new String(Files.readAllBytes(target.toPath())));
+        assertFalse(new File(dir, "de.sqlite.part").exists());
+    }
+
+    private Result run(File target, String sha256) {
+        Result r = new Result();
+        new DownloadEngine.Download(url, target, sha256, r).run();
+        return r;
+    }
+
+    private static class Result implements DownloadEngine.Listener {
+        volatile long lastProgress;
+        volatile String sha256;
+        volatile Exception error;
+
+        @Override
+        public void onProgress(long downloaded, long total) {
+            assertEquals(SIZE, total);
+            assertTrue(downloaded >= lastProgress);
+            lastProgress = downloaded;
+        }
+
+        @Override
+        public void onComplete(File file, String sha256) {
+            this.sha256 = sha256;
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            error = e;
+        }
+    }
+
+    private static byte contentAt(long i) {
+        return (byte) (i * 31 + (i >>> 11));
+    }
+
+    private static String expectedSha256(long size) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buf = new byte[64 * 1024];
+        for (long pos = 0; pos < size; ) {
+            int n = (int) Math.min(buf.length, size - pos);
+            for (int i = 0; i < n; i++) {
+                buf[i] = contentAt(pos + i);
+            }
+            md.update(buf, 0, n);
+            pos += n;
+        }
+        return DownloadEngine.hex(md.digest());
+    }
+
+    private static void writeContent(File file, long length) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeContent(out, 0, length);
+        }
+    }
+
+    private static void writeContent(OutputStream out, long from, long to) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        for (long pos = from; pos < to; ) {
+            int n = (int) Math.min(buf.length, to - pos);
+            for (int i = 0; i < n; i++) {
+                buf[i] = contentAt(pos + i);
+            }
+            out.write(buf, 0, n);
+            pos += n;
+        }
+    }
+
+    // ContentHandler serves SIZE bytes of generated content, honouring Range and If-Range, answers a range past the
+    // end with 416, and drops the connection part way through when cutOffAt is set.
+    private class ContentHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            String range = ex.getRequestHeaders().getFirst("Range");
+            String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+            long start = 0;
+            if (range != null && ETAG.equals(ifRange)) {
+                lastRange = range;
+                start = Long.parseLong(range.substring(6, range.indexOf('-')));
+            }
+
+            ex.getResponseHeaders().set("ETag", ETAG);
+            if (start >= SIZE) {
+                ex.getResponseHeaders().set("Content-Range", "bytes */" + SIZE);
+                ex.sendResponseHeaders(416, -1);
+                ex.close();
+                return;
+            }
+            long end = cutOffAt > 0 ? cutOffAt : SIZE;
+            if (start > 0) {
+                ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+                ex.sendResponseHeaders(206, SIZE - start);
+            } else {
+                ex.sendResponseHeaders(200, SIZE);
+            }
+            try (OutputStream out = ex.getResponseBody()) {
+                writeContent(out, start, end);
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                ex.close();
+            }
+        }
+    }
+}
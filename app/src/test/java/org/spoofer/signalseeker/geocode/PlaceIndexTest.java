@@ -0,0 +1,126 @@
+package org.spoofer.signalseeker.geocode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds a place index from a few lines of a GeoNames style gazetteer, and from the bundled one, and queries it.
+ */
+public class PlaceIndexTest {
+
+    private static final String GAZETTEER =
+            "2950159\tBerlin\tBerlin\t\t52.52437\t13.41053\tP\tPPLC\tDE\n" +
+            "2852458\tPotsdam\tPotsdam\t\t52.39886\t13.06566\tP\tPPLA\tDE\n" +
+            "2911298\tHamburg\tHamburg\t\t53.55073\t9.99302\tP\tPPLA\tDE\n" +
+            "2867714\tM\u00fcnchen\tMunich\t\t48.13743\t11.57549\tP\tPPLA\tDE\n" +
+            "3017382\tStrasbourg\tStrasbourg\t\t48.58392\t7.74553\n" +
+            "1\t\tNo name\t\t50.0\t10.0\tP\tPPL\tDE\n" +
+            "2\tNowhere\tNowhere\t\tnorth\t10.0\tP\tPPL\tDE\n" +
+            "not a gazetteer line\n";
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("places").toFile();
+        file = new File(dir, "places.idx");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void build_skipsUnparsableLines() throws IOException {
+        assertEquals(5, build(42));
+        PlaceIndex index = PlaceIndex.open(file);
+        assertEquals(5, index.size());
+        assertEquals(42, index.sourceVersion());
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(index.keyAt(i - 1) <= index.keyAt(i));
+        }
+    }
+
+    @Test
+    public void nearest_namesClosestPlace() throws IOException {
+        build(1);
+        PlaceIndex index = PlaceIndex.open(file);
+
+        // Alexanderplatz is in Berlin, not Potsdam
+        GeoIndex.Nearest nearest = index.nearest(52.5219, 13.4132, 2, 50000);
+        assertEquals(2, nearest.size());
+        assertEquals("Berlin, DE", index.name(nearest.position(0)));
+        assertEquals("Potsdam, DE", index.name(nearest.position(1)));
+        assertEquals(52.52437, index.latitude(nearest.position(0)), 1e-4);
+        assertEquals(13.41053, index.longitude(nearest.position(0)), 1e-4);
+
+        // names keep their UTF-8, and a line without a country names the place alone
+        assertEquals("M\u00fcnchen, DE", index.name(index.nearest(48.14, 11.58, 1, 50000).position(0)));
+        assertEquals("Strasbourg", index.name(index.nearest(48.58, 7.75, 1, 50000).position(0)));
+    }
+
+    @Test
+    public void nearest_noneInRange() throws IOException {
+        build(1);
+        PlaceIndex index = PlaceIndex.open(file);
+        // the middle of the North Sea is over 50 km from every place
+        assertEquals(0, index.nearest(55.5, 4.0, 1, 50000).size());
+    }
+
+    @Test
+    public void build_replacesExistingIndex() throws IOException {
+        build(1);
+        assertEquals(5, build(2));
+        assertEquals(2, PlaceIndex.open(file).sourceVersion());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void build_bundledGazetteer() throws IOException {
+        // unit tests run in the module directory
+        try (InputStream in = new FileInputStream("src/main/assets/gazetteer.txt")) {
+            assertEquals(357, PlaceIndex.build(in, 1, file));
+        }
+        PlaceIndex index = PlaceIndex.open(file);
+        assertEquals("Berlin, DE", index.name(index.nearest(52.5219, 13.4132, 1, 50000).position(0)));
+        assertEquals("K\u00f6ln, DE", index.name(index.nearest(50.94, 6.96, 1, 50000).position(0)));
+        assertEquals("Strasbourg, FR", index.name(index.nearest(48.58, 7.75, 1, 50000).position(0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_truncated() throws IOException {
+        build(1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(40);
+        }
+        PlaceIndex.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_notAnIndex() throws IOException {
+        Files.write(file.toPath(), GAZETTEER.getBytes(StandardCharsets.UTF_8));
+        PlaceIndex.open(file);
+    }
+
+    private int build(long version) throws IOException {
+        return PlaceIndex.build(new ByteArrayInputStream(GAZETTEER.getBytes(StandardCharsets.UTF_8)), version, file);
+    }
+}
@@ -0,0 +1,129 @@
+package org.spoofer.signalseeker.location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.celldb.Cell;
+import org.spoofer.signalseeker.celldb.CellLookup;
+import org.spoofer.signalseeker.spatial.ArrayIndex;
+import org.spoofer.signalseeker.spatial.GeoHash;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cells the cache returns for fixes spread across tiles, their corners and edges included, against the
+ * cells an index lookup finds for the fix itself.
+ */
+public class LocalCellCacheTest {
+
+    private static final int LOCAL_CELLS = 25;
+    private static final int TILE_BITS = 30;
+    private static final double MAX_DISTANCE = 50000;
+
+    private ArrayIndex index;
+    private IndexLookup lookup;
+
+    @Before
+    public void setUp() {
+        index = ArrayIndex.generate(200000, new Random(1));
+        lookup = new IndexLookup(index);
+    }
+
+    @Test
+    public void find_matchesLookupAcrossTile() {
+        LocalCellCache cache = new LocalCellCache();
+        IndexLookup expected = new IndexLookup(index);
+        Random rnd = new Random(2);
+        for (int t = 0; t < 20; t++) {
+            // a tile around a random cell, so it is in a town's cells rather than between them
+            int p = rnd.nextInt(index.size());
+            long tile = GeoHash.encode(index.latitude(p), index.longitude(p), TILE_BITS);
+            double south = GeoHash.latitude(tile, TILE_BITS) - GeoHash.tileHeight(TILE_BITS) / 2;
+            double west = GeoHash.longitude(tile, TILE_BITS) - GeoHash.tileWidth(TILE_BITS) / 2;
+            for (int y = 0; y <= 10; y++) {
+                for (int x = 0; x <= 10; x++) {
+                    // just inside the tile, so the fix is not in the next one
+                    double lat = south + GeoHash.tileHeight(TILE_BITS) * Math.min(y / 10.0, 0.999);
+                    double lon = west + GeoHash.tileWidth(TILE_BITS) * Math.min(x / 10.0, 0.999);
+                    assertEquals(tile, GeoHash.encode(lat, lon, TILE_BITS));
+                    assertSameCells(expected.findLocalCells(lat, lon, LOCAL_CELLS), cache.find(lookup, lat, lon));
+                }
+            }
+        }
+        // most fixes were answered from their tile, only those near its edge looked up again
+        assertTrue("lookups " + lookup.lookups, lookup.lookups < 20 + 20 * 121 / 4);
+    }
+
+    @Test
+    public void find_denseCells() {
+        // cells so dense the candidates of a tile reach less far than its corners, about 250 a square km
+        Random rnd = new Random(3);
+        double[] lats = new double[20000];
+        double[] lons = new double[lats.length];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = 52.45 + rnd.nextDouble() * 0.1;
+            lons[i] = 13.35 + rnd.nextDouble() * 0.1;
+        }
+        ArrayIndex dense = ArrayIndex.of(lats, lons);
+        IndexLookup expected = new IndexLookup(dense);
+        IndexLookup lookup = new IndexLookup(dense);
+        LocalCellCache cache = new LocalCellCache();
+        for (int q = 0; q < 500; q++) {
+            double lat = 52.47 + rnd.nextDouble() * 0.06;
+            double lon = 13.37 + rnd.nextDouble() * 0.06;
+            assertSameCells(expected.findLocalCells(lat, lon, LOCAL_CELLS), cache.find(lookup, lat, lon));
+        }
+    }
+
+    @Test
+    public void find_sparseCells() {
+        LocalCellCache cache = new LocalCellCache();
+        // fewer cells in range than a lookup returns, out at sea off the towns
+        double lat = 46.2;
+        double lon = 4.0;
+        List<Cell> expected = lookup.findLocalCells(lat, lon, LOCAL_CELLS);
+        assertTrue(expected.size() < LOCAL_CELLS);
+        assertSameCells(expected, cache.find(lookup, lat, lon));
+    }
+
+    private static void assertSameCells(List<Cell> expected, List<Cell> found) {
+        assertNotNull(found);
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getCellID(), found.get(i).getCellID());
+            assertEquals(expected.get(i).getDistance(), found.get(i).getDistance());
+        }
+    }
+
+    // IndexLookup finds the nearest cells in an index, as the cell database does, counting its lookups.
+    private static class IndexLookup implements CellLookup {
+        private final GeoIndex index;
+        int lookups;
+
+        IndexLookup(GeoIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public List<Cell> findLocalCells(double latitude, double longitude, int limit) {
+            lookups++;
+            GeoIndex.Nearest nearest = index.nearest(latitude, longitude, limit, MAX_DISTANCE);
+            List<Cell> cells = new ArrayList<>(nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                int p = nearest.position(i);
+                cells.add(new Cell(Integer.toString(p), "262", "1", "1", index.latitude(p), index.longitude(p),
+                        Math.round(nearest.distance(i) / 1000), null));
+            }
+            return cells;
+        }
+
+        @Override
+        public Cell findCell(int mcc, int mnc, int lac, int cid) {
+            return null;
+        }
+    }
+}
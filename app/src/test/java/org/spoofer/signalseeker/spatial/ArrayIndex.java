@@ -0,0 +1,70 @@
+package org.spoofer.signalseeker.spatial;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// ArrayIndex is a GeoIndex held in arrays, for tests needing a country sized index without a database.
+public class ArrayIndex extends GeoIndex {
+    final long[] keys;
+    final double[] latitudes;
+    final double[] longitudes;
+
+    ArrayIndex(long[] keys, double[] latitudes, double[] longitudes) {
+        this.keys = keys;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    // generate spreads points over a country sized area, clustered around a few towns.
+    public static ArrayIndex generate(int count, Random rnd) {
+        double[][] towns = new double[50][];
+        for (int t = 0; t < towns.length; t++) {
+            towns[t] = new double[]{47 + rnd.nextDouble() * 4, 6 + rnd.nextDouble() * 6};
+        }
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            double[] town = towns[rnd.nextInt(towns.length)];
+            lats[i] = town[0] + rnd.nextGaussian() * 0.3;
+            lons[i] = town[1] + rnd.nextGaussian() * 0.3;
+        }
+        return of(lats, lons);
+    }
+
+    // of returns the index of the given points.
+    public static ArrayIndex of(double[] latitudes, double[] longitudes) {
+        int count = latitudes.length;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = GeoHash.encode(latitudes[i], longitudes[i]);
+        }
+        int[] order = KeySort.sort(keys, ForkJoinPool.commonPool());
+        double[] sortedLats = new double[count];
+        double[] sortedLons = new double[count];
+        for (int i = 0; i < count; i++) {
+            sortedLats[i] = latitudes[order[i]];
+            sortedLons[i] = longitudes[order[i]];
+        }
+        return new ArrayIndex(keys, sortedLats, sortedLons);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public long keyAt(int position) {
+        return keys[position];
+    }
+
+    @Override
+    public double latitude(int position) {
+        return latitudes[position];
+    }
+
+    @Override
+    public double longitude(int position) {
+        return longitudes[position];
+    }
+}
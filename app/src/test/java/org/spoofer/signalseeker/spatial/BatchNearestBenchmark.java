@@ -0,0 +1,55 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times resolving 200k field log points to their nearest cells over a country sized index of 2M cells,
+ * in one batch on 1 to 8 cores against one query per point. BatchNearestTest checks the batch finds the same cells.
+ */
+public class BatchNearestBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final int POINTS = 200000;
+    private static final int LIMIT = 5;
+    private static final double MAX_DISTANCE = 50000;
+
+    @Test
+    public void batch_pointsPerSecond() {
+        ArrayIndex index = ArrayIndex.generate(CELLS, new Random(42));
+        double[][] points = BatchNearestTest.logs(POINTS, new Random(9));
+        // warm up the JIT before timing
+        BatchNearest.search(index, points[0], points[1], LIMIT, MAX_DISTANCE, null, ForkJoinPool.commonPool());
+        single(index, points);
+
+        long start = System.nanoTime();
+        single(index, points);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("one by one: %d points in %d ms, %.0f points/s%n",
+                POINTS, elapsed / 1000000, POINTS * 1e9 / elapsed);
+
+        for (int cores = 1; cores <= 8; cores *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(cores);
+            try {
+                start = System.nanoTime();
+                BatchNearest.Result r = BatchNearest.search(index, points[0], points[1], LIMIT, MAX_DISTANCE,
+                        null, pool);
+                elapsed = System.nanoTime() - start;
+                System.out.printf("batch on %d cores: %d points in %d ms, %.0f points/s%n",
+                        cores, r.size(), elapsed / 1000000, POINTS * 1e9 / elapsed);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void single(GeoIndex index, double[][] points) {
+        for (int p = 0; p < points[0].length; p++) {
+            index.nearest(points[0][p], points[1][p], LIMIT, MAX_DISTANCE);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Resolves the points of a few field logs to their nearest cells in one batch, checking the batch finds the same
+ * cells as one query per point.
+ */
+public class BatchNearestTest {
+
+    private static final int LIMIT = 5;
+    private static final double MAX_DISTANCE = 50000;
+
+    @Test
+    public void batch_matchesSingleQueries() {
+        ArrayIndex index = ArrayIndex.generate(20000, new Random(5));
+        double[][] points = logs(5000, new Random(6));
+        GeoIndex.Filter filter = new GeoIndex.Filter() {
+            @Override
+            public boolean accept(int position) {
+                return position % 3 != 0;
+            }
+        };
+        BatchNearest.Result r = BatchNearest.search(index, points[0], points[1], LIMIT, MAX_DISTANCE, filter,
+                ForkJoinPool.commonPool());
+
+        assertEquals(points[0].length, r.size());
+        GeoIndex.Nearest expected = new GeoIndex.Nearest(LIMIT);
+        for (int p = 0; p < r.size(); p++) {
+            index.nearest(points[0][p], points[1][p], MAX_DISTANCE, filter, expected);
+            assertEquals("point " + p, expected.size(), r.count(p));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("point " + p, expected.position(i), r.position(p, i));
+                assertEquals("point " + p, expected.distance(i), r.distance(p, i), 0.01);
+            }
+        }
+    }
+
+    // logs returns the points of field logs, as latitudes and longitudes: walks of a few hundred points each,
+    // starting anywhere in the country, in the order they were logged.
+    static double[][] logs(int count, Random rnd) {
+        double[][] points = new double[2][count];
+        double[] p = new double[2];
+        for (int i = 0; i < count; i++) {
+            if (i % 500 == 0) {
+                p[0] = 47 + rnd.nextDouble() * 4;
+                p[1] = 6 + rnd.nextDouble() * 6;
+            }
+            GeoMath.destination(p[0], p[1], rnd.nextDouble() * 360, rnd.nextDouble() * 100, p);
+            points[0][i] = p[0];
+            points[1][i] = p[1];
+        }
+        return points;
+    }
+}
@@ -0,0 +1,47 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times a corridor query along a 500 km route over a country sized index of 2M cells.
+ * CorridorTest checks the cells found against a brute force search.
+ */
+public class CorridorBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final double ROUTE_LENGTH = 500000; // metres
+    private static final double SEGMENT_LENGTH = 200;  // metres
+    private static final double MAX_DISTANCE = 2000;
+    private static final int LIMIT = 5;
+
+    @Test
+    public void route500km_sweep() {
+        ArrayIndex index = ArrayIndex.generate(CELLS, new Random(42));
+        double[][] route = CorridorTest.route(47.5, 6.5, 45, ROUTE_LENGTH, SEGMENT_LENGTH);
+        GeoIndex.Filter operator = new GeoIndex.Filter() {
+            @Override
+            public boolean accept(int position) {
+                return position % 4 == 0;
+            }
+        };
+        // warm up the JIT before timing
+        Corridor.search(index, route[0], route[1], MAX_DISTANCE, LIMIT, operator);
+
+        long start = System.nanoTime();
+        GeoIndex.Nearest[] found = Corridor.search(index, route[0], route[1], MAX_DISTANCE, LIMIT, operator);
+        long elapsed = System.nanoTime() - start;
+
+        int gaps = 0;
+        for (GeoIndex.Nearest n : found) {
+            if (n.size() == 0)
+                gaps++;
+        }
+        System.out.printf("%d segments over %d cells in %d ms, %d gaps%n",
+                found.length, CELLS, elapsed / 1000000, gaps);
+        assertEquals(route[0].length - 1, found.length);
+    }
+}
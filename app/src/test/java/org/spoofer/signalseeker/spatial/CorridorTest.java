@@ -0,0 +1,52 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a corridor query along a 100 km route over a small index, checking the cells found for each segment against
+ * a brute force search.
+ */
+public class CorridorTest {
+
+    private static final double MAX_DISTANCE = 2000;
+    private static final int LIMIT = 5;
+
+    @Test
+    public void search_matchesBruteForce() {
+        ArrayIndex index = ArrayIndex.generate(20000, new Random(7));
+        double[][] route = route(48, 7, 30, 100000, 1500);
+        GeoIndex.Nearest[] found = Corridor.search(index, route[0], route[1], MAX_DISTANCE, LIMIT, null);
+
+        for (int s = 0; s < found.length; s++) {
+            double scale = Math.cos(Math.toRadians((route[0][s] + route[0][s + 1]) / 2));
+            GeoIndex.Nearest expected = new GeoIndex.Nearest(LIMIT);
+            for (int p = 0; p < index.size(); p++) {
+                double d = Corridor.segmentDistance(index.latitude(p), index.longitude(p),
+                        route[0][s], route[1][s], route[0][s + 1], route[1][s + 1], scale);
+                if (d <= MAX_DISTANCE)
+                    expected.offer(p, d);
+            }
+            assertEquals("segment " + s, expected.size(), found[s].size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("segment " + s, expected.distance(i), found[s].distance(i), 1e-6);
+            }
+        }
+    }
+
+    // route returns the latitudes and longitudes of a straight route on the bearing, as two arrays.
+    static double[][] route(double lat, double lon, double bearing, double length, double step) {
+        int points = (int) (length / step) + 1;
+        double[][] route = new double[2][points];
+        double[] p = new double[2];
+        for (int i = 0; i < points; i++) {
+            GeoMath.destination(lat, lon, bearing, i * step, p);
+            route[0][i] = p[0];
+            route[1][i] = p[1];
+        }
+        return route;
+    }
+}
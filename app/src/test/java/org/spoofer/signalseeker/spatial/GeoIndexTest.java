@@ -0,0 +1,55 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks nearest queries against a brute force scan of a small index, and the count of points they examine.
+ */
+public class GeoIndexTest {
+
+    @Test
+    public void nearest_matchesBruteForce() {
+        ArrayIndex index = ArrayIndex.generate(20000, new Random(1));
+        Random rnd = new Random(2);
+        for (int q = 0; q < 200; q++) {
+            double lat = 47 + rnd.nextDouble() * 4;
+            double lon = 6 + rnd.nextDouble() * 6;
+            GeoIndex.Nearest nearest = index.nearest(lat, lon, 10, 50000);
+
+            double[] expected = bruteForce(index, lat, lon, 10, 50000);
+            assertEquals(expected.length, nearest.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], nearest.distance(i), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void nearest_countsExamined() {
+        ArrayIndex index = ArrayIndex.generate(20000, new Random(1));
+        int p = index.size() / 2;
+        GeoIndex.Nearest nearest = index.nearest(index.latitude(p), index.longitude(p), 5, 50000);
+        assertEquals(5, nearest.size());
+        // only the tiles around the point are looked at, not the whole index
+        assertTrue(nearest.examined() >= nearest.size());
+        assertTrue("examined " + nearest.examined(), nearest.examined() < index.size() / 10);
+    }
+
+    // bruteForce returns the distances of the closest points, up to limit, within maxDistance metres.
+    static double[] bruteForce(GeoIndex index, double latitude, double longitude, int limit, double maxDistance) {
+        double[] all = new double[index.size()];
+        int count = 0;
+        for (int i = 0; i < index.size(); i++) {
+            double d = GeoMath.distance(latitude, longitude, index.latitude(i), index.longitude(i));
+            if (d <= maxDistance)
+                all[count++] = d;
+        }
+        Arrays.sort(all, 0, count);
+        return Arrays.copyOf(all, Math.min(limit, count));
+    }
+}
@@ -0,0 +1,62 @@
+package org.spoofer.signalseeker.spatial;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sorts the geohashes of clustered cells, and keys with few distinct values, on 1 and 4 cores, checking the keys
+ * come out ascending and each sorted position names where its key came from.
+ */
+public class KeySortTest {
+
+    @Test
+    public void sort_geohashes() {
+        ArrayIndex index = ArrayIndex.generate(200000, new Random(4));
+        long[] keys = new long[index.size()];
+        Random rnd = new Random(5);
+        for (int i = 0; i < keys.length; i++) {
+            // ArrayIndex keeps its points in key order, so take them shuffled
+            int p = rnd.nextInt(index.size());
+            keys[i] = GeoHash.encode(index.latitude(p), index.longitude(p));
+        }
+        check(keys, 1);
+        check(keys, 4);
+    }
+
+    @Test
+    public void sort_fewDistinctKeys() {
+        long[] keys = new long[100000];
+        Random rnd = new Random(6);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rnd.nextInt(3) * 1000L;
+        }
+        check(keys, 4);
+        check(new long[0], 4);
+        check(new long[]{7}, 4);
+    }
+
+    private static void check(long[] source, int cores) {
+        long[] keys = source.clone();
+        ForkJoinPool pool = new ForkJoinPool(cores);
+        int[] order;
+        try {
+            order = KeySort.sort(keys, pool);
+        } finally {
+            pool.shutdown();
+        }
+        long[] expected = source.clone();
+        Arrays.sort(expected);
+        assertArrayEquals(expected, keys);
+        boolean[] seen = new boolean[source.length];
+        for (int i = 0; i < keys.length; i++) {
+            assertFalse("position " + order[i] + " named twice", seen[order[i]]);
+            seen[order[i]] = true;
+            assertEquals(source[order[i]], keys[i]);
+        }
+    }
+}
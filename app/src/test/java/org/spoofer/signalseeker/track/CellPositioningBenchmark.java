@@ -0,0 +1,115 @@
+package org.spoofer.signalseeker.track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+import org.spoofer.signalseeker.location.FixProcessor;
+import org.spoofer.signalseeker.spatial.ArrayIndex;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares positioning from the cells heard against GPS, replaying a synthetic drive over a country sized index of
+ * 2M cells. The track records a scan of the nearest cells every few seconds, their signals following a log distance
+ * path loss with shadowing, and GPS fixes only after a cold start's time to first fix. Reports the error of the cell
+ * positions against the true path, the time into the track of the first position from each, and the latency of
+ * locating a scan. CellPositioningTest checks a stationary phone's estimate tightens as scans are combined.
+ */
+public class CellPositioningBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final int DRIVE_SECONDS = 3600;
+    private static final long GPS_FIRST_FIX = 25000;    // milliseconds, a typical cold start
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cellpos").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void drive_cellVersusGps() throws Exception {
+        ArrayIndex index = ArrayIndex.generate(CELLS, new Random(42));
+        final List<Fix> path = ReplayTest.drive(new Random(3), DRIVE_SECONDS);
+        File file = new File(dir, "drive.trk");
+        CellPositioningTest.write(file, path, index, new Random(7), GPS_FIRST_FIX);
+
+        final List<Double> errors = Collections.synchronizedList(new ArrayList<Double>());
+        final long[] first = {-1, -1}; // track milliseconds of the first GPS and cell positions
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        FixProcessor processor = new FixProcessor();
+        try {
+            processor.setLookup(ReplayTest.lookup(index));
+            ReplayEngine engine = new ReplayEngine(processor, dispatcher, new ReplayEngine.Listener() {
+                @Override
+                public void onUpdate(FixProcessor.Update update) {
+                    if (first[0] < 0)
+                        first[0] = update.fix.getTime();
+                }
+
+                @Override
+                public void onCellSample(CellSample sample) {
+                }
+
+                @Override
+                public void onCellFix(Fix fix) {
+                    if (first[1] < 0)
+                        first[1] = fix.getTime();
+                    Fix truth = path.get((int) (fix.getTime() / 1000));
+                    errors.add(GeoMath.distance(truth.getLatitude(), truth.getLongitude(),
+                            fix.getLatitude(), fix.getLongitude()));
+                }
+            });
+            // warm up the JIT before timing
+            engine.replay(file, 0);
+            processor.setLookup(null);
+            processor.setLookup(ReplayTest.lookup(index));
+            errors.clear();
+            first[0] = first[1] = -1;
+
+            ReplayEngine.Result r = engine.replay(file, 0);
+            double[] e = new double[errors.size()];
+            for (int i = 0; i < e.length; i++) {
+                e[i] = errors.get(i);
+            }
+            Arrays.sort(e);
+            System.out.printf("%d scans located; cell error p50 %.0f m, p95 %.0f m, max %.0f m%n",
+                    r.cellFixes, e[e.length / 2], e[e.length * 95 / 100], e[e.length - 1]);
+            System.out.printf("first position: cell %d ms, GPS %d ms into the track%n", first[1], first[0]);
+            System.out.printf("locate p50 %d us, p99 %d us; GPS fix process p50 %d us%n",
+                    r.locateLatency.percentile(50) / 1000, r.locateLatency.percentile(99) / 1000,
+                    r.processLatency.percentile(50) / 1000);
+            assertEquals(DRIVE_SECONDS / CellPositioningTest.SCAN_PERIOD, r.cellFixes);
+            assertEquals(0, first[1]);
+            assertEquals(GPS_FIRST_FIX, first[0]);
+            assertTrue("median error " + e[e.length / 2], e[e.length / 2] < 500);
+            assertTrue("locate p99 " + r.locateLatency.percentile(99), r.locateLatency.percentile(99) < 10000000);
+        } finally {
+            processor.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.spoofer.signalseeker.track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+import org.spoofer.signalseeker.location.FixProcessor;
+import org.spoofer.signalseeker.spatial.ArrayIndex;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays two minutes of a stationary phone's scans of the cells it hears, over a small index, checking its position
+ * estimate tightens as scans are combined. The signals follow a log distance path loss with shadowing.
+ */
+public class CellPositioningTest {
+
+    private static final int CELLS = 50000;
+    static final int SCAN_PERIOD = 5;                   // seconds
+    private static final int CELLS_HEARD = 6;
+    private static final double HEARING_RANGE = 10000;  // metres
+    private static final double PATH_LOSS = 35;         // dB per decade of distance
+    private static final double SHADOWING = 6;          // dB standard deviation
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cellpos").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void stationary_tightensOverTime() throws Exception {
+        ArrayIndex index = ArrayIndex.generate(CELLS, new Random(42));
+        Fix here = ReplayTest.drive(new Random(3), 1).get(0);
+        List<Fix> path = new ArrayList<>();
+        for (int t = 0; t < 120; t++) {
+            path.add(new Fix(here.getLatitude(), here.getLongitude(), 5, 0, 0, false, t * 1000L));
+        }
+        File file = new File(dir, "still.trk");
+        write(file, path, index, new Random(11), Long.MAX_VALUE);
+
+        final List<Fix> fixes = Collections.synchronizedList(new ArrayList<Fix>());
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        FixProcessor processor = new FixProcessor();
+        try {
+            processor.setLookup(ReplayTest.lookup(index));
+            new ReplayEngine(processor, dispatcher, new ReplayEngine.Listener() {
+                @Override
+                public void onUpdate(FixProcessor.Update update) {
+                }
+
+                @Override
+                public void onCellSample(CellSample sample) {
+                }
+
+                @Override
+                public void onCellFix(Fix fix) {
+                    fixes.add(fix);
+                }
+            }).replay(file, 0);
+        } finally {
+            processor.shutdown();
+            dispatcher.shutdown();
+        }
+
+        Fix start = fixes.get(0);
+        Fix end = fixes.get(fixes.size() - 1);
+        double startError = GeoMath.distance(here.getLatitude(), here.getLongitude(),
+                start.getLatitude(), start.getLongitude());
+        double endError = GeoMath.distance(here.getLatitude(), here.getLongitude(),
+                end.getLatitude(), end.getLongitude());
+        System.out.printf("stationary: first scan %.0f m off, accuracy %.0f m; after %d scans %.0f m off, "
+                + "accuracy %.0f m%n", startError, start.getAccuracy(), fixes.size(), endError, end.getAccuracy());
+        assertTrue(end.getAccuracy() < start.getAccuracy());
+    }
+
+    // write records a scan of the cells heard every SCAN_PERIOD seconds of the path, starting with the first, and
+    // the path's GPS fixes from gpsFirstFix milliseconds into it. The cells heard are the nearest of the index, the
+    // strongest registered, with their positions in the index as their cids, as ReplayTest.lookup expects.
+    static void write(File file, List<Fix> path, GeoIndex index, Random rnd, long gpsFirstFix)
+            throws IOException {
+        long start = path.get(0).getTime();
+        try (TrackWriter writer = new TrackWriter(file, start)) {
+            for (int t = 0; t < path.size(); t++) {
+                Fix fix = path.get(t);
+                if (t % SCAN_PERIOD == 0) {
+                    GeoIndex.Nearest nearest = index.nearest(fix.getLatitude(), fix.getLongitude(),
+                            CELLS_HEARD, HEARING_RANGE);
+                    int[] dbm = new int[nearest.size()];
+                    int strongest = 0;
+                    for (int i = 0; i < dbm.length; i++) {
+                        double d = Math.max(10, nearest.distance(i));
+                        dbm[i] = (int) Math.round(-40 - PATH_LOSS * Math.log10(d) + rnd.nextGaussian() * SHADOWING);
+                        if (dbm[i] > dbm[strongest])
+                            strongest = i;
+                    }
+                    for (int i = 0; i < dbm.length; i++) {
+                        int cid = nearest.position(i);
+                        writer.writeCell(new CellSample(262, 1, cid / 1000, cid, dbm[i], i == strongest,
+                                fix.getTime()));
+                    }
+                }
+                if (fix.getTime() - start >= gpsFirstFix)
+                    writer.writeFix(fix);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.spoofer.signalseeker.track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+import org.spoofer.signalseeker.location.FixProcessor;
+import org.spoofer.signalseeker.metrics.Metrics;
+import org.spoofer.signalseeker.spatial.ArrayIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a synthetic hour long drive through the fix processing of the location service, over a country sized
+ * index of 2M cells, and reports the fixes processed per second and the latency to the listener.
+ * TrackTest checks the track reads back what was written, and ReplayTest an accelerated replay of a short drive.
+ */
+public class ReplayBenchmark {
+
+    private static final int CELLS = 2000000;
+    private static final int DRIVE_SECONDS = 3600;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("track").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replay_maxSpeed() throws Exception {
+        final ArrayIndex index = ArrayIndex.generate(CELLS, new Random(42));
+        File file = new File(dir, "drive.trk");
+        ReplayTest.write(file, ReplayTest.drive(new Random(3), DRIVE_SECONDS), index);
+
+        final AtomicInteger updates = new AtomicInteger();
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        FixProcessor processor = new FixProcessor();
+        try {
+            processor.setLookup(ReplayTest.lookup(index));
+            ReplayEngine engine = new ReplayEngine(processor, dispatcher, new ReplayEngine.Listener() {
+                @Override
+                public void onUpdate(FixProcessor.Update update) {
+                    if (update.cells != null && !update.cells.isEmpty())
+                        updates.incrementAndGet();
+                }
+
+                @Override
+                public void onCellSample(CellSample sample) {
+                }
+
+                @Override
+                public void onCellFix(Fix fix) {
+                }
+            });
+            // warm up the JIT before timing
+            engine.replay(file, 0);
+            processor.setLookup(null);
+            processor.setLookup(ReplayTest.lookup(index));
+
+            ReplayEngine.Result r = engine.replay(file, 0);
+            System.out.printf("%d fixes, %d cell samples in %d ms, %.0f fixes/s%n",
+                    r.fixes, r.cellSamples, r.elapsedNanos / 1000000, r.fixesPerSecond());
+            System.out.printf("process p50 %d us, p99 %d us; dispatch p50 %d us, p99 %d us; prefetch hit rate %d%%%n",
+                    r.processLatency.percentile(50) / 1000, r.processLatency.percentile(99) / 1000,
+                    r.dispatchLatency.percentile(50) / 1000, r.dispatchLatency.percentile(99) / 1000,
+                    Metrics.PREFETCH_HIT_RATE.get());
+            assertEquals(DRIVE_SECONDS, r.fixes);
+            assertEquals(DRIVE_SECONDS / ReplayTest.CELL_SAMPLE_PERIOD, r.cellSamples);
+            assertEquals(2 * DRIVE_SECONDS, updates.get());
+        } finally {
+            processor.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.spoofer.signalseeker.track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.celldb.Cell;
+import org.spoofer.signalseeker.celldb.CellLookup;
+import org.spoofer.signalseeker.location.CellSample;
+import org.spoofer.signalseeker.location.Fix;
+import org.spoofer.signalseeker.location.FixProcessor;
+import org.spoofer.signalseeker.spatial.GeoIndex;
+import org.spoofer.signalseeker.spatial.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a minute long synthetic drive through the fix processing of the location service 60 times faster than
+ * recorded, checking every fix is released in order and never ahead of its recorded time.
+ */
+public class ReplayTest {
+
+    private static final double DRIVE_SPEED = 25; // metres per second
+    static final int CELL_SAMPLE_PERIOD = 5;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("track").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replay_accelerated_keepsSchedule() throws Exception {
+        File file = new File(dir, "short.trk");
+        write(file, drive(new Random(5), 60), null);
+
+        // when each fix reached the listener, in the order they arrived
+        final List<long[]> arrivals = new ArrayList<>();
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        FixProcessor processor = new FixProcessor();
+        try {
+            ReplayEngine engine = new ReplayEngine(processor, dispatcher, new ReplayEngine.Listener() {
+                @Override
+                public void onUpdate(FixProcessor.Update update) {
+                    arrivals.add(new long[]{update.fix.getTime(), System.nanoTime()});
+                }
+
+                @Override
+                public void onCellSample(CellSample sample) {
+                }
+
+                @Override
+                public void onCellFix(Fix fix) {
+                }
+            });
+            // a minute of fixes at 1 Hz, 60 times real time, the last released 59s in
+            long start = System.nanoTime();
+            ReplayEngine.Result r = engine.replay(file, 60);
+            System.out.printf("60s track at x60 in %d ms, dispatch p99 %d us%n",
+                    TimeUnit.NANOSECONDS.toMillis(r.elapsedNanos), r.dispatchLatency.percentile(99) / 1000);
+            assertEquals(60, r.fixes);
+            assertEquals(60, arrivals.size());
+            // every fix in recorded order, none before its recorded time scaled to the replay, which is
+            // its offset from the first fix
+            for (int i = 0; i < arrivals.size(); i++) {
+                long offset = arrivals.get(i)[0];
+                assertEquals(i * 1000L, offset);
+                long due = start + TimeUnit.MILLISECONDS.toNanos(offset) / 60;
+                assertTrue("fix " + i + " released ahead of schedule", arrivals.get(i)[1] >= due);
+            }
+            assertTrue(r.elapsedNanos >= TimeUnit.SECONDS.toNanos(59) / 60);
+        } finally {
+            processor.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+
+    // drive returns a fix each second of a drive at around DRIVE_SPEED, turning gently.
+    static List<Fix> drive(Random rnd, int seconds) {
+        List<Fix> fixes = new ArrayList<>(seconds);
+        double[] p = {48.5, 8.5};
+        double bearing = rnd.nextDouble() * 360;
+        for (int t = 0; t < seconds; t++) {
+            float speed = (float) (DRIVE_SPEED + rnd.nextGaussian());
+            bearing = (bearing + rnd.nextGaussian() * 3 + 360) % 360;
+            GeoMath.destination(p[0], p[1], bearing, speed, p);
+            fixes.add(new Fix(p[0], p[1], 3 + rnd.nextFloat() * 10, speed, (float) bearing, false,
+                    50000 + t * 1000L));
+        }
+        return fixes;
+    }
+
+    // write records the fixes to a track. Given an index, the cell nearest every CELL_SAMPLE_PERIOD'th fix is
+    // recorded as the serving cell, its position in the index as its cid.
+    static void write(File file, List<Fix> fixes, GeoIndex index) throws IOException {
+        try (TrackWriter writer = new TrackWriter(file, 1000)) {
+            int n = 0;
+            for (Fix fix : fixes) {
+                writer.writeFix(fix);
+                if (index == null || ++n % CELL_SAMPLE_PERIOD != 0)
+                    continue;
+                GeoIndex.Nearest nearest = index.nearest(fix.getLatitude(), fix.getLongitude(), 1, 10000);
+                int cid = nearest.size() == 0 ? 0 : nearest.position(0);
+                writer.writeCell(new CellSample(262, 1, cid / 1000, cid, -70, true, fix.getTime()));
+            }
+        }
+    }
+
+    // lookup finds cells in the index, as the database does from its own index and id table.
+    static CellLookup lookup(final GeoIndex index) {
+        return new CellLookup() {
+            @Override
+            public List<Cell> findLocalCells(double latitude, double longitude, int limit) {
+                GeoIndex.Nearest nearest = index.nearest(latitude, longitude, limit, 50000);
+                List<Cell> cells = new ArrayList<>(nearest.size());
+                for (int i = 0; i < nearest.size(); i++) {
+                    int p = nearest.position(i);
+                    cells.add(new Cell(String.valueOf(p), "262", "1", String.valueOf(p / 1000),
+                            index.latitude(p), index.longitude(p), Math.round(nearest.distance(i) / 1000),
+                            new Date(0)));
+                }
+                return cells;
+            }
+
+            // findCell finds the cells recorded by write, whose cid is their index position.
+            @Override
+            public Cell findCell(int mcc, int mnc, int lac, int cid) {
+                if (mcc != 262 || mnc != 1 || cid < 0 || cid >= index.size() || lac != cid / 1000)
+                    return null;
+                return new Cell(String.valueOf(cid), "262", "1", String.valueOf(lac),
+                        index.latitude(cid), index.longitude(cid), 0, new Date(0));
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package org.spoofer.signalseeker.track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofer.signalseeker.location.Fix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes the fixes of a synthetic hour long drive to a track, reporting its size, and checks it reads back what was
+ * written to the precision the track keeps.
+ */
+public class TrackTest {
+
+    private static final int DRIVE_SECONDS = 3600;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("track").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void track_roundTrip() throws IOException {
+        File file = new File(dir, "drive.trk");
+        List<Fix> fixes = ReplayTest.drive(new Random(3), DRIVE_SECONDS);
+        ReplayTest.write(file, fixes, null);
+        System.out.printf("%d fixes in %d bytes, %.1f bytes per fix%n",
+                fixes.size(), file.length(), (double) file.length() / fixes.size());
+
+        try (TrackReader reader = new TrackReader(file)) {
+            assertEquals(1000, reader.startTime());
+            for (Fix expected : fixes) {
+                assertEquals(TrackReader.FIX, reader.next());
+                Fix fix = reader.fix();
+                assertEquals(expected.getLatitude(), fix.getLatitude(), 1e-7);
+                assertEquals(expected.getLongitude(), fix.getLongitude(), 1e-7);
+                assertEquals(expected.getAccuracy(), fix.getAccuracy(), 0.05);
+                assertEquals(expected.getSpeed(), fix.getSpeed(), 0.006);
+                assertEquals(expected.getBearing(), fix.getBearing(), 0.006);
+                assertEquals(expected.getTime() - fixes.get(0).getTime(), fix.getTime());
+            }
+            assertEquals(TrackReader.END, reader.next());
+        }
+    }
+}